@@ -0,0 +1,65 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * Deterministic inputs shared by the benchmarks, so that results can be
+ * compared across commits.
+ */
+final class BenchmarkData {
+
+	/** Bundled cascade file. */
+	private static final String CASCADE_RESOURCE = "/haarcascade_frontalface_default.xml";
+
+	/** Seed of all synthetic images. */
+	static final long SEED = 42;
+
+	/**
+	 * Hidden constructor.
+	 */
+	private BenchmarkData() {
+	}
+
+	/**
+	 * Creates an 8-bit image filled with seeded random noise.
+	 *
+	 * @param aWidth    image width
+	 * @param aHeight   image height
+	 * @param aChannels number of channels
+	 * @param aSeed     random seed
+	 * @return image
+	 */
+	static IplImage syntheticImage(final int aWidth, final int aHeight, final int aChannels, final long aSeed) {
+
+		IplImage image = opencv_core.cvCreateImage(opencv_core.cvSize(aWidth, aHeight), opencv_core.IPL_DEPTH_8U,
+				aChannels);
+		byte[] pixels = new byte[image.imageSize()];
+		new Random(aSeed).nextBytes(pixels);
+		image.imageData().put(pixels, 0, pixels.length);
+		return image;
+	}
+
+	/**
+	 * Copies the bundled cascade file to a temporary file.
+	 *
+	 * @return path to the cascade file
+	 * @throws IOException exception
+	 */
+	static String extractCascade() throws IOException {
+
+		File file = File.createTempFile("haarcascade", ".xml");
+		file.deleteOnExit();
+		try (InputStream in = BenchmarkData.class.getResourceAsStream(CASCADE_RESOURCE)) {
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return file.getAbsolutePath();
+	}
+}
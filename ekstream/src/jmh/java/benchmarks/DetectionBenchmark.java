@@ -0,0 +1,113 @@
+package benchmarks;
+
+import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_DO_CANNY_PRUNING;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.presets.opencv_objdetect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import processors.DetectFaces;
+import utils.DetectionSettings;
+import utils.FaceDetectorPool;
+import utils.ImagePool;
+
+/**
+ * Measures face detection as done by {@link DetectFaces#detect}, i.e.
+ * locating and cropping faces, with the bundled frontal face cascade and the
+ * processor's default parameters, on synthetic frames of common camera
+ * resolutions, both at full resolution and downscaled to 640 px. The noise
+ * frames contain no faces, so this measures the cascade scan of a frame
+ * without faces; {@link FaceExtractionBenchmark} measures the resizing and
+ * encoding of the faces found.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DetectionBenchmark {
+
+	/** Scale factor, as the processor default. */
+	private static final double SCALE_FACTOR = 1.5;
+
+	/** Minimum neighbours, as the processor default. */
+	private static final int MIN_NEIGHBOURS = 3;
+
+	/** Frame resolution. */
+	@Param({ "640x480", "1280x720", "1920x1080" })
+	private String resolution;
+
+	/** Detection width, 0 for full resolution. */
+	@Param({ "0", "640" })
+	private int detectionWidth;
+
+	/** Synthetic frame. */
+	private IplImage frame;
+
+	/** Single face detector. */
+	private FaceDetectorPool detectors;
+
+	/** Buffers of the cropped faces. */
+	private final ImagePool pool = new ImagePool();
+
+	/**
+	 * Loads the cascade and creates the frame.
+	 *
+	 * @throws IOException exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		Loader.load(opencv_objdetect.class);
+
+		String[] size = resolution.split("x");
+		frame = BenchmarkData.syntheticImage(Integer.parseInt(size[0]), Integer.parseInt(size[1]), 3,
+				BenchmarkData.SEED);
+		detectors = new FaceDetectorPool(1, new DetectionSettings(BenchmarkData.extractCascade(), SCALE_FACTOR,
+				MIN_NEIGHBOURS, CV_HAAR_DO_CANNY_PRUNING, 0, 0, detectionWidth));
+	}
+
+	/**
+	 * Releases the detector, the face buffers and the frame.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		detectors.release();
+		pool.clear();
+		opencv_core.cvReleaseImage(frame);
+	}
+
+	/**
+	 * @param aBlackhole sink
+	 */
+	@Benchmark
+	public void detect(final Blackhole aBlackhole) {
+		ArrayList<CvRect> rectangles = detectors.detect(frame);
+		ArrayList<IplImage> faces = DetectFaces.crop(frame, rectangles, pool);
+		aBlackhole.consume(faces);
+		for (IplImage face : faces) {
+			pool.release(face);
+		}
+	}
+}
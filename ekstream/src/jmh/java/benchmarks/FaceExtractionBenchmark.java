@@ -0,0 +1,118 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import processors.DetectFaces;
+import utils.ImagePool;
+import utils.RawFrameCodec;
+import utils.Utils;
+
+/**
+ * Measures what {@link DetectFaces} does with the faces once they are
+ * located, i.e. resizing them to the default output size and encoding them
+ * in the configured frame format. The synthetic frames of
+ * {@link DetectionBenchmark} contain no faces, so the detections are
+ * synthesised: a row of square faces of a fifth of the frame height, as a
+ * camera a few metres away sees them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FaceExtractionBenchmark {
+
+	/** Width of the extracted faces, as the processor default. */
+	private static final int FACE_WIDTH = 92;
+
+	/** Height of the extracted faces, as the processor default. */
+	private static final int FACE_HEIGHT = 112;
+
+	/** Capture timestamp of the raw frames. */
+	private static final long TIMESTAMP = 1500000000000L;
+
+	/** Frame resolution. */
+	@Param({ "640x480", "1920x1080" })
+	private String resolution;
+
+	/** Number of faces per frame. */
+	@Param({ "1", "4" })
+	private int faces;
+
+	/** Frame format of the extracted faces. */
+	@Param({ "raw", "png" })
+	private String format;
+
+	/** Synthetic frame. */
+	private IplImage frame;
+
+	/** Synthetic detections. */
+	private List<CvRect> rectangles;
+
+	/** Buffers of the resized faces. */
+	private final ImagePool pool = new ImagePool();
+
+	/**
+	 * Creates the frame and spreads the faces evenly across it.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		String[] size = resolution.split("x");
+		int width = Integer.parseInt(size[0]);
+		int height = Integer.parseInt(size[1]);
+		frame = BenchmarkData.syntheticImage(width, height, 3, BenchmarkData.SEED);
+
+		int side = height / 5;
+		rectangles = new ArrayList<CvRect>(faces);
+		for (int i = 0; i < faces; i++) {
+			rectangles.add(new CvRect((i + 1) * width / (faces + 1) - side / 2, (height - side) / 2, side, side));
+		}
+	}
+
+	/**
+	 * Releases the face buffers and the frame.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		pool.clear();
+		opencv_core.cvReleaseImage(frame);
+	}
+
+	/**
+	 * @param aBlackhole sink
+	 * @throws IOException exception
+	 */
+	@Benchmark
+	public void extract(final Blackhole aBlackhole) throws IOException {
+		ArrayList<IplImage> resized = Utils.getInstance().resizeImages(frame, rectangles, FACE_WIDTH, FACE_HEIGHT,
+				pool);
+		for (IplImage face : resized) {
+			aBlackhole.consume("raw".equals(format) ? RawFrameCodec.encode(face, TIMESTAMP)
+					: Utils.getInstance().convertToByteArray(face));
+			pool.release(face);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package benchmarks;
+
+import static org.bytedeco.javacpp.opencv_core.CV_32SC1;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.MatVector;
+import org.bytedeco.javacpp.presets.opencv_objdetect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import processors.RecogniseFaces;
+import utils.RecognizerEngine;
+
+/**
+ * Measures a single face prediction of each recognition algorithm, trained
+ * on synthetic galleries of different sizes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PredictionBenchmark {
+
+	/** Face size expected by the recognizer. */
+	private static final int FACE_WIDTH = 92, FACE_HEIGHT = 112;
+
+	/** Number of people in a gallery. */
+	private static final int PEOPLE = 10;
+
+	/** Recognition algorithm. */
+	@Param({ "Fisher", "Eigen", "LBPH", "JavaLBPH" })
+	private String algorithm;
+
+	/** Number of training images. */
+	@Param({ "20", "100", "400" })
+	private int gallerySize;
+
+	/** Trained recognizer. */
+	private RecognizerEngine recognizer;
+
+	/** Face to be recognised. */
+	private Mat face;
+
+	/** Predicted label. */
+	private final int[] label = new int[1];
+
+	/** Prediction confidence. */
+	private final double[] confidence = new double[1];
+
+	/**
+	 * Trains the recognizer.
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		Loader.load(opencv_objdetect.class);
+
+		MatVector images = new MatVector(gallerySize);
+		Mat labels = new Mat(gallerySize, 1, CV_32SC1);
+		IntBuffer labelsBuf = labels.createBuffer();
+		for (int i = 0; i < gallerySize; i++) {
+			images.put(i, toMat(BenchmarkData.syntheticImage(FACE_WIDTH, FACE_HEIGHT, 1, BenchmarkData.SEED + i)));
+			labelsBuf.put(i, i % PEOPLE);
+		}
+
+		recognizer = RecogniseFaces.createRecognizer(algorithm);
+		recognizer.train(images, labels);
+		face = toMat(BenchmarkData.syntheticImage(FACE_WIDTH, FACE_HEIGHT, 1, BenchmarkData.SEED - 1));
+	}
+
+	/**
+	 * Releases the recognizer.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		recognizer.release();
+	}
+
+	/**
+	 * @return predicted label
+	 */
+	@Benchmark
+	public int predict() {
+		recognizer.predict(face, label, confidence);
+		return label[0];
+	}
+
+	/**
+	 * Copies an image into a mat.
+	 *
+	 * @param aImage image
+	 * @return mat
+	 */
+	private static Mat toMat(final IplImage aImage) {
+		Mat mat = opencv_core.cvarrToMat(aImage).clone();
+		opencv_core.cvReleaseImage(aImage);
+		return mat;
+	}
+}
@@ -0,0 +1,175 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.presets.opencv_objdetect;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import utils.ImagePool;
+import utils.Utils;
+
+/**
+ * Measures the image conversion paths of {@link Utils} on a 640x480 colour
+ * frame, the default camera resolution.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UtilsBenchmark {
+
+	/** Frame width. */
+	private static final int WIDTH = 640;
+
+	/** Frame height. */
+	private static final int HEIGHT = 480;
+
+	/** Face size expected by the recognizer. */
+	private static final int FACE_WIDTH = 92, FACE_HEIGHT = 112;
+
+	/** Colour frame. */
+	private IplImage image;
+
+	/** The frame as a buffered image. */
+	private BufferedImage buffered;
+
+	/** The frame encoded as PNG. */
+	private byte[] png;
+
+	/** The frame as a mat. */
+	private Mat mat;
+
+	/** A face-sized region in the middle of the frame. */
+	private CvRect face;
+
+	/** The same region as a list of detected faces. */
+	private List<CvRect> faces;
+
+	/** Buffer pool. */
+	private final ImagePool pool = new ImagePool();
+
+	/**
+	 * Prepares the inputs.
+	 *
+	 * @throws IOException exception
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		Loader.load(opencv_objdetect.class);
+
+		image = BenchmarkData.syntheticImage(WIDTH, HEIGHT, 3, BenchmarkData.SEED);
+		OpenCVFrameConverter.ToIplImage converter = new OpenCVFrameConverter.ToIplImage();
+		buffered = new Java2DFrameConverter().convert(converter.convert(image));
+		png = Utils.getInstance().convertToByteArray(image);
+		mat = new OpenCVFrameConverter.ToMat().convert(converter.convert(image)).clone();
+		face = new CvRect((WIDTH - FACE_WIDTH * 2) / 2, (HEIGHT - FACE_HEIGHT * 2) / 2, FACE_WIDTH * 2,
+				FACE_HEIGHT * 2);
+		faces = Collections.singletonList(face);
+	}
+
+	/**
+	 * Releases the inputs.
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		opencv_core.cvReleaseImage(image);
+		mat.deallocate();
+		pool.clear();
+	}
+
+	/**
+	 * @return PNG bytes
+	 * @throws IOException exception
+	 */
+	@Benchmark
+	public byte[] convertToByteArray() throws IOException {
+		return Utils.getInstance().convertToByteArray(image);
+	}
+
+	/**
+	 * @return image
+	 * @throws IOException exception
+	 */
+	@Benchmark
+	public IplImage convertBufferedImageToImage() throws IOException {
+		return Utils.getInstance().convertToImage(buffered);
+	}
+
+	/**
+	 * @return decoded mat
+	 * @throws IOException exception
+	 */
+	@Benchmark
+	public Mat convertPngToMat() throws IOException {
+		return Utils.getInstance().convertToMat(png);
+	}
+
+	/**
+	 * @param aBlackhole sink
+	 */
+	@Benchmark
+	public void resizeImage(final Blackhole aBlackhole) {
+		IplImage resized = Utils.getInstance().resizeImage(image, FACE_WIDTH, FACE_HEIGHT, pool);
+		aBlackhole.consume(resized);
+		pool.release(resized);
+	}
+
+	/**
+	 * @param aBlackhole sink
+	 */
+	@Benchmark
+	public void cropImage(final Blackhole aBlackhole) {
+		IplImage cropped = Utils.getInstance().cropImage(image, face, pool);
+		aBlackhole.consume(cropped);
+		pool.release(cropped);
+	}
+
+	/**
+	 * Crops and resizes a face as the detection processors do, straight from a
+	 * view of the frame into a pooled buffer.
+	 *
+	 * @param aBlackhole sink
+	 */
+	@Benchmark
+	public void resizeFace(final Blackhole aBlackhole) {
+		List<IplImage> resized = Utils.getInstance().resizeImages(image, faces, FACE_WIDTH, FACE_HEIGHT, pool);
+		aBlackhole.consume(resized);
+		pool.release(resized.get(0));
+	}
+
+	/**
+	 * @param aBlackhole sink
+	 */
+	@Benchmark
+	public void convertToGrayscale(final Blackhole aBlackhole) {
+		Mat gray = Utils.getInstance().convertToGrayscale(mat);
+		aBlackhole.consume(gray);
+		gray.deallocate();
+	}
+}
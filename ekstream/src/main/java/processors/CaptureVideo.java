@@ -1,33 +1,37 @@
 package processors;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
-import org.apache.nifi.flowfile.FlowFile;
-import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
-import org.apache.nifi.processor.io.OutputStreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.FrameGrabber.Exception;
 
-import utils.Utils;
+import utils.CaptureThread;
+import utils.FrameRingBuffer;
+import utils.RateController;
+import utils.StageMetrics;
 
 /**
  * A NiFi processor which accesses the default video camera, captures the video
@@ -56,8 +60,57 @@ public class CaptureVideo extends EkstreamProcessor {
 			.description("Specified the time interval between two captured video frames, in ms").defaultValue("1000")
 			.required(true).addValidator(StandardValidators.INTEGER_VALIDATOR).build();
 
-	/** JavaCV frame grabber. */
-	private static FrameGrabber grabber;
+	/** Processor property. */
+	public static final PropertyDescriptor BUFFER_SIZE = new PropertyDescriptor.Builder().name("Frame buffer size")
+			.description("Specifies how many captured frames are kept before the oldest ones are dropped")
+			.defaultValue("10").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor ADAPTIVE_RATE = new PropertyDescriptor.Builder()
+			.name("Adaptive frame rate")
+			.description("Specifies whether the frame rate adapts to downstream: starting from the time interval "
+					+ "between frames, it rises towards the maximum frame rate while frames are taken promptly, and "
+					+ "falls towards the minimum under backpressure or when the latency exceeds the target")
+			.allowableValues(new HashSet<String>(Arrays.asList("true", "false"))).defaultValue("false").required(true)
+			.addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor MIN_FRAME_RATE = new PropertyDescriptor.Builder()
+			.name("Minimum frame rate")
+			.description("Specifies the lowest adaptive frame rate, in frames per second").defaultValue("0.2")
+			.required(true)
+			.addValidator(DetectFaces.createNumberValidator(value -> value > 0, "must be a positive number"))
+			.build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor MAX_FRAME_RATE = new PropertyDescriptor.Builder()
+			.name("Maximum frame rate")
+			.description("Specifies the highest adaptive frame rate, in frames per second").defaultValue("10")
+			.required(true)
+			.addValidator(DetectFaces.createNumberValidator(value -> value > 0, "must be a positive number"))
+			.build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor LATENCY_TARGET = new PropertyDescriptor.Builder().name("Latency target")
+			.description("Specifies the capture-to-recognition latency above which the adaptive frame rate falls, "
+					+ "as measured by face recognition of this processor's frames in the same NiFi instance. "
+					+ "0 sec only adapts to backpressure.")
+			.defaultValue("1 sec").required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+	/** Counter holding the effective frame rate. */
+	public static final String RATE_COUNTER = "Frame rate (frames/min)";
+
+	/** Period of the adaptive frame rate evaluation, in ms. */
+	private static final long RATE_PERIOD = 1000;
+
+	/** Background capture thread. */
+	private CaptureThread capture;
+
+	/** Adaptive frame rate, or null if the rate is fixed. */
+	private RateController rate;
+
+	/** Frame rate last added to the counter, in frames per minute. */
+	private final AtomicLong reportedRate = new AtomicLong();
 
 	/**
 	 * {@inheritDoc}
@@ -73,19 +126,74 @@ public class CaptureVideo extends EkstreamProcessor {
 
 		final List<PropertyDescriptor> supDescriptors = new ArrayList<>();
 		supDescriptors.add(FRAME_INTERVAL);
+		supDescriptors.add(ADAPTIVE_RATE);
+		supDescriptors.add(MIN_FRAME_RATE);
+		supDescriptors.add(MAX_FRAME_RATE);
+		supDescriptors.add(LATENCY_TARGET);
 		supDescriptors.add(FRAME_WIDTH);
 		supDescriptors.add(FRAME_HEIGHT);
+		supDescriptors.add(BUFFER_SIZE);
+		supDescriptors.add(FRAME_FORMAT);
 		supDescriptors.add(SAVE_IMAGES);
+		supDescriptors.add(DEBUG_IMAGE_DIR);
+		supDescriptors.add(DEBUG_IMAGE_SAMPLE_RATE);
+		supDescriptors.add(DEBUG_IMAGE_QUEUE_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_AGE);
 		supDescriptors.add(BENCHMARKING_DIR);
+		supDescriptors.add(BENCHMARK_FORMAT);
+		supDescriptors.add(BENCHMARK_BUFFER_SIZE);
+		supDescriptors.add(LATENCY_REPORT_INTERVAL);
+		supDescriptors.add(LATENCY_SLA);
 		setProperties(Collections.unmodifiableList(supDescriptors));
 
+		getLogger().info("Initialision complete!");
+	}
+
+	/**
+	 * Opens the video grabber and starts the background capture thread.
+	 *
+	 * @param aContext process context
+	 * @throws ProcessException if the video grabber cannot be created
+	 */
+	@OnScheduled
+	public void startCapture(final ProcessContext aContext) {
+
 		try {
-			grabber = FrameGrabber.createDefault(0);
+			FrameGrabber grabber = FrameGrabber.createDefault(0);
+			grabber.setImageWidth(aContext.getProperty(FRAME_WIDTH).asInteger());
+			grabber.setImageHeight(aContext.getProperty(FRAME_HEIGHT).asInteger());
+
+			capture = new CaptureThread(grabber,
+					new FrameRingBuffer<Frame>(aContext.getProperty(BUFFER_SIZE).asInteger()),
+					aContext.getProperty(FRAME_INTERVAL).asLong(), getLogger());
+			capture.start();
+			rate = startRateController(aContext, capture, getIdentifier());
 		} catch (Exception e) {
-			getLogger().error("Something went wrong with the video grabber initialisation!", e);
+			// NiFi reports the failure and schedules the processor again later
+			stopCapture();
+			throw new ProcessException("Something went wrong with the video grabber initialisation!", e);
 		}
+	}
 
-		getLogger().info("Initialision complete!");
+	/**
+	 * Stops the background capture thread and releases the video grabber.
+	 */
+	@OnStopped
+	public void stopCapture() {
+
+		if (null != rate) {
+			rate.shutdown();
+			rate = null;
+		}
+
+		if (null != capture) {
+			capture.shutdown();
+			getLogger().info("Capture stopped. Delivered frames: " + capture.getBuffer().getDelivered()
+					+ ", dropped frames: " + capture.getBuffer().getDropped() + ", last frame interval: "
+					+ capture.getInterval() + " ms");
+			capture = null;
+		}
 	}
 
 	/**
@@ -96,49 +204,69 @@ public class CaptureVideo extends EkstreamProcessor {
 
 		super.onTrigger(aContext, aSession);
 
-		try {
-
-			grabber.start();
-
-			Frame frame = grabber.grab();
+		if (null == capture) {
+			aContext.yield();
+			return;
+		}
+		reportRate(aSession, capture, reportedRate);
 
-			// TODO maybe send iplimage??
-			byte[] result = Utils.getInstance().convertToByteArray(frame);
+		Frame frame = capture.getBuffer().poll();
+		if (null == frame) {
+			aContext.yield();
+			return;
+		}
+		long start = StageMetrics.nowMicros();
 
-			saveInterimResults(System.currentTimeMillis() + "-captured.png", frame);
+		try {
 
-			// transfer the image
-			FlowFile flowFile = aSession.create();
-			flowFile = aSession.write(flowFile, new OutputStreamCallback() {
+			transferFrame(aContext, aSession, frame, start);
+			aSession.commit();
 
-				@Override
-				public void process(final OutputStream aStream) throws IOException {
+		} catch (IOException e) {
+			getLogger().error("Something went wrong with saving the file!", e);
+		}
 
-					aStream.write(result);
-				}
-			});
+	}
 
-			// benchmarking=====================================
-			flowFile = aSession.putAttribute(flowFile, "capture", String.valueOf(System.currentTimeMillis()));
-			benchmark(flowFile.getAttribute(CoreAttributes.UUID.key()));
-			// =================================================
+	/**
+	 * Starts adapting the frame rate of a capture thread, if asked for.
+	 *
+	 * @param aContext process context
+	 * @param aCapture running capture thread
+	 * @param aSource  identifier of the capturing processor
+	 * @return rate controller, or null if the frame rate is fixed
+	 */
+	static RateController startRateController(final ProcessContext aContext, final CaptureThread aCapture,
+			final String aSource) {
 
-			aSession.transfer(flowFile, REL_SUCCESS);
-			aSession.commit();
+		if (!aContext.getProperty(ADAPTIVE_RATE).asBoolean()) {
+			return null;
+		}
 
-			Thread.currentThread();
-			Thread.sleep(Integer.parseInt(aContext.getProperty(FRAME_INTERVAL).getValue()));
+		RateController result = new RateController(aCapture, aSource,
+				Double.parseDouble(aContext.getProperty(MIN_FRAME_RATE).getValue()),
+				Double.parseDouble(aContext.getProperty(MAX_FRAME_RATE).getValue()),
+				aContext.getProperty(LATENCY_TARGET).asTimePeriod(TimeUnit.MICROSECONDS));
+		result.start(RATE_PERIOD);
+		return result;
+	}
 
-			grabber.stop();
+	/**
+	 * Brings the frame rate counter up to date with the current interval of a
+	 * capture thread. NiFi counters can only be adjusted, so the last reported
+	 * rate is kept to add the difference, which also holds across restarts.
+	 *
+	 * @param aSession  process session
+	 * @param aCapture  capture thread
+	 * @param aReported frame rate last added to the counter, in frames per minute
+	 */
+	static void reportRate(final ProcessSession aSession, final CaptureThread aCapture, final AtomicLong aReported) {
 
-		} catch (Exception e) {
-			getLogger().error("Something went wrong with the video capture!", e);
-		} catch (InterruptedException e) {
-			getLogger().error("Something went wrong with the threads!", e);
-		} catch (IOException e) {
-			getLogger().error("Something went wrong with saving the file!", e);
+		long current = Math.round(TimeUnit.MINUTES.toMillis(1) / (double) Math.max(1, aCapture.getInterval()));
+		long change = current - aReported.getAndSet(current);
+		if (change != 0) {
+			aSession.adjustCounter(RATE_COUNTER, change, false);
 		}
-
 	}
 
 }
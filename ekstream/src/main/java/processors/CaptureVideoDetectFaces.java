@@ -1,11 +1,5 @@
 package processors;
 
-import static org.bytedeco.javacpp.helper.opencv_objdetect.cvHaarDetectObjects;
-import static org.bytedeco.javacpp.opencv_core.cvClearMemStorage;
-import static org.bytedeco.javacpp.opencv_core.cvGetSeqElem;
-import static org.bytedeco.javacpp.opencv_core.cvLoad;
-import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_DO_CANNY_PRUNING;
-
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -13,12 +7,16 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
@@ -29,16 +27,20 @@ import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.OutputStreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
-import org.bytedeco.javacpp.helper.opencv_core.AbstractCvMemStorage;
-import org.bytedeco.javacpp.opencv_core.CvMemStorage;
 import org.bytedeco.javacpp.opencv_core.CvRect;
-import org.bytedeco.javacpp.opencv_core.CvSeq;
 import org.bytedeco.javacpp.opencv_core.IplImage;
-import org.bytedeco.javacpp.opencv_objdetect.CvHaarClassifierCascade;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.FrameGrabber.Exception;
 
+import utils.CaptureThread;
+import utils.FaceBatchCodec;
+import utils.FaceDetectorPool;
+import utils.FaceTracker;
+import utils.FrameRingBuffer;
+import utils.MotionDetector;
+import utils.RateController;
+import utils.StageMetrics;
 import utils.Utils;
 
 /**
@@ -52,12 +54,6 @@ import utils.Utils;
 @CapabilityDescription("Testing JavaCV api")
 public class CaptureVideoDetectFaces extends EkstreamProcessor {
 
-	/** Scale factor for face detection. */
-	static final double SCALE_FACTOR = 1.5;
-
-	/** Neighbors for face detection. */
-	static final int MIN_NEIGHBOURS = 3;
-
 	/** 1000. */
 	static final int INTERVAL = 1000;
 
@@ -83,11 +79,28 @@ public class CaptureVideoDetectFaces extends EkstreamProcessor {
 			.description("Specified the time interval between two captured video frames, in ms").defaultValue("1000")
 			.required(true).addValidator(StandardValidators.INTEGER_VALIDATOR).build();
 
-	/** Cascade file. */
-	private static CvHaarClassifierCascade cascade;
+	/** Face detector. */
+	private FaceDetectorPool detectors;
+
+	/** Processor property. */
+	public static final PropertyDescriptor BUFFER_SIZE = new PropertyDescriptor.Builder().name("Frame buffer size")
+			.description("Specifies how many captured frames are kept before the oldest ones are dropped")
+			.defaultValue("10").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Background capture thread. */
+	private CaptureThread capture;
+
+	/** Motion pre-filter, or null if every frame is scanned. */
+	private MotionDetector motion;
+
+	/** Tracker assigning faces to tracks across frames. */
+	private FaceTracker tracker;
+
+	/** Adaptive frame rate, or null if the rate is fixed. */
+	private RateController rate;
 
-	/** JavaCV frame grabber. */
-	private static FrameGrabber grabber;
+	/** Frame rate last added to the counter, in frames per minute. */
+	private final AtomicLong reportedRate = new AtomicLong();
 
 	/**
 	 * {@inheritDoc}
@@ -103,20 +116,99 @@ public class CaptureVideoDetectFaces extends EkstreamProcessor {
 
 		final List<PropertyDescriptor> supDescriptors = new ArrayList<>();
 		supDescriptors.add(FRAME_INTERVAL);
+		supDescriptors.add(CaptureVideo.ADAPTIVE_RATE);
+		supDescriptors.add(CaptureVideo.MIN_FRAME_RATE);
+		supDescriptors.add(CaptureVideo.MAX_FRAME_RATE);
+		supDescriptors.add(CaptureVideo.LATENCY_TARGET);
+		supDescriptors.add(BUFFER_SIZE);
+		supDescriptors.add(FRAME_FORMAT);
+		supDescriptors.add(BATCH_FACES);
 		supDescriptors.add(IMAGE_WIDTH);
 		supDescriptors.add(IMAGE_HEIGHT);
 		supDescriptors.add(SAVE_IMAGES);
+		supDescriptors.add(DEBUG_IMAGE_DIR);
+		supDescriptors.add(DEBUG_IMAGE_SAMPLE_RATE);
+		supDescriptors.add(DEBUG_IMAGE_QUEUE_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_AGE);
 		supDescriptors.add(BENCHMARKING_DIR);
+		supDescriptors.add(BENCHMARK_FORMAT);
+		supDescriptors.add(BENCHMARK_BUFFER_SIZE);
+		supDescriptors.add(LATENCY_REPORT_INTERVAL);
+		supDescriptors.add(LATENCY_SLA);
 		supDescriptors.add(CASCADE_FILE);
+		supDescriptors.add(DetectFaces.DETECTION_WIDTH);
+		supDescriptors.add(DetectFaces.SCALE_FACTOR);
+		supDescriptors.add(DetectFaces.MIN_NEIGHBOURS);
+		supDescriptors.add(DetectFaces.MIN_FACE_SIZE);
+		supDescriptors.add(DetectFaces.MAX_FACE_SIZE);
+		supDescriptors.add(DetectFaces.DETECTION_FLAGS);
+		supDescriptors.add(DetectFaces.MOTION_AREA);
+		supDescriptors.add(DetectFaces.TRACK_TIMEOUT);
 		setProperties(Collections.unmodifiableList(supDescriptors));
 
+		getLogger().info("Initialision complete!");
+	}
+
+	/**
+	 * Opens the video grabber and starts the background capture thread.
+	 *
+	 * @param aContext process context
+	 * @throws ProcessException if the video grabber cannot be created
+	 */
+	@OnScheduled
+	public void startCapture(final ProcessContext aContext) {
+
+		detectors = new FaceDetectorPool(1,
+				DetectFaces.getDetectionSettings(aContext, aContext.getProperty(CASCADE_FILE).getValue()));
+		getLogger().info("Loaded the cascade file: " + aContext.getProperty(CASCADE_FILE).getValue());
+		motion = DetectFaces.createMotionDetector(aContext);
+		tracker = new FaceTracker(aContext.getProperty(DetectFaces.TRACK_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS));
+
 		try {
-			grabber = FrameGrabber.createDefault(0);
+			capture = new CaptureThread(FrameGrabber.createDefault(0),
+					new FrameRingBuffer<Frame>(aContext.getProperty(BUFFER_SIZE).asInteger()),
+					aContext.getProperty(FRAME_INTERVAL).asLong(), getLogger());
+			capture.start();
+			rate = CaptureVideo.startRateController(aContext, capture, getIdentifier());
 		} catch (Exception e) {
-			getLogger().error("Something went wrong with the video grabber initialisation!", e);
+			stopCapture();
+			throw new ProcessException("Something went wrong with the video grabber initialisation!", e);
 		}
+	}
 
-		getLogger().info("Initialision complete!");
+	/**
+	 * Stops the background capture thread and releases the video grabber.
+	 */
+	@OnStopped
+	public void stopCapture() {
+
+		if (null != rate) {
+			rate.shutdown();
+			rate = null;
+		}
+
+		if (null != capture) {
+			capture.shutdown();
+			getLogger().info("Capture stopped. Delivered frames: " + capture.getBuffer().getDelivered()
+					+ ", dropped frames: " + capture.getBuffer().getDropped() + ", last frame interval: "
+					+ capture.getInterval() + " ms");
+			capture = null;
+		}
+
+		if (null != detectors) {
+			detectors.release();
+			detectors = null;
+		}
+
+		if (null != motion) {
+			getLogger().info("Motion gating stopped. Scanned frames: " + motion.getMoving() + ", skipped frames: "
+					+ motion.getSkipped());
+			motion.release();
+			motion = null;
+		}
+
+		tracker = null;
 	}
 
 	/**
@@ -127,96 +219,197 @@ public class CaptureVideoDetectFaces extends EkstreamProcessor {
 
 		super.onTrigger(aContext, aSession);
 
-		if (null == cascade) {
-			cascade = new CvHaarClassifierCascade(cvLoad(aContext.getProperty(CASCADE_FILE).getValue()));
-			getLogger().info("Loaded the cascade file: " + cascade.toString());
+		if (null == capture) {
+			aContext.yield();
+			return;
 		}
+		CaptureVideo.reportRate(aSession, capture, reportedRate);
 
-		try {
+		Frame frame = capture.getBuffer().poll();
+		if (null == frame) {
+			aContext.yield();
+			return;
+		}
+		long start = StageMetrics.nowMicros();
 
-			grabber.start();
+		try {
 
-			Frame frame = grabber.grab();
 			IplImage image = Utils.getInstance().convertToImage(frame);
+			long captured = StageMetrics.nowMicros();
+			recordStage("capture", start - frame.timestamp, captured - start);
 
 			saveInterimResults(System.currentTimeMillis() + "-received.png", image);
 
-			ArrayList<IplImage> faces = detect(image);
+			if (null != motion && !motion.hasMotion(image)) {
+				aSession.adjustCounter(DetectFaces.SKIPPED_FRAMES_COUNTER, 1, false);
+				aSession.commit();
+				return;
+			}
+
+			ArrayList<CvRect> rectangles = locate(image);
+			List<String> tracks = tracker.assign(rectangles, frame.timestamp / 1000L);
 
-			if (!faces.isEmpty()) {
+			if (!rectangles.isEmpty()) {
 
-				ArrayList<IplImage> resizedFaces = Utils.getInstance().resizeImages(faces,
+				ArrayList<IplImage> resizedFaces = Utils.getInstance().resizeImages(image, rectangles,
 						Integer.parseInt(aContext.getProperty(IMAGE_WIDTH).getValue()),
-						Integer.parseInt(aContext.getProperty(IMAGE_HEIGHT).getValue()));
+						Integer.parseInt(aContext.getProperty(IMAGE_HEIGHT).getValue()),
+						getImagePool());
 
-				// now transfer the cropped images forward
-				for (IplImage face : resizedFaces) {
+				try {
 
-					saveInterimResults(System.currentTimeMillis() + "-resized.png", face);
+					if (aContext.getProperty(BATCH_FACES).asBoolean()) {
+						transferBatch(aContext, aSession, resizedFaces, rectangles, tracks, frame, start, captured);
+					} else {
 
-					byte[] bytes = Utils.getInstance().convertToByteArray(face);
+						// now transfer the cropped images forward
+						for (int i = 0; i < resizedFaces.size(); i++) {
 
-					// transfer the image
-					FlowFile flowFile = aSession.create();
-					flowFile = aSession.write(flowFile, new OutputStreamCallback() {
+							IplImage face = resizedFaces.get(i);
 
-						@Override
-						public void process(final OutputStream aStream) throws IOException {
+							saveInterimResults(System.currentTimeMillis() + "-resized.png", face);
 
-							aStream.write(bytes);
-						}
-					});
-					aSession.transfer(flowFile, REL_SUCCESS);
+							byte[] bytes = encodeImage(aContext, face, frame.timestamp / 1000L);
+
+							// transfer the image
+							FlowFile flowFile = aSession.create();
+							flowFile = aSession.write(flowFile, new OutputStreamCallback() {
+
+								@Override
+								public void process(final OutputStream aStream) throws IOException {
 
-					// benchmarking=====================================
-					benchmark(flowFile.getAttribute(CoreAttributes.UUID.key()));
-					// =================================================
+									aStream.write(bytes);
+								}
+							});
+							flowFile = aSession.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(),
+									getMimeType(aContext));
+							flowFile = putFaceAttributes(aSession, flowFile, i, rectangles.get(i), tracks.get(i));
 
+							// benchmarking=====================================
+							flowFile = stampFrame(aSession, flowFile, frame, start, captured);
+							aSession.transfer(flowFile, REL_SUCCESS);
+							benchmark(flowFile.getAttribute(CoreAttributes.UUID.key()));
+							// =================================================
+
+						}
+					}
+				} finally {
+					releaseImages(resizedFaces);
 				}
 			}
 
-			grabber.stop();
+			aSession.commit();
 
-			Thread.currentThread();
-			Thread.sleep(Long.parseLong(aContext.getProperty(FRAME_INTERVAL).getValue()));
-
-		} catch (Exception e) {
-			getLogger().error("Something went wrong with the video capture!", e);
-		} catch (InterruptedException e) {
-			getLogger().error("Something went wrong with the threads!", e);
 		} catch (IOException e) {
 			getLogger().error("Something went wrong with saving the file!", e);
-		} finally {
-			try {
-				grabber.stop();
-			} catch (Exception e1) {
-				getLogger().error("NESTED: Something went wrong with the video capture!", e1);
-			}
 		}
 
 	}
 
+	/**
+	 * Packs all faces of a frame into a single container flow file and transfers
+	 * it.
+	 *
+	 * @param aContext    process context
+	 * @param aSession    process session
+	 * @param aFaces      resized faces
+	 * @param aRectangles bounding boxes of the faces
+	 * @param aTracks     track identifiers of the faces
+	 * @param aFrame      captured frame
+	 * @param aStart      time the frame was taken from the buffer, in microseconds
+	 * @param aCaptured   time the frame was converted, in microseconds
+	 * @throws IOException exception
+	 */
+	private void transferBatch(final ProcessContext aContext, final ProcessSession aSession,
+			final List<IplImage> aFaces, final List<CvRect> aRectangles, final List<String> aTracks,
+			final Frame aFrame, final long aStart, final long aCaptured) throws IOException {
+
+		List<byte[]> encodedFaces = new ArrayList<>();
+		for (IplImage face : aFaces) {
+			saveInterimResults(System.currentTimeMillis() + "-resized.png", face);
+			encodedFaces.add(encodeImage(aContext, face, aFrame.timestamp / 1000L));
+		}
+		byte[] batch = FaceBatchCodec.encode(encodedFaces);
+
+		FlowFile flowFile = aSession.create();
+		flowFile = aSession.write(flowFile, new OutputStreamCallback() {
+
+			@Override
+			public void process(final OutputStream aStream) throws IOException {
+
+				aStream.write(batch);
+			}
+		});
+		flowFile = aSession.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), FaceBatchCodec.MIME_TYPE);
+		flowFile = putFaceAttributes(aSession, flowFile, aRectangles, aTracks);
+
+		// benchmarking=====================================
+		flowFile = stampFrame(aSession, flowFile, aFrame, aStart, aCaptured);
+		aSession.transfer(flowFile, REL_SUCCESS);
+		benchmark(flowFile.getAttribute(CoreAttributes.UUID.key()));
+		// =================================================
+	}
+
+	/**
+	 * Adds the timestamps of both the capture and the detection stage to a
+	 * flow file, the detection stage ending now.
+	 *
+	 * @param aSession  process session
+	 * @param aFlowFile flow file
+	 * @param aFrame    captured frame
+	 * @param aStart    time the frame was taken from the buffer, in microseconds
+	 * @param aCaptured time the frame was converted, in microseconds
+	 * @return updated flow file
+	 */
+	private FlowFile stampFrame(final ProcessSession aSession, final FlowFile aFlowFile, final Frame aFrame,
+			final long aStart, final long aCaptured) {
+
+		FlowFile result = aSession.putAttribute(aFlowFile, "frame.us", String.valueOf(aFrame.timestamp));
+		result = aSession.putAttribute(result, "frame.source", getIdentifier());
+		result = putStageAttributes(aSession, result, "capture", aCaptured, aStart - aFrame.timestamp,
+				aCaptured - aStart);
+		return stampStage(aSession, result, "detect", "capture", aCaptured);
+	}
+
 	/**
 	 * Detects faces in an input image.
 	 *
 	 * @param aImage input image
-	 * @return an array of detected faces as images
+	 * @return an array of detected faces as images, to be released with
+	 *         {@link #releaseImages(List)}
 	 */
 	public ArrayList<IplImage> detect(final IplImage aImage) {
 
-		ArrayList<IplImage> result = new ArrayList<IplImage>();
+		return crop(aImage, locate(aImage));
+	}
+
+	/**
+	 * Locates faces in an input image.
+	 *
+	 * @param aImage input image
+	 * @return an array of bounding boxes of detected faces
+	 */
+	public ArrayList<CvRect> locate(final IplImage aImage) {
+
+		return detectors.detect(aImage);
+	}
+
+	/**
+	 * Crops detected faces out of an input image.
+	 *
+	 * @param aImage      input image
+	 * @param aRectangles bounding boxes of detected faces
+	 * @return an array of detected faces as images, to be released with
+	 *         {@link #releaseImages(List)}
+	 */
+	public ArrayList<IplImage> crop(final IplImage aImage, final List<CvRect> aRectangles) {
 
-		CvMemStorage storage = AbstractCvMemStorage.create();
-		CvSeq sign = cvHaarDetectObjects(aImage, cascade, storage, SCALE_FACTOR, MIN_NEIGHBOURS,
-				CV_HAAR_DO_CANNY_PRUNING);
+		ArrayList<IplImage> result = new ArrayList<IplImage>(aRectangles.size());
 
-		for (int i = 0; i < sign.total(); i++) {
-			CvRect r = new CvRect(cvGetSeqElem(sign, i));
-			IplImage image = Utils.getInstance().cropImage(aImage, r);
-			result.add(image);
+		for (CvRect r : aRectangles) {
+			result.add(Utils.getInstance().cropImage(aImage, r, getImagePool()));
 		}
 
-		cvClearMemStorage(storage);
 		return result;
 	}
 
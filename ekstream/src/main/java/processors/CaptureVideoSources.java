@@ -0,0 +1,388 @@
+package processors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.FrameGrabber.Exception;
+
+import utils.CaptureThread;
+import utils.FrameRingBuffer;
+import utils.FrameSource;
+import utils.ReplayThread;
+import utils.StageMetrics;
+import utils.VirtualThreads;
+
+/**
+ * A NiFi processor which captures several video sources at once, each on its
+ * own capture thread, and multiplexes their frames fairly into a single
+ * stream. Every frame is transferred like {@link CaptureVideo} does, tagged
+ * with the source it came from.
+ */
+@TriggerWhenEmpty
+@InputRequirement(Requirement.INPUT_FORBIDDEN)
+@Tags({ "ekstream", "video", "stream", "capturing", "sampling", "multiple cameras" })
+@CapabilityDescription("Captures several cameras, video files or streams, one capture thread per source.")
+public class CaptureVideoSources extends EkstreamProcessor {
+
+	/** Attribute holding the source of a frame. */
+	public static final String CAMERA_ID = "camera.id";
+
+	/** Processor property. */
+	public static final PropertyDescriptor VIDEO_SOURCES = new PropertyDescriptor.Builder().name("Video sources")
+			.description("Specifies a comma-separated list of sources: camera device indices, video files or stream "
+					+ "URLs. Video files are replayed in real time and looped. Each source is used as the "
+					+ "camera.id of its frames")
+			.defaultValue("0").required(true).addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor MAX_FRAME_RATES = new PropertyDescriptor.Builder()
+			.name("Maximum frame rates")
+			.description("Specifies the maximum number of frames per second taken from each source, as a "
+					+ "comma-separated list in source order, or a single value for all sources")
+			.defaultValue("1").required(true).addValidator(createRatesValidator()).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor VIRTUAL_THREADS = new PropertyDescriptor.Builder()
+			.name("Virtual threads")
+			.description("Specifies whether sources are captured on virtual threads, where the JVM supports them. "
+					+ "A virtual thread stays pinned to its carrier while grabbing, so platform threads are used "
+					+ "whenever there are more sources than processors")
+			.allowableValues(new HashSet<String>(Arrays.asList("true", "false"))).defaultValue("true").required(true)
+			.addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
+	/**
+	 * A capturing source.
+	 */
+	private static final class Source {
+
+		/** Source identifier. */
+		private final String id;
+
+		/** Capture thread of the source. */
+		private final FrameSource capture;
+
+		/** Number of dropped frames already added to the processor counter. */
+		private final AtomicLong reportedDrops = new AtomicLong();
+
+		/** Whether the source has been reported as not capturing. */
+		private final AtomicBoolean reportedDead = new AtomicBoolean();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param aId      source identifier
+		 * @param aCapture capture thread of the source
+		 */
+		private Source(final String aId, final FrameSource aCapture) {
+			id = aId;
+			capture = aCapture;
+		}
+	}
+
+	/** Capturing sources. */
+	private volatile List<Source> sources;
+
+	/** Source to be polled first on the next trigger. */
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void init(final ProcessorInitializationContext aContext) {
+
+		super.init(aContext);
+
+		final Set<Relationship> procRels = new HashSet<>();
+		procRels.add(REL_SUCCESS);
+		setRelationships(Collections.unmodifiableSet(procRels));
+
+		final List<PropertyDescriptor> supDescriptors = new ArrayList<>();
+		supDescriptors.add(VIDEO_SOURCES);
+		supDescriptors.add(MAX_FRAME_RATES);
+		supDescriptors.add(VIRTUAL_THREADS);
+		supDescriptors.add(CaptureVideo.FRAME_WIDTH);
+		supDescriptors.add(CaptureVideo.FRAME_HEIGHT);
+		supDescriptors.add(CaptureVideo.BUFFER_SIZE);
+		supDescriptors.add(FRAME_FORMAT);
+		supDescriptors.add(SAVE_IMAGES);
+		supDescriptors.add(DEBUG_IMAGE_DIR);
+		supDescriptors.add(DEBUG_IMAGE_SAMPLE_RATE);
+		supDescriptors.add(DEBUG_IMAGE_QUEUE_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_AGE);
+		supDescriptors.add(BENCHMARKING_DIR);
+		supDescriptors.add(BENCHMARK_FORMAT);
+		supDescriptors.add(BENCHMARK_BUFFER_SIZE);
+		supDescriptors.add(LATENCY_REPORT_INTERVAL);
+		supDescriptors.add(LATENCY_SLA);
+		setProperties(Collections.unmodifiableList(supDescriptors));
+
+		getLogger().info("Initialision complete!");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected Collection<ValidationResult> customValidate(final ValidationContext aContext) {
+
+		List<ValidationResult> results = new ArrayList<>();
+		int sourceCount = split(aContext.getProperty(VIDEO_SOURCES).getValue()).size();
+		int rateCount = split(aContext.getProperty(MAX_FRAME_RATES).getValue()).size();
+		if (rateCount != 1 && rateCount != sourceCount) {
+			results.add(new ValidationResult.Builder().subject(MAX_FRAME_RATES.getName()).valid(false)
+					.explanation("must be a single value or one value per video source").build());
+		}
+		return results;
+	}
+
+	/**
+	 * Opens a grabber per source and starts the capture threads. If a source
+	 * cannot be started, the ones already started are stopped again.
+	 *
+	 * @param aContext process context
+	 * @throws ProcessException if a source cannot be started
+	 */
+	@OnScheduled
+	public void startCapture(final ProcessContext aContext) {
+
+		List<String> ids = split(aContext.getProperty(VIDEO_SOURCES).getValue());
+		List<String> rates = split(aContext.getProperty(MAX_FRAME_RATES).getValue());
+
+		boolean virtual = aContext.getProperty(VIRTUAL_THREADS).asBoolean();
+		if (virtual && !VirtualThreads.isSupported()) {
+			getLogger().info("Virtual threads are not supported by this JVM, using platform threads");
+			virtual = false;
+		} else if (virtual && ids.size() > Runtime.getRuntime().availableProcessors()) {
+			getLogger().warn("More video sources than processors, using platform threads");
+			virtual = false;
+		}
+
+		List<Source> started = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i++) {
+			String id = ids.get(i);
+			double rate = Double.parseDouble(rates.get(rates.size() == 1 ? 0 : i));
+			try {
+				FrameSource capture = createSource(aContext, id, Math.round(1000 / rate), "ekstream-capture-" + i,
+						virtual);
+				capture.start();
+				started.add(new Source(id, capture));
+			} catch (Exception | RuntimeException | LinkageError e) {
+				// also covers bad device indices and missing native grabber libraries
+				for (Source source : started) {
+					source.capture.shutdown();
+				}
+				throw new ProcessException("Something went wrong with the video grabber initialisation of " + id + "!",
+						e);
+			}
+		}
+		sources = started;
+	}
+
+	/**
+	 * Stops all capture threads and releases the video grabbers.
+	 */
+	@OnStopped
+	public void stopCapture() {
+
+		List<Source> current = sources;
+		sources = null;
+		if (null == current) {
+			return;
+		}
+
+		for (Source source : current) {
+			source.capture.shutdown();
+			getLogger().info("Capture of " + source.id + " stopped. Delivered frames: "
+					+ source.capture.getBuffer().getDelivered() + ", dropped frames: "
+					+ source.capture.getBuffer().getDropped());
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onTrigger(final ProcessContext aContext, final ProcessSession aSession) throws ProcessException {
+
+		super.onTrigger(aContext, aSession);
+
+		List<Source> current = sources;
+		if (null == current || current.isEmpty()) {
+			aContext.yield();
+			return;
+		}
+
+		// take at most one frame from each source, starting with a different
+		// source every time, so that no source can starve the others
+		int first = Math.floorMod(next.getAndIncrement(), current.size());
+		int transferred = 0;
+
+		try {
+
+			for (int i = 0; i < current.size(); i++) {
+
+				Source source = current.get((first + i) % current.size());
+				FrameRingBuffer<Frame> buffer = source.capture.getBuffer();
+				checkCapturing(aSession, source);
+
+				long dropped = buffer.getDropped();
+				long newDrops = dropped - source.reportedDrops.getAndSet(dropped);
+				if (newDrops > 0) {
+					aSession.adjustCounter("Dropped frames: " + source.id, newDrops, false);
+				}
+
+				Frame frame = buffer.poll();
+				if (null == frame) {
+					continue;
+				}
+				long start = StageMetrics.nowMicros();
+
+				transferFrame(aContext, aSession, frame, start, Collections.singletonMap(CAMERA_ID, source.id));
+				aSession.adjustCounter("Delivered frames: " + source.id, 1, false);
+				transferred++;
+			}
+
+			aSession.commit();
+
+		} catch (IOException e) {
+			getLogger().error("Something went wrong with saving the file!", e);
+			aSession.rollback();
+			transferred = 0;
+		}
+
+		if (0 == transferred) {
+			aContext.yield();
+		}
+	}
+
+	/**
+	 * Reports a source which stopped delivering frames as an error, once per
+	 * outage, and counts its outages, so that a dead camera among live ones
+	 * does not go unnoticed.
+	 *
+	 * @param aSession process session
+	 * @param aSource  capturing source
+	 */
+	private void checkCapturing(final ProcessSession aSession, final Source aSource) {
+
+		if (aSource.capture.isCapturing()) {
+			if (aSource.reportedDead.compareAndSet(true, false)) {
+				getLogger().info("Video source " + aSource.id + " delivers frames again");
+			}
+		} else if (aSource.reportedDead.compareAndSet(false, true)) {
+			getLogger().error("Video source " + aSource.id + " stopped delivering frames!");
+			aSession.adjustCounter("Source outages: " + aSource.id, 1, false);
+		}
+	}
+
+	/**
+	 * Creates the capture thread of a source. Local video files are replayed in
+	 * real time and looped, like a camera; device indices and stream URLs are
+	 * grabbed live.
+	 *
+	 * @param aContext  process context
+	 * @param aSource   camera device index, video file or stream URL
+	 * @param aInterval minimum interval between two frames, in ms
+	 * @param aName     thread name
+	 * @param aVirtual  whether to use a virtual thread
+	 * @return capture thread, not yet started
+	 * @throws Exception exception
+	 */
+	private FrameSource createSource(final ProcessContext aContext, final String aSource, final long aInterval,
+			final String aName, final boolean aVirtual) throws Exception {
+
+		FrameRingBuffer<Frame> buffer = new FrameRingBuffer<Frame>(
+				aContext.getProperty(CaptureVideo.BUFFER_SIZE).asInteger());
+
+		File file = new File(aSource);
+		if (file.isFile()) {
+			return new ReplayThread(Collections.singletonList(file), buffer, 1, 1, false, true, aInterval, aName,
+					aVirtual, getLogger());
+		}
+
+		FrameGrabber grabber = aSource.matches("\\d+") ? FrameGrabber.createDefault(Integer.parseInt(aSource))
+				: new FFmpegFrameGrabber(aSource);
+		grabber.setImageWidth(aContext.getProperty(CaptureVideo.FRAME_WIDTH).asInteger());
+		grabber.setImageHeight(aContext.getProperty(CaptureVideo.FRAME_HEIGHT).asInteger());
+		return new CaptureThread(grabber, buffer, aInterval, aName, aVirtual, getLogger());
+	}
+
+	/**
+	 * Splits a comma-separated property value.
+	 *
+	 * @param aValue property value
+	 * @return trimmed, non-empty entries
+	 */
+	static List<String> split(final String aValue) {
+
+		List<String> result = new ArrayList<>();
+		if (null == aValue) {
+			return result;
+		}
+		for (String entry : aValue.split(",")) {
+			if (!entry.trim().isEmpty()) {
+				result.add(entry.trim());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a validator for comma-separated lists of positive frame rates.
+	 *
+	 * @return validator
+	 */
+	private static Validator createRatesValidator() {
+
+		return new Validator() {
+
+			@Override
+			public ValidationResult validate(final String aSubject, final String aInput,
+					final ValidationContext aContext) {
+				List<String> rates = split(aInput);
+				boolean valid = !rates.isEmpty();
+				try {
+					for (String rate : rates) {
+						valid &= Double.parseDouble(rate) > 0;
+					}
+				} catch (NumberFormatException e) {
+					valid = false;
+				}
+				return new ValidationResult.Builder().subject(aSubject).input(aInput).valid(valid)
+						.explanation("must be a comma-separated list of positive numbers").build();
+			}
+		};
+	}
+}
@@ -1,12 +1,9 @@
 package processors;
 
-import static org.bytedeco.javacpp.helper.opencv_objdetect.cvHaarDetectObjects;
-import static org.bytedeco.javacpp.opencv_core.cvClearMemStorage;
-import static org.bytedeco.javacpp.opencv_core.cvGetSeqElem;
-import static org.bytedeco.javacpp.opencv_core.cvLoad;
 import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_DO_CANNY_PRUNING;
+import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_FIND_BIGGEST_OBJECT;
+import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_SCALE_IMAGE;
 
-import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -15,15 +12,21 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-
-import javax.imageio.ImageIO;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoublePredicate;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
 import org.apache.nifi.flowfile.FlowFile;
 import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.ProcessContext;
@@ -34,15 +37,20 @@ import org.apache.nifi.processor.exception.ProcessException;
 import org.apache.nifi.processor.io.InputStreamCallback;
 import org.apache.nifi.processor.io.OutputStreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
-import org.apache.nifi.stream.io.ByteArrayInputStream;
-import org.bytedeco.javacpp.helper.opencv_core.AbstractCvMemStorage;
-import org.bytedeco.javacpp.opencv_core.CvMemStorage;
+import org.bytedeco.javacpp.opencv_core;
 import org.bytedeco.javacpp.opencv_core.CvRect;
-import org.bytedeco.javacpp.opencv_core.CvSeq;
 import org.bytedeco.javacpp.opencv_core.IplImage;
-import org.bytedeco.javacpp.opencv_imgcodecs;
-import org.bytedeco.javacpp.opencv_objdetect.CvHaarClassifierCascade;
 
+import utils.BatchWorkers;
+import utils.DetectionSettings;
+import utils.FaceBatchCodec;
+import utils.FaceDetectorPool;
+import utils.FaceTracker;
+import utils.ImagePool;
+import utils.MotionDetector;
+import utils.PerCamera;
+import utils.RawFrameCodec;
+import utils.StageMetrics;
 import utils.Utils;
 
 /**
@@ -55,11 +63,73 @@ import utils.Utils;
 		+ "detects human faces in each frames and crops these detected faces.")
 public class DetectFaces extends EkstreamProcessor {
 
-	/** Scale factor for face detection. */
-	static final double SCALE_FACTOR = 1.5;
+	/** Allowable value. */
+	public static final AllowableValue FLAGS_NONE = new AllowableValue("None", "None",
+			"No detection flags.");
+
+	/** Allowable value. */
+	public static final AllowableValue FLAGS_CANNY_PRUNING = new AllowableValue("Canny pruning", "Canny pruning",
+			"Skips image regions with too few or too many edges.");
+
+	/** Allowable value. */
+	public static final AllowableValue FLAGS_SCALE_IMAGE = new AllowableValue("Scale image", "Scale image",
+			"Scales the image rather than the detector.");
+
+	/** Allowable value. */
+	public static final AllowableValue FLAGS_BIGGEST_OBJECT = new AllowableValue("Find biggest object",
+			"Find biggest object", "Returns only the biggest face.");
+
+	/** Processor property. */
+	public static final PropertyDescriptor SCALE_FACTOR = new PropertyDescriptor.Builder().name("Scale factor")
+			.description("Specifies how much the search window grows between two detection scales, e.g. 1.1 or 1.5")
+			.defaultValue("1.5").required(true)
+			.addValidator(createNumberValidator(value -> value > 1, "must be a number greater than 1")).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor MIN_NEIGHBOURS = new PropertyDescriptor.Builder()
+			.name("Minimum neighbours")
+			.description("Specifies how many overlapping detections are needed to accept a face").defaultValue("3")
+			.required(true).addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor DETECTION_FLAGS = new PropertyDescriptor.Builder()
+			.name("Detection flags").description("Specifies the flags passed to the cascade classifier")
+			.allowableValues(FLAGS_NONE, FLAGS_CANNY_PRUNING, FLAGS_SCALE_IMAGE, FLAGS_BIGGEST_OBJECT)
+			.defaultValue(FLAGS_CANNY_PRUNING.getValue()).required(true).build();
 
-	/** Neighbors for face detection. */
-	static final int MIN_NEIGHBOURS = 3;
+	/** Processor property. */
+	public static final PropertyDescriptor MIN_FACE_SIZE = new PropertyDescriptor.Builder()
+			.name("Minimum face size")
+			.description("Specifies the smallest face to detect, in pixels of the original frame, 0 for no limit")
+			.defaultValue("0").required(true).addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor MAX_FACE_SIZE = new PropertyDescriptor.Builder()
+			.name("Maximum face size")
+			.description("Specifies the largest face to detect, in pixels of the original frame, 0 for no limit")
+			.defaultValue("0").required(true).addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor DETECTION_WIDTH = new PropertyDescriptor.Builder()
+			.name("Detection resolution")
+			.description("Specifies the width frames are downscaled to before detection, in pixels. "
+					+ "Faces are still cropped from the full-resolution frame. 0 detects at full resolution")
+			.defaultValue("0").required(true).addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor MOTION_AREA = new PropertyDescriptor.Builder()
+			.name("Minimum motion area")
+			.description("Specifies the percentage of the frame which must change before faces are searched for. "
+					+ "Static frames are skipped and counted. 0 scans every frame")
+			.defaultValue("0").required(true)
+			.addValidator(createNumberValidator(value -> value >= 0 && value <= 100,
+					"must be a percentage between 0 and 100"))
+			.build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor TRACK_TIMEOUT = new PropertyDescriptor.Builder().name("Track timeout")
+			.description("Specifies how long a face may be out of view before it gets a new track identifier")
+			.defaultValue("3 sec").required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
 
 	/** Processor property. */
 	public static final PropertyDescriptor IMAGE_WIDTH = new PropertyDescriptor.Builder().name("Image width")
@@ -83,8 +153,73 @@ public class DetectFaces extends EkstreamProcessor {
 			.defaultValue("/opt/nifi-1.0.1/").required(true).addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
 			.build();
 
-	/** Cascade file. */
-	private static CvHaarClassifierCascade cascade;
+	/** Processor property. */
+	public static final PropertyDescriptor FRAME_BATCH_SIZE = new PropertyDescriptor.Builder()
+			.name("Frame batch size")
+			.description("Specifies how many frames are taken per trigger and processed in parallel on all cores, "
+					+ "with a single commit per batch. 1 processes frames one by one on the triggering thread.")
+			.defaultValue("1").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Name of the counter of frames skipped by the motion pre-filter. */
+	static final String SKIPPED_FRAMES_COUNTER = "Static frames skipped";
+
+	/** Face detectors, one per concurrent task. */
+	private volatile FaceDetectorPool detectors;
+
+	/** Motion pre-filters by camera, or null if every frame is scanned. */
+	private volatile PerCamera<MotionDetector> motions;
+
+	/** Trackers assigning faces to tracks across the frames of a camera. */
+	private volatile PerCamera<FaceTracker> trackers;
+
+	/** Workers processing frame batches, or null if frames are processed one by one. */
+	private volatile BatchWorkers workers;
+
+	/**
+	 * A frame of a batch, as it goes through the processing steps.
+	 */
+	private static final class Detection {
+
+		/** Flow file of the frame. */
+		private final FlowFile flowFile;
+
+		/** Camera the frame comes from. */
+		private final String camera;
+
+		/** Encoded frame, until it is decoded. */
+		private byte[] bytes;
+
+		/** Decoded frame. */
+		private IplImage image;
+
+		/** Capture time of the frame, in ms. */
+		private long timestamp;
+
+		/** Whether the frame passed the motion pre-filter. */
+		private boolean moving;
+
+		/** Why the frame could not be processed, or null. */
+		private Exception failure;
+
+		/** Bounding boxes of the detected faces. */
+		private ArrayList<CvRect> rectangles = new ArrayList<CvRect>();
+
+		/** Encoded faces. */
+		private final List<byte[]> faces = new ArrayList<byte[]>();
+
+		/** Buffers to be handed back to the pool once the batch is transferred. */
+		private final List<IplImage> pooled = new ArrayList<IplImage>();
+
+		/**
+		 * Constructor.
+		 *
+		 * @param aFlowFile flow file of the frame
+		 */
+		private Detection(final FlowFile aFlowFile) {
+			flowFile = aFlowFile;
+			camera = getCameraKey(aFlowFile);
+		}
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -96,19 +231,186 @@ public class DetectFaces extends EkstreamProcessor {
 
 		final Set<Relationship> procRels = new HashSet<Relationship>();
 		procRels.add(REL_SUCCESS);
+		procRels.add(REL_FAILURE);
 		setRelationships(Collections.unmodifiableSet(procRels));
 
 		final List<PropertyDescriptor> supDescriptors = new ArrayList<>();
 		supDescriptors.add(IMAGE_WIDTH);
 		supDescriptors.add(IMAGE_HEIGHT);
+		supDescriptors.add(FRAME_FORMAT);
+		supDescriptors.add(BATCH_FACES);
+		supDescriptors.add(FRAME_BATCH_SIZE);
 		supDescriptors.add(SAVE_IMAGES);
+		supDescriptors.add(DEBUG_IMAGE_DIR);
+		supDescriptors.add(DEBUG_IMAGE_SAMPLE_RATE);
+		supDescriptors.add(DEBUG_IMAGE_QUEUE_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_AGE);
 		supDescriptors.add(DESTINATION_DIR);
+		supDescriptors.add(BENCHMARK_FORMAT);
+		supDescriptors.add(BENCHMARK_BUFFER_SIZE);
+		supDescriptors.add(LATENCY_REPORT_INTERVAL);
+		supDescriptors.add(LATENCY_SLA);
 		supDescriptors.add(CASCADE_FILE);
+		supDescriptors.add(DETECTION_WIDTH);
+		supDescriptors.add(SCALE_FACTOR);
+		supDescriptors.add(MIN_NEIGHBOURS);
+		supDescriptors.add(MIN_FACE_SIZE);
+		supDescriptors.add(MAX_FACE_SIZE);
+		supDescriptors.add(DETECTION_FLAGS);
+		supDescriptors.add(MOTION_AREA);
+		supDescriptors.add(TRACK_TIMEOUT);
 		setProperties(Collections.unmodifiableList(supDescriptors));
 
 		getLogger().info("Initialisation complete!");
 	}
 
+	/**
+	 * Loads one face detector per concurrent task, or one per core if frames
+	 * are processed in batches.
+	 *
+	 * @param aContext process context
+	 */
+	@OnScheduled
+	public void loadDetectors(final ProcessContext aContext) {
+
+		int size = aContext.getMaxConcurrentTasks();
+		if (aContext.getProperty(FRAME_BATCH_SIZE).asInteger() > 1) {
+			workers = new BatchWorkers();
+			size = Math.max(size, workers.getParallelism());
+		}
+
+		detectors = new FaceDetectorPool(size,
+				getDetectionSettings(aContext, aContext.getProperty(CASCADE_FILE).getValue()));
+		getLogger().info("Loaded " + detectors.size() + " face detectors from the cascade file: "
+				+ aContext.getProperty(CASCADE_FILE).getValue());
+
+		// frames of several cameras may share the queue, and neither a
+		// background model nor tracks make sense across cameras
+		double area = Double.parseDouble(aContext.getProperty(MOTION_AREA).getValue());
+		motions = area > 0 ? new PerCamera<MotionDetector>(camera -> new MotionDetector(area)) : null;
+		long timeout = aContext.getProperty(TRACK_TIMEOUT).asTimePeriod(TimeUnit.MILLISECONDS);
+		trackers = new PerCamera<FaceTracker>(camera -> new FaceTracker(timeout));
+	}
+
+	/**
+	 * Creates the motion pre-filter of a processor capturing a single camera.
+	 *
+	 * @param aContext process context
+	 * @return motion detector, or null if motion gating is disabled
+	 */
+	static MotionDetector createMotionDetector(final ProcessContext aContext) {
+
+		double area = Double.parseDouble(aContext.getProperty(MOTION_AREA).getValue());
+		return area > 0 ? new MotionDetector(area) : null;
+	}
+
+	/**
+	 * Creates a validator for decimal numbers.
+	 *
+	 * @param aRange      accepted values
+	 * @param aExplanation explanation for rejected values
+	 * @return validator
+	 */
+	static Validator createNumberValidator(final DoublePredicate aRange, final String aExplanation) {
+
+		return new Validator() {
+
+			@Override
+			public ValidationResult validate(final String aSubject, final String aInput,
+					final ValidationContext aContext) {
+				boolean valid;
+				try {
+					valid = aRange.test(Double.parseDouble(aInput));
+				} catch (NumberFormatException e) {
+					valid = false;
+				}
+				return new ValidationResult.Builder().subject(aSubject).input(aInput).valid(valid)
+						.explanation(aExplanation).build();
+			}
+		};
+	}
+
+	/**
+	 * Reads the face detection parameters of a processor.
+	 *
+	 * @param aContext     process context
+	 * @param aCascadeFile cascade file
+	 * @return detection parameters
+	 */
+	static DetectionSettings getDetectionSettings(final ProcessContext aContext, final String aCascadeFile) {
+
+		int flags;
+		switch (aContext.getProperty(DETECTION_FLAGS).getValue()) {
+		case "None":
+			flags = 0;
+			break;
+		case "Scale image":
+			flags = CV_HAAR_SCALE_IMAGE;
+			break;
+		case "Find biggest object":
+			flags = CV_HAAR_FIND_BIGGEST_OBJECT;
+			break;
+		case "Canny pruning":
+		default:
+			flags = CV_HAAR_DO_CANNY_PRUNING;
+		}
+
+		return new DetectionSettings(aCascadeFile, Double.parseDouble(aContext.getProperty(SCALE_FACTOR).getValue()),
+				aContext.getProperty(MIN_NEIGHBOURS).asInteger(), flags,
+				aContext.getProperty(MIN_FACE_SIZE).asInteger(), aContext.getProperty(MAX_FACE_SIZE).asInteger(),
+				aContext.getProperty(DETECTION_WIDTH).asInteger());
+	}
+
+	/**
+	 * Releases the face detectors.
+	 */
+	@OnStopped
+	public void releaseDetectors() {
+
+		if (null != workers) {
+			workers.shutdown();
+			workers = null;
+		}
+
+		if (null != detectors) {
+			detectors.release();
+			detectors = null;
+		}
+
+		if (null != motions) {
+			long moving = 0;
+			for (MotionDetector motion : motions.values()) {
+				moving += motion.getMoving();
+			}
+			getLogger().info("Motion gating stopped. Cameras: " + motions.values().size() + ", scanned frames: "
+					+ moving + ", skipped frames: " + getSkippedFrames());
+			for (MotionDetector motion : motions.values()) {
+				motion.release();
+			}
+			motions = null;
+		}
+
+		trackers = null;
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return number of static frames which were not scanned for faces
+	 */
+	public long getSkippedFrames() {
+
+		PerCamera<MotionDetector> current = motions;
+		long skipped = 0;
+		if (null != current) {
+			for (MotionDetector motion : current.values()) {
+				skipped += motion.getSkipped();
+			}
+		}
+		return skipped;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -117,90 +419,335 @@ public class DetectFaces extends EkstreamProcessor {
 
 		super.onTrigger(aContext, aSession);
 
-		if (null == cascade) {
-			cascade = new CvHaarClassifierCascade(cvLoad(aContext.getProperty(CASCADE_FILE).getValue()));
-			getLogger().info("Loaded the cascade file: " + cascade.toString());
+		if (null != workers) {
+			onTriggerBatch(aContext, aSession);
+			return;
 		}
 
 		FlowFile flowFile = aSession.get();
 		if (null == flowFile) {
 			return;
 		}
+		final long start = StageMetrics.nowMicros();
+		final String camera = getCameraKey(flowFile);
 
-		getLogger().info("=================RECEIVED NEW FLOWFILE=================");
+		getLogger().debug("=================RECEIVED NEW FLOWFILE=================");
 
+		final byte[][] content = new byte[1][];
 		aSession.read(flowFile, new InputStreamCallback() {
 
 			@Override
 			public void process(final InputStream aStream) throws IOException {
+				content[0] = IOUtils.toByteArray(aStream);
+			}
+		});
 
-				ByteArrayInputStream inputStream = new ByteArrayInputStream(IOUtils.toByteArray(aStream));
-
-				BufferedImage bufferedImage = ImageIO.read(inputStream);
-				IplImage image = Utils.getInstance().convertToImage(bufferedImage);
-
-				opencv_imgcodecs.cvSaveImage(System.currentTimeMillis() + "-received.png", image);
-
-				ArrayList<IplImage> faces = detect(image);
+		// buffers to be handed back to the pool once the faces are transferred
+		List<IplImage> pooled = new ArrayList<IplImage>();
+		try {
+			IplImage image;
+			long timestamp;
+			ArrayList<CvRect> rectangles = null;
+			List<byte[]> encodedFaces = new ArrayList<>();
+			try {
+				boolean raw = RawFrameCodec.isRawFrame(content[0]);
+				image = raw ? RawFrameCodec.decodeImage(content[0], getImagePool())
+						: Utils.getInstance().convertToImage(content[0]);
+				timestamp = raw ? RawFrameCodec.readTimestamp(content[0]) : System.currentTimeMillis();
+				if (raw) {
+					pooled.add(image);
+				}
 
-				getLogger().info("================= DETECTED FACES: " + faces.size());
+				saveInterimResults(System.currentTimeMillis() + "-received.png", image);
 
-				if (!faces.isEmpty()) {
-					ArrayList<IplImage> resizedFaces = Utils.getInstance().resizeImages(faces,
+				if (null == motions || motions.get(camera).hasMotion(image)) {
+					rectangles = locate(image);
+					ArrayList<IplImage> resizedFaces = Utils.getInstance().resizeImages(image, rectangles,
 							Integer.parseInt(aContext.getProperty(IMAGE_WIDTH).getValue()),
-							Integer.parseInt(aContext.getProperty(IMAGE_HEIGHT).getValue()));
+							Integer.parseInt(aContext.getProperty(IMAGE_HEIGHT).getValue()),
+							getImagePool());
+					pooled.addAll(resizedFaces);
 
 					for (IplImage face : resizedFaces) {
-
-						FlowFile result = aSession.create(flowFile);
-						result = aSession.putAttribute(result, "parent",
-								flowFile.getAttribute(CoreAttributes.UUID.key()));
-						result = aSession.write(result, new OutputStreamCallback() {
-
-							@Override
-							public void process(final OutputStream aStream) throws IOException {
-								aStream.write(Utils.getInstance().convertToByteArray(face));
-							}
-						});
-
-						// benchmarking=====================================
-						result = aSession.putAttribute(result, "detect", String.valueOf(System.currentTimeMillis()));
-						benchmark(flowFile.getAttribute(CoreAttributes.UUID.key()));
-						// ==
-						aSession.transfer(result, REL_SUCCESS);
+						encodedFaces.add(encodeImage(aContext, face, timestamp));
 					}
 				}
+			} catch (IOException | RuntimeException e) {
+				getLogger().error("Could not process the frame " + flowFile + ", routing to failure", e);
+				aSession.transfer(flowFile, REL_FAILURE);
+				aSession.commit();
+				return;
 			}
-		});
+
+			if (null == rectangles) {
+				aSession.adjustCounter(SKIPPED_FRAMES_COUNTER, 1, false);
+			} else {
+				List<String> tracks = trackers.get(camera).assign(rectangles, timestamp);
+
+				getLogger().debug("================= DETECTED FACES: " + rectangles.size());
+
+				if (!rectangles.isEmpty()) {
+					transferFaces(aContext, aSession, flowFile, encodedFaces, rectangles, tracks, start);
+				}
+			}
+		} finally {
+			releaseImages(pooled);
+		}
 
 		aSession.remove(flowFile);
 		aSession.commit();
-		getLogger().info("=================SESSION COMMITED==================");
+		getLogger().debug("=================SESSION COMMITED==================");
+	}
 
-		// aSession.transfer(flowFile, REL_FAILURE);
+	/**
+	 * Takes a batch of frames, decodes them and then locates, crops and
+	 * encodes their faces on all cores, and transfers the faces of the whole
+	 * batch with a single commit. Motion gating and tracking depend on the
+	 * previous frames of the same camera, so they run in between, in frame
+	 * order. A frame which
+	 * cannot be processed is routed to failure, the rest of the batch goes on.
+	 *
+	 * @param aContext process context
+	 * @param aSession process session
+	 */
+	private void onTriggerBatch(final ProcessContext aContext, final ProcessSession aSession) {
+
+		List<FlowFile> flowFiles = aSession.get(aContext.getProperty(FRAME_BATCH_SIZE).asInteger());
+		if (flowFiles.isEmpty()) {
+			return;
+		}
+		final long start = StageMetrics.nowMicros();
+		final int width = aContext.getProperty(IMAGE_WIDTH).asInteger();
+		final int height = aContext.getProperty(IMAGE_HEIGHT).asInteger();
+
+		// the session is not thread-safe, so the contents are read up front
+		List<Detection> frames = new ArrayList<Detection>(flowFiles.size());
+		for (FlowFile flowFile : flowFiles) {
+			Detection frame = new Detection(flowFile);
+			aSession.read(flowFile, new InputStreamCallback() {
+
+				@Override
+				public void process(final InputStream aStream) throws IOException {
+					frame.bytes = IOUtils.toByteArray(aStream);
+				}
+			});
+			frames.add(frame);
+		}
+
+		try {
+			workers.forEach(frames, frame -> process(frame, this::decode));
+
+			int skipped = 0;
+			for (Detection frame : frames) {
+				process(frame, current -> {
+					saveInterimResults(System.currentTimeMillis() + "-received.png", current.image);
+					current.moving = null == motions || motions.get(current.camera).hasMotion(current.image);
+				});
+				if (null == frame.failure && !frame.moving) {
+					skipped++;
+				}
+			}
+			if (skipped > 0) {
+				aSession.adjustCounter(SKIPPED_FRAMES_COUNTER, skipped, false);
+			}
+
+			workers.forEach(frames, frame -> process(frame, current -> {
+				if (!current.moving) {
+					return;
+				}
+				current.rectangles = locate(current.image);
+				ArrayList<IplImage> resizedFaces = Utils.getInstance().resizeImages(current.image,
+						current.rectangles, width, height, getImagePool());
+				current.pooled.addAll(resizedFaces);
+				for (IplImage face : resizedFaces) {
+					current.faces.add(encodeImage(aContext, face, current.timestamp));
+				}
+			}));
+
+			int faces = 0;
+			int failed = 0;
+			for (Detection frame : frames) {
+				if (null != frame.failure) {
+					getLogger().error("Could not process the frame " + frame.flowFile + ", routing to failure",
+							frame.failure);
+					aSession.transfer(frame.flowFile, REL_FAILURE);
+					failed++;
+					continue;
+				}
+				if (frame.moving) {
+					List<String> tracks = trackers.get(frame.camera).assign(frame.rectangles, frame.timestamp);
+					if (!frame.faces.isEmpty()) {
+						transferFaces(aContext, aSession, frame.flowFile, frame.faces, frame.rectangles, tracks,
+								start);
+						faces += frame.faces.size();
+					}
+				}
+				aSession.remove(frame.flowFile);
+			}
+
+			aSession.commit();
+			getLogger().debug("Detected " + faces + " faces in a batch of " + frames.size() + " frames, "
+					+ failed + " frames failed");
+
+		} catch (IOException e) {
+			getLogger().error("Something went wrong with the batch of frames!", e);
+			aSession.rollback();
+		} finally {
+			for (Detection frame : frames) {
+				releaseImages(frame.pooled);
+			}
+		}
+	}
+
+	/**
+	 * Runs a processing step for a frame of a batch, unless an earlier step
+	 * has failed for it, and records the failure of the step instead of
+	 * aborting the batch.
+	 *
+	 * @param aFrame frame of the batch
+	 * @param aStep  processing step
+	 */
+	private static void process(final Detection aFrame, final BatchWorkers.Step<Detection> aStep) {
+
+		if (null != aFrame.failure) {
+			return;
+		}
+		try {
+			aStep.run(aFrame);
+		} catch (IOException | RuntimeException e) {
+			aFrame.failure = e;
+		}
+	}
+
+	/**
+	 * Decodes a frame of a batch into a buffer of the image pool. Encoded
+	 * images are decoded by the converters of the worker thread, which reuse
+	 * their buffer for the next frame of the same size, so they are copied
+	 * before the worker moves on.
+	 *
+	 * @param aFrame frame of the batch
+	 * @throws IOException if the frame cannot be decoded
+	 */
+	private void decode(final Detection aFrame) throws IOException {
+
+		if (RawFrameCodec.isRawFrame(aFrame.bytes)) {
+			aFrame.image = RawFrameCodec.decodeImage(aFrame.bytes, getImagePool());
+			aFrame.timestamp = RawFrameCodec.readTimestamp(aFrame.bytes);
+		} else {
+			IplImage decoded = Utils.getInstance().convertToImage(aFrame.bytes);
+			aFrame.image = getImagePool().acquireImage(decoded.width(), decoded.height(), decoded.depth(),
+					decoded.nChannels());
+			opencv_core.cvCopy(decoded, aFrame.image);
+			aFrame.timestamp = System.currentTimeMillis();
+		}
+		aFrame.pooled.add(aFrame.image);
+		aFrame.bytes = null;
+	}
+
+	/**
+	 * Transfers the encoded faces of a frame, either one flow file per face or
+	 * all of them packed into a single container.
+	 *
+	 * @param aContext    process context
+	 * @param aSession    process session
+	 * @param aParent     flow file of the frame
+	 * @param aFaces      encoded faces
+	 * @param aRectangles bounding boxes of the faces
+	 * @param aTracks     track identifiers of the faces
+	 * @param aStart      time the frame was taken from the queue, in microseconds
+	 */
+	private void transferFaces(final ProcessContext aContext, final ProcessSession aSession, final FlowFile aParent,
+			final List<byte[]> aFaces, final List<CvRect> aRectangles, final List<String> aTracks,
+			final long aStart) {
+
+		if (aContext.getProperty(BATCH_FACES).asBoolean()) {
+
+			byte[] batch = FaceBatchCodec.encode(aFaces);
+
+			FlowFile result = aSession.create(aParent);
+			result = aSession.putAttribute(result, "parent", aParent.getAttribute(CoreAttributes.UUID.key()));
+			result = aSession.write(result, new OutputStreamCallback() {
+
+				@Override
+				public void process(final OutputStream aStream) throws IOException {
+					aStream.write(batch);
+				}
+			});
+			result = aSession.putAttribute(result, CoreAttributes.MIME_TYPE.key(), FaceBatchCodec.MIME_TYPE);
+			result = putFaceAttributes(aSession, result, aRectangles, aTracks);
+
+			// benchmarking=====================================
+			result = stampStage(aSession, result, "detect", "capture", aStart);
+			benchmark(aParent.getAttribute(CoreAttributes.UUID.key()));
+			// ==
+			aSession.transfer(result, REL_SUCCESS);
+			return;
+		}
+
+		for (int i = 0; i < aFaces.size(); i++) {
+
+			byte[] face = aFaces.get(i);
+
+			FlowFile result = aSession.create(aParent);
+			result = aSession.putAttribute(result, "parent", aParent.getAttribute(CoreAttributes.UUID.key()));
+			result = aSession.write(result, new OutputStreamCallback() {
+
+				@Override
+				public void process(final OutputStream aStream) throws IOException {
+					aStream.write(face);
+				}
+			});
+			result = aSession.putAttribute(result, CoreAttributes.MIME_TYPE.key(), getMimeType(aContext));
+			result = putFaceAttributes(aSession, result, i, aRectangles.get(i), aTracks.get(i));
+
+			// benchmarking=====================================
+			result = stampStage(aSession, result, "detect", "capture", aStart);
+			benchmark(aParent.getAttribute(CoreAttributes.UUID.key()));
+			// ==
+			aSession.transfer(result, REL_SUCCESS);
+		}
 	}
 
 	/**
 	 * Detects faces in an input image.
 	 *
 	 * @param aImage input image
-	 * @return an array of detected faces as images
+	 * @return an array of detected faces as images, to be released with
+	 *         {@link #releaseImages(List)}
+	 */
+	public ArrayList<IplImage> detect(final IplImage aImage) {
+
+		return crop(aImage, locate(aImage), getImagePool());
+	}
+
+	/**
+	 * Locates faces in an input image.
+	 *
+	 * @param aImage input image
+	 * @return an array of bounding boxes of detected faces
 	 */
-	public static ArrayList<IplImage> detect(final IplImage aImage) {
+	public ArrayList<CvRect> locate(final IplImage aImage) {
 
-		ArrayList<IplImage> result = new ArrayList<IplImage>();
+		return detectors.detect(aImage);
+	}
+
+	/**
+	 * Crops detected faces out of an input image.
+	 *
+	 * @param aImage      input image
+	 * @param aRectangles bounding boxes of detected faces
+	 * @param aPool       buffer pool
+	 * @return an array of detected faces as images, to be released to the pool
+	 */
+	public static ArrayList<IplImage> crop(final IplImage aImage, final List<CvRect> aRectangles,
+			final ImagePool aPool) {
 
-		CvMemStorage storage = AbstractCvMemStorage.create();
-		CvSeq sign = cvHaarDetectObjects(aImage, cascade, storage, SCALE_FACTOR, MIN_NEIGHBOURS,
-				CV_HAAR_DO_CANNY_PRUNING);
+		ArrayList<IplImage> result = new ArrayList<IplImage>(aRectangles.size());
 
-		for (int i = 0; i < sign.total(); i++) {
-			CvRect r = new CvRect(cvGetSeqElem(sign, i));
-			IplImage image = Utils.getInstance().cropImage(aImage, r);
-			result.add(image);
+		for (CvRect r : aRectangles) {
+			result.add(Utils.getInstance().cropImage(aImage, r, aPool));
 		}
 
-		cvClearMemStorage(storage);
 		return result;
 	}
 
@@ -1,27 +1,45 @@
 package processors;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.flowfile.FlowFile;
+import org.apache.nifi.flowfile.attributes.CoreAttributes;
 import org.apache.nifi.processor.AbstractProcessor;
+import org.apache.nifi.processor.DataUnit;
 import org.apache.nifi.processor.ProcessContext;
 import org.apache.nifi.processor.ProcessSession;
 import org.apache.nifi.processor.ProcessorInitializationContext;
 import org.apache.nifi.processor.Relationship;
 import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.io.OutputStreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.opencv_core.CvRect;
 import org.bytedeco.javacpp.opencv_core.IplImage;
-import org.bytedeco.javacpp.opencv_imgcodecs;
+import org.bytedeco.javacpp.opencv_core.Mat;
 import org.bytedeco.javacpp.presets.opencv_objdetect;
 import org.bytedeco.javacv.Frame;
 
+import utils.BenchmarkLogger;
+import utils.DebugImageWriter;
+import utils.ImagePool;
+import utils.RawFrameCodec;
+import utils.StageMetrics;
 import utils.Utils;
 
 /**
@@ -35,12 +53,98 @@ public class EkstreamProcessor extends AbstractProcessor {
 			.allowableValues(new HashSet<String>(Arrays.asList("true", "false"))).defaultValue("true").required(true)
 			.addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
 
+	/** Processor property. */
+	public static final PropertyDescriptor DEBUG_IMAGE_DIR = new PropertyDescriptor.Builder()
+			.name("Debug image folder")
+			.description("Specifies the folder where interim results are saved, in a subfolder named after "
+					+ "the processor identifier.")
+			.defaultValue("debug-images").required(true).addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
+			.build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor DEBUG_IMAGE_SAMPLE_RATE = new PropertyDescriptor.Builder()
+			.name("Debug image sample rate")
+			.description("Specifies that only one in this many interim results is saved.").defaultValue("10")
+			.required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor DEBUG_IMAGE_QUEUE_SIZE = new PropertyDescriptor.Builder()
+			.name("Debug image queue size")
+			.description("Specifies how many interim results may wait to be saved before new ones are dropped.")
+			.defaultValue("16").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor DEBUG_IMAGE_MAX_SIZE = new PropertyDescriptor.Builder()
+			.name("Debug image retention size")
+			.description("Specifies the total size of saved interim results above which the oldest are deleted.")
+			.defaultValue("100 MB").required(true).addValidator(StandardValidators.DATA_SIZE_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor DEBUG_IMAGE_MAX_AGE = new PropertyDescriptor.Builder()
+			.name("Debug image retention age")
+			.description("Specifies the age after which saved interim results are deleted.").defaultValue("1 hour")
+			.required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+	/** Allowable value. */
+	public static final AllowableValue FORMAT_PNG = new AllowableValue("PNG", "PNG",
+			"Images are transferred as PNG files.");
+
+	/** Allowable value. */
+	public static final AllowableValue FORMAT_RAW = new AllowableValue("Raw", "Raw pixels",
+			"Images are transferred as raw pixels behind a small binary header, without any encoding.");
+
+	/** Processor property. */
+	public static final PropertyDescriptor FRAME_FORMAT = new PropertyDescriptor.Builder().name("Frame format")
+			.description("Specifies the format of images written to outgoing flow files. "
+					+ "Incoming flow files are accepted in either format.")
+			.allowableValues(FORMAT_PNG, FORMAT_RAW).defaultValue(FORMAT_PNG.getValue()).required(true).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor BATCH_FACES = new PropertyDescriptor.Builder()
+			.name("Batch faces per frame")
+			.description("Specifies whether all faces detected in a frame should be packed into a single flow file.")
+			.allowableValues(new HashSet<String>(Arrays.asList("true", "false"))).defaultValue("false").required(true)
+			.addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
 	/** Destination folder propserty. */
 	public static final PropertyDescriptor BENCHMARKING_DIR = new PropertyDescriptor.Builder()
 			.name("Destination folder.").description("Specified the folder where to save benchmarking results.")
 			.defaultValue("/opt/nifi-1.0.1/").required(true).addValidator(StandardValidators.NON_EMPTY_VALIDATOR)
 			.build();
 
+	/** Allowable value. */
+	public static final AllowableValue BENCHMARK_TEXT = new AllowableValue("Text", "Text",
+			"Benchmarking results are written as text lines of semicolon-separated values.");
+
+	/** Allowable value. */
+	public static final AllowableValue BENCHMARK_BINARY = new AllowableValue("Binary", "Binary",
+			"Benchmarking results are written as compact fixed-size binary records.");
+
+	/** Processor property. */
+	public static final PropertyDescriptor BENCHMARK_FORMAT = new PropertyDescriptor.Builder()
+			.name("Benchmarking format").description("Specifies the format of benchmarking results.")
+			.allowableValues(BENCHMARK_TEXT, BENCHMARK_BINARY).defaultValue(BENCHMARK_TEXT.getValue()).required(true)
+			.build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor BENCHMARK_BUFFER_SIZE = new PropertyDescriptor.Builder()
+			.name("Benchmarking buffer size")
+			.description("Specifies how many benchmarking records are buffered in memory before new ones are dropped")
+			.defaultValue("65536").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor LATENCY_REPORT_INTERVAL = new PropertyDescriptor.Builder()
+			.name("Latency report interval")
+			.description("Specifies how often latency percentiles and throughput are reported. 0 sec disables "
+					+ "periodic reports, a final report is still made when the processor stops.")
+			.defaultValue("60 sec").required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor LATENCY_SLA = new PropertyDescriptor.Builder().name("Latency SLA")
+			.description("Specifies the maximum acceptable time from frame capture to face recognition. "
+					+ "Violations are counted and reported as warnings. 0 sec disables SLA tracking.")
+			.defaultValue("2 sec").required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
 	/** Relationship "Success". */
 	public static final Relationship REL_SUCCESS = new Relationship.Builder().name("success")
 			.description("This is where flow files are sent if the processor execution went well.").build();
@@ -55,11 +159,20 @@ public class EkstreamProcessor extends AbstractProcessor {
 	/** List of processor relationships. */
 	private Set<Relationship> relationships;
 
-	/** Save interim results or not. */
-	private Boolean isSaveResults;
+	/** Reusable native image buffers of this processor instance. */
+	private final ImagePool imagePool = new ImagePool();
+
+	/** Writer of interim results, or null if they are not saved. */
+	private volatile DebugImageWriter debugImages;
 
-	/** File writer for benchmarking logs. */
-	private static BufferedWriter bWriter;
+	/** Benchmarking log of this processor instance. */
+	private volatile BenchmarkLogger benchmarkLog;
+
+	/** Latency statistics of this processor instance. */
+	private volatile StageMetrics metrics;
+
+	/** Periodic latency reporter. */
+	private ScheduledExecutorService reporter;
 
 	/**
 	 * {@inheritDoc}
@@ -75,21 +188,262 @@ public class EkstreamProcessor extends AbstractProcessor {
 	 */
 	@Override
 	public void onTrigger(final ProcessContext aContext, final ProcessSession aSession) throws ProcessException {
+	}
+
+	/**
+	 * Frees the idle image buffers of this processor instance.
+	 */
+	@OnStopped
+	public void clearImagePool() {
+		getLogger().info("Image buffers allocated: " + imagePool.getAllocated() + ", reused: "
+				+ imagePool.getReused());
+		imagePool.clear();
+	}
+
+	/**
+	 * Getter.
+	 *
+	 * @return reusable native image buffers of this processor instance
+	 */
+	public ImagePool getImagePool() {
+		return imagePool;
+	}
+
+	/**
+	 * Hands image buffers back to the pool of this processor instance.
+	 *
+	 * @param aImages images taken from {@link #getImagePool()}
+	 */
+	public void releaseImages(final List<IplImage> aImages) {
+		for (IplImage image : aImages) {
+			imagePool.release(image);
+		}
+	}
+
+	/**
+	 * Starts saving interim results in the background, if enabled.
+	 *
+	 * @param aContext process context
+	 */
+	@OnScheduled
+	public void openDebugImages(final ProcessContext aContext) {
+
+		boolean save = aContext.getProperty(SAVE_IMAGES).asBoolean();
+		getLogger().info("Saving interim results: " + save);
+		if (save) {
+			debugImages = new DebugImageWriter(aContext.getProperty(DEBUG_IMAGE_DIR).getValue(), getIdentifier(),
+					aContext.getProperty(DEBUG_IMAGE_SAMPLE_RATE).asInteger(),
+					aContext.getProperty(DEBUG_IMAGE_QUEUE_SIZE).asInteger(),
+					aContext.getProperty(DEBUG_IMAGE_MAX_SIZE).asDataSize(DataUnit.B).longValue(),
+					aContext.getProperty(DEBUG_IMAGE_MAX_AGE).asTimePeriod(TimeUnit.MILLISECONDS), getLogger());
+		}
+	}
+
+	/**
+	 * Saves the remaining interim results and stops the background writer.
+	 */
+	@OnStopped
+	public void closeDebugImages() {
+
+		DebugImageWriter writer = debugImages;
+		debugImages = null;
+		if (null != writer) {
+			writer.close();
+			getLogger().info("Interim results submitted: " + writer.getSubmitted() + ", dropped: "
+					+ writer.getDropped() + ", deleted: " + writer.getDeleted());
+		}
+	}
+
+	/**
+	 * Opens the benchmarking log of this processor instance.
+	 *
+	 * @param aContext process context
+	 */
+	@OnScheduled
+	public void openBenchmarkLog(final ProcessContext aContext) {
+		benchmarkLog = createBenchmarkLogger(aContext, "");
+	}
+
+	/**
+	 * Writes out the remaining benchmarking records and closes the log.
+	 */
+	@OnStopped
+	public void closeBenchmarkLog() {
+		closeBenchmarkLogger(benchmarkLog);
+		benchmarkLog = null;
+	}
+
+	/**
+	 * Starts collecting latency statistics and reporting them periodically.
+	 *
+	 * @param aContext process context
+	 */
+	@OnScheduled
+	public void startMetrics(final ProcessContext aContext) {
+
+		final StageMetrics current = new StageMetrics(
+				aContext.getProperty(LATENCY_SLA).asTimePeriod(TimeUnit.MICROSECONDS));
+		metrics = current;
+
+		long interval = aContext.getProperty(LATENCY_REPORT_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS);
+		if (interval > 0) {
+			reporter = Executors.newSingleThreadScheduledExecutor();
+			reporter.scheduleAtFixedRate(() -> report(current), interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Stops the latency reporter and reports the last interval.
+	 */
+	@OnStopped
+	public void stopMetrics() {
+
+		if (null != reporter) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+
+		if (null != metrics) {
+			report(metrics);
+			metrics = null;
+		}
+	}
+
+	/**
+	 * Reports the latency statistics of the past interval, as a warning
+	 * bulletin if the SLA has been violated.
+	 *
+	 * @param aMetrics latency statistics
+	 */
+	private void report(final StageMetrics aMetrics) {
+
+		StageMetrics.Report report = aMetrics.report();
+		if (null == report) {
+			return;
+		}
+
+		if (report.getViolations() > 0) {
+			getLogger().warn("Latency report, capture-to-recognition SLA violated: " + report.getText());
+		} else {
+			getLogger().info("Latency report: " + report.getText());
+		}
+	}
+
+	/**
+	 * Returns the latency statistics of this processor instance.
+	 *
+	 * @return latency statistics, or null if the processor is not running
+	 */
+	public StageMetrics getMetrics() {
+		return metrics;
+	}
 
-		if (null == isSaveResults) {
-			isSaveResults = aContext.getProperty(SAVE_IMAGES).asBoolean();
-			getLogger().info("Saving interim results: " + isSaveResults);
+	/**
+	 * Records the queue wait and processing time of a stage, which started
+	 * processing a flow file at a given time and has just finished, and adds
+	 * the stage timestamps to the flow file. The queue wait is measured from
+	 * the end of the previous stage, if the flow file went through it.
+	 *
+	 * @param aSession  process session
+	 * @param aFlowFile flow file
+	 * @param aStage    stage name, e.g. "detect"
+	 * @param aPrevious name of the previous stage, e.g. "capture"
+	 * @param aStart    time the stage started processing, from {@link StageMetrics#nowMicros()}
+	 * @return updated flow file
+	 */
+	public FlowFile stampStage(final ProcessSession aSession, final FlowFile aFlowFile, final String aStage,
+			final String aPrevious, final long aStart) {
+
+		long end = StageMetrics.nowMicros();
+		String previous = aFlowFile.getAttribute(aPrevious + ".us");
+		long wait = null == previous ? -1 : aStart - Long.parseLong(previous);
+
+		recordStage(aStage, wait, end - aStart);
+		StageMetrics current = metrics;
+		if (null != current) {
+			current.count();
 		}
+		return putStageAttributes(aSession, aFlowFile, aStage, end, wait, end - aStart);
+	}
 
-		if (null == bWriter) {
-			try {
-				bWriter = new BufferedWriter(new FileWriter(
-						aContext.getProperty(BENCHMARKING_DIR).getValue() + aContext.getName() + "-" + getIdentifier(),
-						true));
-				getLogger().info("Saving benchmarking results to: " + bWriter.toString());
-			} catch (IOException e) {
-				getLogger().error("Could not open the file for writing!", e);
+	/**
+	 * Records the queue wait and processing time of a stage.
+	 *
+	 * @param aStage stage name
+	 * @param aWait  queue wait, in microseconds, negative if unknown
+	 * @param aTime  processing time, in microseconds
+	 */
+	public void recordStage(final String aStage, final long aWait, final long aTime) {
+
+		StageMetrics current = metrics;
+		if (null != current) {
+			if (aWait >= 0) {
+				current.record(aStage + ".wait", aWait);
 			}
+			current.record(aStage + ".time", aTime);
+		}
+	}
+
+	/**
+	 * Adds the timestamps of a stage to a flow file: the end of the stage in
+	 * ms (for older benchmarking tools) and in microseconds, the queue wait and
+	 * the processing time.
+	 *
+	 * @param aSession  process session
+	 * @param aFlowFile flow file
+	 * @param aStage    stage name
+	 * @param aEnd      end of the stage, in microseconds
+	 * @param aWait     queue wait, in microseconds, negative if unknown
+	 * @param aTime     processing time, in microseconds
+	 * @return updated flow file
+	 */
+	public FlowFile putStageAttributes(final ProcessSession aSession, final FlowFile aFlowFile, final String aStage,
+			final long aEnd, final long aWait, final long aTime) {
+
+		Map<String, String> attributes = new HashMap<>();
+		attributes.put(aStage, String.valueOf(aEnd / 1000L));
+		attributes.put(aStage + ".us", String.valueOf(aEnd));
+		if (aWait >= 0) {
+			attributes.put(aStage + ".wait.us", String.valueOf(aWait));
+		}
+		attributes.put(aStage + ".time.us", String.valueOf(aTime));
+		return aSession.putAllAttributes(aFlowFile, attributes);
+	}
+
+	/**
+	 * Opens a benchmarking log named after the processor instance.
+	 *
+	 * @param aContext process context
+	 * @param aSuffix  file name suffix
+	 * @return benchmarking log, or null if the file cannot be opened
+	 */
+	protected BenchmarkLogger createBenchmarkLogger(final ProcessContext aContext, final String aSuffix) {
+
+		boolean binary = BENCHMARK_BINARY.getValue().equals(aContext.getProperty(BENCHMARK_FORMAT).getValue());
+		String path = aContext.getProperty(BENCHMARKING_DIR).getValue() + aContext.getName() + "-" + getIdentifier()
+				+ aSuffix + (binary ? ".bin" : "");
+		try {
+			BenchmarkLogger log = new BenchmarkLogger(path, aContext.getProperty(BENCHMARK_BUFFER_SIZE).asInteger(),
+					binary, getLogger());
+			getLogger().info("Saving benchmarking results to: " + path);
+			return log;
+		} catch (IOException e) {
+			getLogger().error("Could not open the file for writing!", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Closes a benchmarking log and reports how many records were lost.
+	 *
+	 * @param aLog benchmarking log, may be null
+	 */
+	protected void closeBenchmarkLogger(final BenchmarkLogger aLog) {
+
+		if (null != aLog) {
+			aLog.close();
+			getLogger().info("Benchmarking log closed. Written records: " + aLog.getWritten() + ", dropped records: "
+					+ aLog.getDropped());
 		}
 	}
 
@@ -137,52 +491,229 @@ public class EkstreamProcessor extends AbstractProcessor {
 	}
 
 	/**
-	 * Returns the buffered writer to log benchmarking results.
+	 * Returns the benchmarking log of this processor instance.
 	 *
-	 * @return buffered writer
+	 * @return benchmarking log, or null if the processor is not running
 	 */
-	public BufferedWriter getWriter() {
-		return bWriter;
+	public BenchmarkLogger getBenchmarkLogger() {
+		return benchmarkLog;
 	}
 
 	/**
-	 * Saves interim image processing results.
+	 * Submits an interim image processing result to be saved in the
+	 * background.
 	 *
 	 * @param aImage image file to be saved
-	 * @param aPath  destination path
+	 * @param aPath  file name within the debug image folder
 	 */
 	public void saveInterimResults(final String aPath, final IplImage aImage) {
-		if (isSaveResults) {
-			opencv_imgcodecs.cvSaveImage(aPath, aImage);
+		DebugImageWriter writer = debugImages;
+		if (null != writer) {
+			writer.submit(aPath, aImage);
 		}
 	}
 
 	/**
-	 * Saves interim image processing results.
+	 * Submits an interim image processing result to be saved in the
+	 * background.
 	 *
 	 * @param aFrame frame to be saved
-	 * @param aPath  destination path
+	 * @param aPath  file name within the debug image folder
 	 */
 	public void saveInterimResults(final String aPath, final Frame aFrame) {
-		if (isSaveResults) {
-			opencv_imgcodecs.cvSaveImage(aPath, Utils.getInstance().convertToImage(aFrame));
+		DebugImageWriter writer = debugImages;
+		if (null != writer) {
+			writer.submit(aPath, aFrame);
+		}
+	}
+
+	/**
+	 * Submits an interim image processing result to be saved in the
+	 * background.
+	 *
+	 * @param aMat  matrix to be saved
+	 * @param aPath file name within the debug image folder
+	 */
+	public void saveInterimResults(final String aPath, final Mat aMat) {
+		DebugImageWriter writer = debugImages;
+		if (null != writer) {
+			writer.submit(aPath, aMat);
 		}
 	}
 
 	/**
-	 * Logs a single benchmarking line to file.
+	 * Encodes a captured frame into the configured frame format and transfers
+	 * it as a new flow file, stamped with the capture stage.
+	 *
+	 * @param aContext process context
+	 * @param aSession process session
+	 * @param aFrame   captured frame, stamped with its capture time in
+	 *                 microseconds
+	 * @param aStart   time the frame was taken from the buffer, in microseconds
+	 * @throws IOException exception
+	 */
+	public void transferFrame(final ProcessContext aContext, final ProcessSession aSession, final Frame aFrame,
+			final long aStart) throws IOException {
+		transferFrame(aContext, aSession, aFrame, aStart, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * Encodes a captured frame into the configured frame format and transfers
+	 * it as a new flow file with additional attributes, stamped with the
+	 * capture stage.
+	 *
+	 * @param aContext    process context
+	 * @param aSession    process session
+	 * @param aFrame      captured frame, stamped with its capture time in
+	 *                    microseconds
+	 * @param aStart      time the frame was taken from the buffer, in
+	 *                    microseconds
+	 * @param aAttributes additional flow file attributes
+	 * @throws IOException exception
+	 */
+	public void transferFrame(final ProcessContext aContext, final ProcessSession aSession, final Frame aFrame,
+			final long aStart, final Map<String, String> aAttributes) throws IOException {
+
+		byte[] result = encodeImage(aContext, Utils.getInstance().convertToImage(aFrame), aFrame.timestamp / 1000L);
+
+		saveInterimResults(System.currentTimeMillis() + "-captured.png", aFrame);
+
+		// transfer the image
+		FlowFile flowFile = aSession.create();
+		flowFile = aSession.write(flowFile, new OutputStreamCallback() {
+
+			@Override
+			public void process(final OutputStream aStream) throws IOException {
+
+				aStream.write(result);
+			}
+		});
+
+		flowFile = aSession.putAttribute(flowFile, CoreAttributes.MIME_TYPE.key(), getMimeType(aContext));
+		flowFile = aSession.putAllAttributes(flowFile, aAttributes);
+
+		// benchmarking=====================================
+		flowFile = aSession.putAttribute(flowFile, "frame.us", String.valueOf(aFrame.timestamp));
+		flowFile = aSession.putAttribute(flowFile, "frame.source", getIdentifier());
+		flowFile = stampStage(aSession, flowFile, "capture", "frame", aStart);
+		benchmark(flowFile.getAttribute(CoreAttributes.UUID.key()));
+		// =================================================
+
+		aSession.transfer(flowFile, REL_SUCCESS);
+	}
+
+	/**
+	 * Identifies the camera a frame comes from: the processor which captured
+	 * it, followed by the camera id if that processor captures several ones.
+	 *
+	 * @param aFlowFile frame, or a face cropped from it
+	 * @return camera key, empty if the flow file does not tell
+	 */
+	public static String getCameraKey(final FlowFile aFlowFile) {
+
+		String source = aFlowFile.getAttribute("frame.source");
+		String camera = aFlowFile.getAttribute(CaptureVideoSources.CAMERA_ID);
+		return (null == source ? "" : source) + (null == camera ? "" : "/" + camera);
+	}
+
+	/**
+	 * Encodes an image into the configured frame format.
+	 *
+	 * @param aContext   process context
+	 * @param aImage     image to be encoded
+	 * @param aTimestamp capture timestamp, in ms
+	 * @return encoded image
+	 * @throws IOException exception
+	 */
+	public byte[] encodeImage(final ProcessContext aContext, final IplImage aImage, final long aTimestamp)
+			throws IOException {
+		if (isRawFormat(aContext)) {
+			return RawFrameCodec.encode(aImage, aTimestamp);
+		}
+		return Utils.getInstance().convertToByteArray(aImage);
+	}
+
+	/**
+	 * Returns the MIME type of images written in the configured frame format.
+	 *
+	 * @param aContext process context
+	 * @return MIME type
+	 */
+	public String getMimeType(final ProcessContext aContext) {
+		return isRawFormat(aContext) ? RawFrameCodec.MIME_TYPE : "image/png";
+	}
+
+	/**
+	 * Checks whether outgoing images should be written as raw frames.
+	 *
+	 * @param aContext process context
+	 * @return true for the raw frame format
+	 */
+	private boolean isRawFormat(final ProcessContext aContext) {
+		return FORMAT_RAW.getValue().equals(aContext.getProperty(FRAME_FORMAT).getValue());
+	}
+
+	/**
+	 * Adds the position of a single detected face to a flow file.
+	 *
+	 * @param aSession   process session
+	 * @param aFlowFile  flow file carrying the face
+	 * @param aIndex     index of the face within its frame
+	 * @param aRectangle bounding box of the face within its frame
+	 * @param aTrack     track identifier of the face
+	 * @return updated flow file
+	 */
+	public FlowFile putFaceAttributes(final ProcessSession aSession, final FlowFile aFlowFile, final int aIndex,
+			final CvRect aRectangle, final String aTrack) {
+
+		Map<String, String> attributes = new HashMap<>();
+		attributes.put("face.index", String.valueOf(aIndex));
+		attributes.put("face.bbox", toBoundingBox(aRectangle));
+		attributes.put("face.track", aTrack);
+		return aSession.putAllAttributes(aFlowFile, attributes);
+	}
+
+	/**
+	 * Adds the positions of all faces packed into a container to a flow file.
+	 *
+	 * @param aSession    process session
+	 * @param aFlowFile   flow file carrying the container
+	 * @param aRectangles bounding boxes of the faces, in container order
+	 * @param aTracks     track identifiers of the faces, in container order
+	 * @return updated flow file
+	 */
+	public FlowFile putFaceAttributes(final ProcessSession aSession, final FlowFile aFlowFile,
+			final List<CvRect> aRectangles, final List<String> aTracks) {
+
+		Map<String, String> attributes = new HashMap<>();
+		attributes.put("face.count", String.valueOf(aRectangles.size()));
+		for (int i = 0; i < aRectangles.size(); i++) {
+			attributes.put("face." + i + ".bbox", toBoundingBox(aRectangles.get(i)));
+			attributes.put("face." + i + ".track", aTracks.get(i));
+		}
+		return aSession.putAllAttributes(aFlowFile, attributes);
+	}
+
+	/**
+	 * Formats a bounding box as "x,y,width,height".
+	 *
+	 * @param aRectangle bounding box
+	 * @return formatted bounding box
+	 */
+	private static String toBoundingBox(final CvRect aRectangle) {
+		return aRectangle.x() + "," + aRectangle.y() + "," + aRectangle.width() + "," + aRectangle.height();
+	}
+
+	/**
+	 * Logs a single benchmarking record without blocking.
 	 *
 	 * @param aId Flow file ID
 	 */
 	public void benchmark(final String aId) {
-		try {
-			bWriter.write(aId + ";" + System.currentTimeMillis());
-			bWriter.write("\n");
-			bWriter.flush();
-		} catch (IOException e) {
-			getLogger().error("Could not write to file!", e);
+		BenchmarkLogger log = benchmarkLog;
+		if (null != log) {
+			log.log(aId, System.currentTimeMillis());
 		}
-
 	}
 
 }
@@ -2,26 +2,31 @@ package processors;
 
 import static org.bytedeco.javacpp.opencv_core.CV_32SC1;
 
-import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
-import javax.imageio.ImageIO;
-
+import org.apache.commons.io.IOUtils;
 import org.apache.nifi.annotation.behavior.InputRequirement;
 import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
 import org.apache.nifi.annotation.documentation.CapabilityDescription;
 import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
 import org.apache.nifi.components.AllowableValue;
 import org.apache.nifi.components.PropertyDescriptor;
 import org.apache.nifi.flowfile.FlowFile;
@@ -34,11 +39,24 @@ import org.apache.nifi.processor.io.InputStreamCallback;
 import org.apache.nifi.processor.util.StandardValidators;
 import org.bytedeco.javacpp.opencv_face;
 import org.bytedeco.javacpp.opencv_imgcodecs;
+import org.bytedeco.javacpp.opencv_imgproc;
 import org.bytedeco.javacpp.opencv_core.Mat;
 import org.bytedeco.javacpp.opencv_core.MatVector;
-import org.bytedeco.javacpp.opencv_face.FaceRecognizer;
-import org.bytedeco.javacv.Frame;
-
+import org.bytedeco.javacpp.opencv_core.Size;
+
+import utils.BatchWorkers;
+import utils.BenchmarkLogger;
+import utils.FaceBatchCodec;
+import utils.HotSwapRecognizer;
+import utils.JavaLbphEngine;
+import utils.OpenCvEngine;
+import utils.RawFrameCodec;
+import utils.RecognitionCache;
+import utils.RecognizerEngine;
+import utils.RecognizerModelStore;
+import utils.RecognizerPool;
+import utils.StageMetrics;
+import utils.TrackCache;
 import utils.Utils;
 
 /**
@@ -63,6 +81,11 @@ public class RecogniseFaces extends EkstreamProcessor {
 	public static final AllowableValue LBPH = new AllowableValue("LBPH", "LBPH Face Recognition",
 			"Face recognition using the LBPH algorithm.");
 
+	/** Allowable value. */
+	public static final AllowableValue JAVA_LBPH = new AllowableValue("JavaLBPH", "Java LBPH Face Recognition",
+			"Face recognition using a pure-Java implementation of the LBPH algorithm, which reads and writes "
+					+ "the same model files as the OpenCV one.");
+
 	/** Processor property. */
 	public static final PropertyDescriptor TRAINING_SET = new PropertyDescriptor.Builder()
 			.name("Folder with training images.")
@@ -73,17 +96,95 @@ public class RecogniseFaces extends EkstreamProcessor {
 	/** Processor property. */
 	public static final PropertyDescriptor FACE_RECOGNIZER = new PropertyDescriptor.Builder()
 			.name("Face recognition algorithm.").description("Specified the Face recognition algorithm to be applied.")
-			.allowableValues(FISHER, EIGEN, LBPH).defaultValue(FISHER.getValue()).required(true)
+			.allowableValues(FISHER, EIGEN, LBPH, JAVA_LBPH).defaultValue(FISHER.getValue()).required(true)
 			.addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
 
-	/** Face recognizer. */
-	private static FaceRecognizer faceRecognizer;
+	/** Processor property. */
+	public static final PropertyDescriptor IMAGE_WIDTH = new PropertyDescriptor.Builder().name("Image width")
+			.description("Specifies the width training images are resized to, which should match detected faces")
+			.defaultValue("92").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor IMAGE_HEIGHT = new PropertyDescriptor.Builder().name("Image height")
+			.description("Specifies the height training images are resized to, which should match detected faces")
+			.defaultValue("112").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor MODEL_DIR = new PropertyDescriptor.Builder()
+			.name("Folder with trained models.")
+			.description("Specifies the folder where trained face recognition models are saved and reloaded from. "
+					+ "Every processor only reloads and replaces its own models.")
+			.defaultValue("/opt/nifi-1.0.1/models/").required(true)
+			.addValidator(StandardValidators.NON_EMPTY_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor TRAINING_SET_INTERVAL = new PropertyDescriptor.Builder()
+			.name("Training set check interval")
+			.description("Specifies how often the training folder is checked for new or changed images. "
+					+ "New images are added to LBPH models incrementally, other changes cause a retraining.")
+			.defaultValue("10 sec").required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor TRACK_REFRESH_INTERVAL = new PropertyDescriptor.Builder()
+			.name("Track re-recognition interval")
+			.description("Specifies how long the prediction for a tracked face is reused for later faces of the same "
+					+ "track before it is recognised again. 0 sec recognises every face.")
+			.defaultValue("5 sec").required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor RECOGNITION_CACHE_SIZE = new PropertyDescriptor.Builder()
+			.name("Recognition cache size")
+			.description("Specifies how many predictions of near-identical faces are cached, keyed by a perceptual "
+					+ "hash of the face. The least recently used ones are evicted first. 0 disables the cache.")
+			.defaultValue("256").required(true).addValidator(StandardValidators.NON_NEGATIVE_INTEGER_VALIDATOR)
+			.build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor RECOGNITION_CACHE_DISTANCE = new PropertyDescriptor.Builder()
+			.name("Recognition cache tolerance")
+			.description("Specifies in how many of the 64 bits of their perceptual hashes two faces may differ "
+					+ "and still share a cached prediction. 0 requires identical hashes.")
+			.defaultValue("3").required(true).addValidator(StandardValidators.createLongValidator(0, 64, true))
+			.build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor RECOGNITION_CACHE_TTL = new PropertyDescriptor.Builder()
+			.name("Recognition cache time to live")
+			.description("Specifies how long a cached prediction of a face stays valid, which also bounds how long "
+					+ "predictions of a replaced model are served.")
+			.defaultValue("10 sec").required(true).addValidator(StandardValidators.TIME_PERIOD_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor PREDICTION_BATCH_SIZE = new PropertyDescriptor.Builder()
+			.name("Prediction batch size")
+			.description("Specifies how many flow files are taken per trigger and recognised in parallel on all "
+					+ "cores, with a single commit per batch. Every core gets its own copy of the model. "
+					+ "1 recognises flow files one by one on the triggering thread.")
+			.defaultValue("1").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Face recognizer replicas, swapped by the training thread. */
+	private volatile RecognizerPool faceRecognizers;
+
+	/** Workers recognising batches, or null if flow files are recognised one by one. */
+	private volatile BatchWorkers workers;
+
+	/** Background training thread. */
+	private ScheduledExecutorService trainer;
+
+	/** Predictions of tracked faces. */
+	private volatile TrackCache tracks;
+
+	/** Predictions of near-identical faces, or null if disabled. */
+	private volatile RecognitionCache recognitions;
+
+	/** Time to wait for an ongoing training when stopping, in seconds. */
+	private static final int TRAINER_SHUTDOWN_TIMEOUT = 10;
 
 	/** Integer 10000. */
 	private static final int INT_10000 = 10000;
 
-	/** File writer for benchmarking logs. */
-	private static BufferedWriter bWriter2;
+	/** Benchmarking log of fully processed faces. */
+	private volatile BenchmarkLogger readyLog;
 
 	/**
 	 * {@inheritDoc}
@@ -95,18 +196,139 @@ public class RecogniseFaces extends EkstreamProcessor {
 
 		final Set<Relationship> procRels = new HashSet<>();
 		procRels.add(REL_SUCCESS);
+		procRels.add(REL_FAILURE);
 		setRelationships(Collections.unmodifiableSet(procRels));
 
 		final List<PropertyDescriptor> supDescriptors = new ArrayList<>();
 		supDescriptors.add(TRAINING_SET);
 		supDescriptors.add(BENCHMARKING_DIR);
+		supDescriptors.add(BENCHMARK_FORMAT);
+		supDescriptors.add(BENCHMARK_BUFFER_SIZE);
+		supDescriptors.add(LATENCY_REPORT_INTERVAL);
+		supDescriptors.add(LATENCY_SLA);
 		supDescriptors.add(FACE_RECOGNIZER);
+		supDescriptors.add(IMAGE_WIDTH);
+		supDescriptors.add(IMAGE_HEIGHT);
+		supDescriptors.add(MODEL_DIR);
+		supDescriptors.add(TRAINING_SET_INTERVAL);
+		supDescriptors.add(TRACK_REFRESH_INTERVAL);
+		supDescriptors.add(RECOGNITION_CACHE_SIZE);
+		supDescriptors.add(RECOGNITION_CACHE_DISTANCE);
+		supDescriptors.add(RECOGNITION_CACHE_TTL);
+		supDescriptors.add(PREDICTION_BATCH_SIZE);
 		supDescriptors.add(SAVE_IMAGES);
+		supDescriptors.add(DEBUG_IMAGE_DIR);
+		supDescriptors.add(DEBUG_IMAGE_SAMPLE_RATE);
+		supDescriptors.add(DEBUG_IMAGE_QUEUE_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_AGE);
 		setProperties(Collections.unmodifiableList(supDescriptors));
 
 		getLogger().info("Initialision complete!");
 	}
 
+	/**
+	 * Loads the saved model matching the current training set and starts
+	 * watching the training set for changes. If the training set has changed
+	 * since the model was saved, a new model is trained in the background while
+	 * the model of an older training set, if any, serves predictions.
+	 *
+	 * @param aContext process context
+	 * @throws IOException if a saved model cannot be loaded
+	 */
+	@OnScheduled
+	public void loadModel(final ProcessContext aContext) throws IOException {
+
+		final String algorithm = aContext.getProperty(FACE_RECOGNIZER).getValue();
+		final File[] imageFiles = listImages(aContext.getProperty(TRAINING_SET).getValue());
+		final RecognizerModelStore store = new RecognizerModelStore(aContext.getProperty(MODEL_DIR).getValue(),
+				getIdentifier(), aContext.getProperty(IMAGE_WIDTH).asInteger(),
+				aContext.getProperty(IMAGE_HEIGHT).asInteger());
+		final File modelFile = store.getModelFile(algorithm, store.fingerprint(imageFiles, algorithm));
+
+		if (aContext.getProperty(PREDICTION_BATCH_SIZE).asInteger() > 1) {
+			workers = new BatchWorkers();
+		}
+
+		// one replica per concurrent task or batch worker, each used by one of them at a time
+		final RecognizerPool recognizer = new RecognizerPool(
+				Math.max(aContext.getMaxConcurrentTasks(), null == workers ? 1 : workers.getParallelism()));
+		final File savedModel = modelFile.exists() ? modelFile : store.findLatest(algorithm);
+
+		if (null != savedModel) {
+			long start = System.currentTimeMillis();
+			publish(recognizer, algorithm, store, savedModel, null);
+			getLogger().info("Loaded " + recognizer.size() + " replicas of the face recognition model " + savedModel
+					+ " in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		faceRecognizers = recognizer;
+
+		TrainingSetWatcher watcher = new TrainingSetWatcher(aContext.getProperty(TRAINING_SET).getValue(),
+				algorithm, new Size(aContext.getProperty(IMAGE_WIDTH).asInteger(),
+						aContext.getProperty(IMAGE_HEIGHT).asInteger()),
+				store, recognizer);
+		if (modelFile.exists()) {
+			watcher.snapshot = snapshot(imageFiles);
+		} else if (null != savedModel) {
+			getLogger().info("Training set has changed, using " + savedModel + " until retraining is complete");
+		}
+
+		readyLog = createBenchmarkLogger(aContext, "-ready");
+
+		tracks = new TrackCache(aContext.getProperty(TRACK_REFRESH_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS));
+		int cacheSize = aContext.getProperty(RECOGNITION_CACHE_SIZE).asInteger();
+		recognitions = cacheSize > 0
+				? new RecognitionCache(cacheSize, aContext.getProperty(RECOGNITION_CACHE_DISTANCE).asInteger(),
+						aContext.getProperty(RECOGNITION_CACHE_TTL).asTimePeriod(TimeUnit.MILLISECONDS))
+				: null;
+
+		trainer = Executors.newSingleThreadScheduledExecutor();
+		trainer.scheduleWithFixedDelay(watcher, 0,
+				aContext.getProperty(TRAINING_SET_INTERVAL).asTimePeriod(TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops watching the training set and releases the face recognizer.
+	 */
+	@OnStopped
+	public void unloadModel() {
+
+		if (null != trainer) {
+			trainer.shutdownNow();
+			try {
+				trainer.awaitTermination(TRAINER_SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			trainer = null;
+		}
+
+		if (null != workers) {
+			workers.shutdown();
+			workers = null;
+		}
+
+		if (null != faceRecognizers) {
+			faceRecognizers.release();
+			faceRecognizers = null;
+		}
+
+		closeBenchmarkLogger(readyLog);
+		readyLog = null;
+
+		if (null != tracks) {
+			getLogger().info("Track cache stopped. Reused predictions: " + tracks.getHits() + ", predictions made: "
+					+ tracks.getMisses());
+			tracks = null;
+		}
+
+		if (null != recognitions) {
+			getLogger().info("Recognition cache stopped. Hits: " + recognitions.getHits() + ", misses: "
+					+ recognitions.getMisses() + ", evictions: " + recognitions.getEvictions());
+			recognitions = null;
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -115,81 +337,362 @@ public class RecogniseFaces extends EkstreamProcessor {
 
 		super.onTrigger(aContext, aSession);
 
-		if (null == bWriter2) {
-			try {
-				bWriter2 = new BufferedWriter(new FileWriter(aContext.getProperty(BENCHMARKING_DIR).getValue()
-						+ aContext.getName() + "-" + getIdentifier() + "-ready", true));
-				// getLogger().info("Saving benchmarking results to: " + bWriter2.toString());
-			} catch (IOException e) {
-				getLogger().error("Could not open the file for writing!", e);
-			}
+		final RecognizerPool recognizers = faceRecognizers;
+		if (null == recognizers || !recognizers.isReady()) {
+			// the model is still being trained
+			aContext.yield();
+			return;
 		}
 
-		if (null == faceRecognizer) {
-			train(aContext.getProperty(TRAINING_SET).getValue(), aContext.getProperty(FACE_RECOGNIZER).getValue());
+		if (null != workers) {
+			onTriggerBatch(aContext, aSession, recognizers);
+			return;
 		}
 
 		final FlowFile flowFile = aSession.get();
 		if (flowFile == null) {
 			return;
 		}
+		final long start = StageMetrics.nowMicros();
+
+		Recognition recognition = read(aSession, flowFile);
+		try {
+			recognise(recognizers, recognition);
+		} catch (IOException e) {
+			throw new ProcessException(e);
+		}
+		transferResult(aSession, recognition, start);
 
-		aSession.read(flowFile, new InputStreamCallback() {
+		aSession.commit();
+
+	}
+
+	/**
+	 * Takes a batch of flow files and recognises their faces on all cores, each
+	 * worker with a model replica of its own, and transfers the predictions of
+	 * the whole batch with a single commit. A flow file which cannot be
+	 * recognised is routed to failure, the rest of the batch goes on.
+	 *
+	 * @param aContext     process context
+	 * @param aSession     process session
+	 * @param aRecognizers face recognizer replicas
+	 */
+	private void onTriggerBatch(final ProcessContext aContext, final ProcessSession aSession,
+			final RecognizerPool aRecognizers) {
+
+		List<FlowFile> flowFiles = aSession.get(aContext.getProperty(PREDICTION_BATCH_SIZE).asInteger());
+		if (flowFiles.isEmpty()) {
+			return;
+		}
+		final long start = StageMetrics.nowMicros();
+
+		// the session is not thread-safe, so the contents are read up front
+		List<Recognition> recognitions = new ArrayList<>(flowFiles.size());
+		for (FlowFile flowFile : flowFiles) {
+			recognitions.add(read(aSession, flowFile));
+		}
+
+		try {
+			workers.forEach(recognitions, recognition -> recognise(aRecognizers, recognition));
+		} catch (IOException e) {
+			throw new ProcessException(e);
+		}
+
+		for (Recognition recognition : recognitions) {
+			transferResult(aSession, recognition, start);
+		}
+
+		aSession.commit();
+	}
+
+	/**
+	 * Recognises the faces of a flow file with a replica taken from the pool.
+	 * A failure is recorded for the flow file rather than thrown, so that it
+	 * does not fail the other flow files of the session.
+	 *
+	 * @param aRecognizers face recognizer replicas
+	 * @param aRecognition faces of the flow file
+	 * @throws InterruptedIOException if interrupted while waiting for a replica
+	 */
+	private void recognise(final RecognizerPool aRecognizers, final Recognition aRecognition)
+			throws InterruptedIOException {
+
+		if (null != aRecognition.failure) {
+			return;
+		}
+
+		HotSwapRecognizer replica;
+		try {
+			replica = aRecognizers.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a face recognizer");
+		}
+		try {
+			predict(replica, aRecognition.faces, aRecognition.trackIds, aRecognition.labels,
+					aRecognition.confidences);
+		} catch (IOException | RuntimeException e) {
+			aRecognition.failure = e;
+		} finally {
+			aRecognizers.release(replica);
+		}
+	}
+
+	/**
+	 * Transfers the predictions for the faces of a flow file and removes it,
+	 * or routes it to failure if it could not be recognised.
+	 *
+	 * @param aSession     process session
+	 * @param aRecognition recognised faces
+	 * @param aStart       time the flow file was taken from the queue, in microseconds
+	 */
+	private void transferResult(final ProcessSession aSession, final Recognition aRecognition, final long aStart) {
+
+		if (null != aRecognition.failure) {
+			getLogger().error("Could not recognise the faces of " + aRecognition.flowFile + ", routing to failure",
+					aRecognition.failure);
+			aSession.transfer(aRecognition.flowFile, REL_FAILURE);
+			return;
+		}
+
+		transferPrediction(aSession, aRecognition, aStart);
+		aSession.remove(aRecognition.flowFile);
+	}
+
+	/**
+	 * Reads the encoded faces of a flow file.
+	 *
+	 * @param aSession  process session
+	 * @param aFlowFile flow file with a face or a container of faces
+	 * @return faces, with room for their predictions
+	 */
+	private static Recognition read(final ProcessSession aSession, final FlowFile aFlowFile) {
+
+		final byte[][] content = new byte[1][];
+		aSession.read(aFlowFile, new InputStreamCallback() {
 
 			@Override
 			public void process(final InputStream aStream) throws IOException {
+				content[0] = IOUtils.toByteArray(aStream);
+			}
+		});
+
+		try {
+			return new Recognition(aFlowFile, content[0]);
+		} catch (IllegalArgumentException e) {
+			return new Recognition(aFlowFile, e);
+		}
+	}
 
-				FlowFile result = aSession.create(flowFile);
+	/**
+	 * Transfers the predictions for the faces of a flow file.
+	 *
+	 * @param aSession     process session
+	 * @param aRecognition recognised faces
+	 * @param aStart       time the flow file was taken from the queue, in microseconds
+	 */
+	private void transferPrediction(final ProcessSession aSession, final Recognition aRecognition,
+			final long aStart) {
 
-				BufferedImage bufferedImage = ImageIO.read(aStream);
-				Frame frame = Utils.getInstance().convertToFrame(bufferedImage);
+		FlowFile result = aSession.create(aRecognition.flowFile);
 
-				saveInterimResults(System.currentTimeMillis() + "-received_face.png", frame);
+		// benchmarking====================================
+		result = stampStage(aSession, result, "recognise", "detect", aStart);
+		result = putEndToEndLatency(aSession, result);
 
-				Mat face = Utils.getInstance().convertToMat(frame);
-				face = Utils.getInstance().convertToGrayscale(face);
+		long detectionTime = toTimestamp(result.getAttribute("detect"))
+				- toTimestamp(result.getAttribute("capture"));
+		long recognitionTime = toTimestamp(result.getAttribute("recognise"))
+				- toTimestamp(result.getAttribute("detect"));
 
-				int[] plabel = new int[1];
-				double[] pconfidence = new double[1];
+		getLogger().info("****" + result.getAttribute("parent") + " : " + detectionTime + " : "
+				+ recognitionTime + "****");
 
-				faceRecognizer.predict(face, plabel, pconfidence);
+		benchmark2(result);
 
-				// benchmarking====================================
-				result = aSession.putAttribute(result, "recognise", String.valueOf(System.currentTimeMillis()));
+		benchmark(result.getAttribute("parent"));
+		// =================================================
 
-				long detectionTime = Long.parseLong(result.getAttribute("detect"))
-						- Long.parseLong(flowFile.getAttribute("capture"));
-				long recognitionTime = Long.parseLong(result.getAttribute("recognise"))
-						- Long.parseLong(flowFile.getAttribute("detect"));
+		Map<String, String> attributes = new HashMap<>();
+		for (int i = 0; i < aRecognition.faces.size(); i++) {
+			String prefix = aRecognition.isBatch ? "face." + i + "." : "face.";
+			attributes.put(prefix + "label", String.valueOf(aRecognition.labels[i]));
+			attributes.put(prefix + "confidence", String.valueOf(aRecognition.confidences[i]));
 
-				getLogger().info("****" + result.getAttribute("parent") + " : " + detectionTime + " : "
-						+ recognitionTime + "****");
+			getLogger().info("Predicted label: " + aRecognition.labels[i] + " , confidence: "
+					+ aRecognition.confidences[i]);
+			if (aRecognition.confidences[i] > INT_10000) {
+				getLogger().warn("ONE OF THE FACES HAS BEEN RECOGNISED!");
+			}
+		}
+		result = aSession.putAllAttributes(result, attributes);
+
+		aSession.transfer(result, REL_SUCCESS);
+	}
+
+	/**
+	 * The faces of a flow file together with their predictions.
+	 */
+	private static final class Recognition {
+
+		/** Flow file with a face or a container of faces. */
+		private final FlowFile flowFile;
+
+		/** Whether the flow file is a container of faces. */
+		private final boolean isBatch;
+
+		/** Encoded faces. */
+		private final List<byte[]> faces;
+
+		/**
+		 * Track identifiers of the faces, qualified by their camera, since
+		 * trackers of different cameras know nothing of each other; null
+		 * entries if untracked.
+		 */
+		private final String[] trackIds;
+
+		/** Predicted labels. */
+		private final int[] labels;
+
+		/** Prediction confidences. */
+		private final double[] confidences;
+
+		/** Why the faces could not be recognised, or null. */
+		private Exception failure;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param aFlowFile flow file
+		 * @param aBytes    content of the flow file
+		 */
+		private Recognition(final FlowFile aFlowFile, final byte[] aBytes) {
+
+			flowFile = aFlowFile;
+			isBatch = FaceBatchCodec.isBatch(aBytes);
+			faces = isBatch ? FaceBatchCodec.decode(aBytes) : Collections.singletonList(aBytes);
+
+			String camera = getCameraKey(aFlowFile);
+			trackIds = new String[faces.size()];
+			for (int i = 0; i < faces.size(); i++) {
+				String track = aFlowFile.getAttribute(isBatch ? "face." + i + ".track" : "face.track");
+				trackIds[i] = null == track ? null : camera + "#" + track;
+			}
+
+			labels = new int[faces.size()];
+			confidences = new double[faces.size()];
+		}
+
+		/**
+		 * Constructor for a flow file whose content cannot be read as faces.
+		 *
+		 * @param aFlowFile flow file
+		 * @param aFailure  why the content cannot be read
+		 */
+		private Recognition(final FlowFile aFlowFile, final Exception aFailure) {
+
+			flowFile = aFlowFile;
+			isBatch = false;
+			faces = Collections.emptyList();
+			trackIds = new String[0];
+			labels = new int[0];
+			confidences = new double[0];
+			failure = aFailure;
+		}
+	}
+
+	/**
+	 * Recognises a list of encoded faces in one pass. Faces of a track which
+	 * has been recognised recently, or nearly identical to a recently
+	 * recognised face, reuse the cached prediction.
+	 *
+	 * @param aRecognizer  face recognizer
+	 * @param aFaces       encoded faces
+	 * @param aTracks      track identifiers of the faces, null entries if untracked
+	 * @param aLabels      predicted labels, filled in face order
+	 * @param aConfidences prediction confidences, filled in face order
+	 * @throws IOException exception
+	 */
+	private void predict(final HotSwapRecognizer aRecognizer, final List<byte[]> aFaces, final String[] aTracks,
+			final int[] aLabels, final double[] aConfidences) throws IOException {
+
+		int[] plabel = new int[1];
+		double[] pconfidence = new double[1];
+		TrackCache trackCache = tracks;
+		RecognitionCache hashCache = recognitions;
+
+		for (int i = 0; i < aFaces.size(); i++) {
+
+			long now = System.currentTimeMillis();
+			if (null != trackCache && trackCache.lookup(aTracks[i], now, plabel, pconfidence)) {
+				aLabels[i] = plabel[0];
+				aConfidences[i] = pconfidence[0];
+				continue;
+			}
 
-				benchmark2(result);
+			byte[] bytes = aFaces.get(i);
+			boolean raw = RawFrameCodec.isRawFrame(bytes);
+			Mat face = raw ? RawFrameCodec.decodeMat(bytes, getImagePool())
+					: Utils.getInstance().convertToMat(bytes);
 
-				benchmark(result.getAttribute("parent"));
-				// =================================================
+			saveInterimResults(System.currentTimeMillis() + "-received_face.png", face);
 
-				getLogger().info("Predicted label: " + plabel[0] + " , confidence: " + pconfidence[0]);
-				if (pconfidence[0] > INT_10000) {
-					getLogger().warn("ONE OF THE FACES HAS BEEN RECOGNISED!");
+			Mat gray = Utils.getInstance().convertToGrayscale(face, getImagePool());
+			try {
+				long hash = null == hashCache ? 0 : RecognitionCache.hash(gray);
+				if (null == hashCache || !hashCache.lookup(hash, now, plabel, pconfidence)) {
+					aRecognizer.predict(gray, plabel, pconfidence);
+					if (null != hashCache) {
+						hashCache.put(hash, now, plabel[0], pconfidence[0]);
+					}
+				}
+			} finally {
+				if (gray != face) {
+					getImagePool().release(gray);
+				}
+				if (raw) {
+					getImagePool().release(face);
 				}
-				aSession.transfer(result, REL_SUCCESS);
 			}
-		});
+			aLabels[i] = plabel[0];
+			aConfidences[i] = pconfidence[0];
 
-		aSession.remove(flowFile);
-		aSession.commit();
+			if (null != trackCache) {
+				trackCache.put(aTracks[i], now, plabel[0], pconfidence[0]);
+			}
+		}
+	}
 
+	/**
+	 * Publishes a model to every replica. The first replica gets the given
+	 * trained recognizer, if any, the others load the saved model.
+	 *
+	 * @param aRecognizers face recognizer replicas
+	 * @param aAlgorithm   face recognition algorithm
+	 * @param aStore       model store
+	 * @param aModelFile   saved model
+	 * @param aTrained     trained recognizer, or null to load all replicas
+	 * @throws IOException if the saved model cannot be loaded
+	 */
+	private static void publish(final RecognizerPool aRecognizers, final String aAlgorithm,
+			final RecognizerModelStore aStore, final File aModelFile, final RecognizerEngine aTrained)
+			throws IOException {
+
+		for (int i = 0; i < aRecognizers.size(); i++) {
+			RecognizerEngine replica = 0 == i && null != aTrained ? aTrained
+					: aStore.load(createRecognizer(aAlgorithm), aModelFile);
+			aRecognizers.get(i).publish(replica,
+					isIncremental(aAlgorithm) ? aStore.load(createRecognizer(aAlgorithm), aModelFile) : null);
+		}
 	}
 
 	/**
-	 * Trains the face recognizer.
+	 * Lists the training images of a directory.
 	 *
 	 * @param aTrainingDir directory with training images
-	 * @param aAlgorithm   face recognition algorithm
+	 * @return training images
 	 */
-	public static void train(final String aTrainingDir, final String aAlgorithm) {
+	public static File[] listImages(final String aTrainingDir) {
 
 		File root = new File(aTrainingDir);
 
@@ -202,50 +705,257 @@ public class RecogniseFaces extends EkstreamProcessor {
 		};
 
 		File[] imageFiles = root.listFiles(imgFilter);
+		return null == imageFiles ? new File[0] : imageFiles;
+	}
+
+	/**
+	 * Creates an untrained face recognizer.
+	 *
+	 * @param aAlgorithm face recognition algorithm
+	 * @return face recognizer
+	 */
+	public static RecognizerEngine createRecognizer(final String aAlgorithm) {
+
+		switch (aAlgorithm) {
+		case "Eigen":
+			return new OpenCvEngine(opencv_face.createEigenFaceRecognizer());
+		case "LBPH":
+			return new OpenCvEngine(opencv_face.createLBPHFaceRecognizer());
+		case "JavaLBPH":
+			return new JavaLbphEngine();
+		case "Fisher":
+		default:
+			return new OpenCvEngine(opencv_face.createFisherFaceRecognizer());
+		}
+	}
+
+	/**
+	 * Checks whether models of an algorithm can be updated incrementally.
+	 *
+	 * @param aAlgorithm face recognition algorithm
+	 * @return true for both LBPH implementations
+	 */
+	public static boolean isIncremental(final String aAlgorithm) {
+		return LBPH.getValue().equals(aAlgorithm) || JAVA_LBPH.getValue().equals(aAlgorithm);
+	}
+
+	/**
+	 * Trains a face recognizer.
+	 *
+	 * @param aImageFiles training images, named after their labels
+	 * @param aAlgorithm  face recognition algorithm
+	 * @param aSize       size training images are resized to
+	 * @return trained face recognizer
+	 */
+	public static RecognizerEngine train(final File[] aImageFiles, final String aAlgorithm, final Size aSize) {
 
-		MatVector images = new MatVector(imageFiles.length);
+		MatVector images = new MatVector(aImageFiles.length);
+		Mat labels = new Mat(aImageFiles.length, 1, CV_32SC1);
+		readTrainingSet(aImageFiles, aSize, images, labels);
+
+		RecognizerEngine faceRecognizer = createRecognizer(aAlgorithm);
+		faceRecognizer.train(images, labels);
+		return faceRecognizer;
+	}
+
+	/**
+	 * Reads training images as grayscale, resizes them and parses their labels.
+	 * Images are decoded in parallel across all cores, each one written to its
+	 * own index of the output vector and label buffer.
+	 *
+	 * @param aImageFiles training images, named after their labels
+	 * @param aSize       size images are resized to
+	 * @param aImages     grayscale images, filled by index
+	 * @param aLabels     labels, filled by index
+	 */
+	public static void readTrainingSet(final File[] aImageFiles, final Size aSize, final MatVector aImages,
+			final Mat aLabels) {
 
-		Mat labels = new Mat(imageFiles.length, 1, CV_32SC1);
-		IntBuffer labelsBuf = labels.createBuffer();
+		IntBuffer labelsBuf = aLabels.createBuffer();
 
-		for (int i = 0; i < imageFiles.length; i++) {
+		IntStream.range(0, aImageFiles.length).parallel().forEach(i -> {
 
-			Mat img = opencv_imgcodecs.imread(imageFiles[i].getAbsolutePath(),
+			Mat img = opencv_imgcodecs.imread(aImageFiles[i].getAbsolutePath(),
 					opencv_imgcodecs.CV_LOAD_IMAGE_GRAYSCALE);
+			if (img.empty()) {
+				throw new IllegalArgumentException("Could not read the training image: " + aImageFiles[i]);
+			}
+
+			if (img.cols() != aSize.width() || img.rows() != aSize.height()) {
+				Mat resized = new Mat();
+				opencv_imgproc.resize(img, resized, aSize);
+				img = resized;
+			}
+
+			String name = aImageFiles[i].getName();
+			aImages.put(i, img);
+			labelsBuf.put(i, Integer.parseInt(name.substring(0, name.indexOf('-'))));
+		});
+	}
+
+	/**
+	 * Takes a snapshot of the names and modification times of training images.
+	 *
+	 * @param aImageFiles training images
+	 * @return modification times by image name
+	 */
+	private static Map<String, Long> snapshot(final File[] aImageFiles) {
 
-			int label = Integer.parseInt(imageFiles[i].getName().split("\\-")[0]);
-			images.put(i, img);
-			labelsBuf.put(i, label);
+		Map<String, Long> result = new HashMap<>();
+		for (File file : aImageFiles) {
+			result.put(file.getName(), file.lastModified());
 		}
+		return result;
+	}
 
-		switch (aAlgorithm) {
-		case "Fisher":
-			faceRecognizer = opencv_face.createFisherFaceRecognizer();
-		case "Eigen":
-			faceRecognizer = opencv_face.createEigenFaceRecognizer();
-		case "LBPH":
-			faceRecognizer = opencv_face.createLBPHFaceRecognizer();
-		default:
-			faceRecognizer = opencv_face.createFisherFaceRecognizer();
+	/**
+	 * Periodically compares the training folder with the images the published
+	 * model was trained on. New images are added incrementally when the
+	 * algorithm supports it; any other change triggers a full retraining. Runs
+	 * on the single training thread, which updates the replicas one by one.
+	 */
+	private final class TrainingSetWatcher implements Runnable {
+
+		/** Directory with training images. */
+		private final String trainingDir;
+
+		/** Face recognition algorithm. */
+		private final String algorithm;
+
+		/** Size training images are resized to. */
+		private final Size size;
+
+		/** Model store. */
+		private final RecognizerModelStore store;
+
+		/** Recognizer replicas to publish to. */
+		private final RecognizerPool recognizer;
+
+		/** Training images of the published model, null if it is out of date. */
+		private Map<String, Long> snapshot;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param aTrainingDir directory with training images
+		 * @param aAlgorithm   face recognition algorithm
+		 * @param aSize        size training images are resized to
+		 * @param aStore       model store
+		 * @param aRecognizer  recognizer replicas to publish to
+		 */
+		private TrainingSetWatcher(final String aTrainingDir, final String aAlgorithm, final Size aSize,
+				final RecognizerModelStore aStore, final RecognizerPool aRecognizer) {
+			trainingDir = aTrainingDir;
+			algorithm = aAlgorithm;
+			size = aSize;
+			store = aStore;
+			recognizer = aRecognizer;
 		}
 
-		faceRecognizer.train(images, labels);
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void run() {
+
+			try {
+				File[] imageFiles = listImages(trainingDir);
+				Map<String, Long> current = snapshot(imageFiles);
+				if (current.equals(snapshot) || imageFiles.length == 0) {
+					return;
+				}
+
+				File modelFile = store.getModelFile(algorithm, store.fingerprint(imageFiles, algorithm));
+				long start = System.currentTimeMillis();
+
+				if (null != snapshot && current.entrySet().containsAll(snapshot.entrySet())
+						&& recognizer.get(0).isIncremental()) {
+
+					List<File> added = new ArrayList<>();
+					for (File file : imageFiles) {
+						if (!snapshot.containsKey(file.getName())) {
+							added.add(file);
+						}
+					}
+					File[] addedFiles = added.toArray(new File[added.size()]);
+
+					MatVector images = new MatVector(addedFiles.length);
+					Mat labels = new Mat(addedFiles.length, 1, CV_32SC1);
+					readTrainingSet(addedFiles, size, images, labels);
+					long loaded = System.currentTimeMillis();
+					for (int i = 0; i < recognizer.size(); i++) {
+						recognizer.get(i).update(images, labels);
+					}
+					store.save(recognizer.get(0).getStandby(), algorithm, modelFile);
+
+					getLogger().info("Enrolled " + addedFiles.length + " new images in "
+							+ (System.currentTimeMillis() - start) + " ms (loading: " + (loaded - start) + " ms)");
+				} else {
+
+					MatVector images = new MatVector(imageFiles.length);
+					Mat labels = new Mat(imageFiles.length, 1, CV_32SC1);
+					readTrainingSet(imageFiles, size, images, labels);
+					long loaded = System.currentTimeMillis();
+
+					RecognizerEngine trained = createRecognizer(algorithm);
+					trained.train(images, labels);
+					store.save(trained, algorithm, modelFile);
+					publish(recognizer, algorithm, store, modelFile, trained);
+
+					getLogger().info("Trained the face recognition model on " + imageFiles.length + " images in "
+							+ (System.currentTimeMillis() - start) + " ms (loading: " + (loaded - start) + " ms)");
+				}
+
+				snapshot = current;
+			} catch (IOException | RuntimeException e) {
+				getLogger().error("Could not update the face recognition model!", e);
+			}
+		}
 	}
 
 	/**
-	 * Logs a single benchmarking line to file.
+	 * Logs the stage timestamps of a recognised face without blocking.
 	 *
 	 * @param aFlowFile Flowfile
 	 */
 	public void benchmark2(final FlowFile aFlowFile) {
-		try {
-			bWriter2.write(aFlowFile.getAttribute("parent") + ";" + aFlowFile.getAttribute("capture") + ";"
-					+ aFlowFile.getAttribute("detect") + ";" + aFlowFile.getAttribute("recognise") + ";");
-			bWriter2.write("\n");
-			bWriter2.flush();
-		} catch (IOException e) {
-			getLogger().error("Could not write to file!", e);
+		BenchmarkLogger log = readyLog;
+		if (null != log) {
+			log.log(aFlowFile.getAttribute("parent"), toTimestamp(aFlowFile.getAttribute("capture")),
+					toTimestamp(aFlowFile.getAttribute("detect")), toTimestamp(aFlowFile.getAttribute("recognise")));
+		}
+	}
+
+	/**
+	 * Records the time from frame capture to recognition and adds it to a flow
+	 * file.
+	 *
+	 * @param aSession  process session
+	 * @param aFlowFile recognised flow file
+	 * @return updated flow file
+	 */
+	private FlowFile putEndToEndLatency(final ProcessSession aSession, final FlowFile aFlowFile) {
+
+		String captured = aFlowFile.getAttribute("frame.us");
+		if (null == captured) {
+			return aFlowFile;
+		}
+
+		long latency = Long.parseLong(aFlowFile.getAttribute("recognise.us")) - Long.parseLong(captured);
+		StageMetrics current = getMetrics();
+		if (null != current) {
+			current.recordEndToEnd(latency, aFlowFile.getAttribute("frame.source"));
 		}
+		return aSession.putAttribute(aFlowFile, "latency.us", String.valueOf(latency));
+	}
 
+	/**
+	 * Parses a timestamp attribute.
+	 *
+	 * @param aValue attribute value, may be null
+	 * @return timestamp, or -1 if the attribute is missing
+	 */
+	private static long toTimestamp(final String aValue) {
+		return null == aValue ? -1 : Long.parseLong(aValue);
 	}
 }
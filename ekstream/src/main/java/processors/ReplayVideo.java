@@ -0,0 +1,250 @@
+package processors;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.nifi.annotation.behavior.InputRequirement;
+import org.apache.nifi.annotation.behavior.InputRequirement.Requirement;
+import org.apache.nifi.annotation.behavior.TriggerWhenEmpty;
+import org.apache.nifi.annotation.documentation.CapabilityDescription;
+import org.apache.nifi.annotation.documentation.Tags;
+import org.apache.nifi.annotation.lifecycle.OnScheduled;
+import org.apache.nifi.annotation.lifecycle.OnStopped;
+import org.apache.nifi.components.AllowableValue;
+import org.apache.nifi.components.PropertyDescriptor;
+import org.apache.nifi.components.ValidationContext;
+import org.apache.nifi.components.ValidationResult;
+import org.apache.nifi.components.Validator;
+import org.apache.nifi.processor.ProcessContext;
+import org.apache.nifi.processor.ProcessSession;
+import org.apache.nifi.processor.ProcessorInitializationContext;
+import org.apache.nifi.processor.Relationship;
+import org.apache.nifi.processor.exception.ProcessException;
+import org.apache.nifi.processor.util.StandardValidators;
+import org.bytedeco.javacv.Frame;
+
+import utils.FrameRingBuffer;
+import utils.ReplayThread;
+import utils.StageMetrics;
+
+/**
+ * A NiFi processor which replays local video files, or all video files of a
+ * directory, and transfers their frames forward exactly like
+ * {@link CaptureVideo} does, so that the rest of the flow can be load-tested
+ * at rates no camera delivers.
+ */
+@TriggerWhenEmpty
+@InputRequirement(Requirement.INPUT_FORBIDDEN)
+@Tags({ "ekstream", "video", "replay", "sampling", "load testing" })
+@CapabilityDescription("Replays video files as a stream of frames, as fast as possible, in real time or sped up.")
+public class ReplayVideo extends EkstreamProcessor {
+
+	/** Allowable value. */
+	public static final AllowableValue MODE_FAST = new AllowableValue("Fast", "As fast as possible",
+			"Frames are decoded as fast as downstream takes them, none are dropped.");
+
+	/** Allowable value. */
+	public static final AllowableValue MODE_REAL_TIME = new AllowableValue("Real time", "Real time",
+			"Frames are paced by their timestamps, like a live camera.");
+
+	/** Allowable value. */
+	public static final AllowableValue MODE_ACCELERATED = new AllowableValue("Accelerated", "Accelerated",
+			"Frames are paced by their timestamps, sped up by the speed-up factor.");
+
+	/** Processor property. */
+	public static final PropertyDescriptor VIDEO_SOURCE = new PropertyDescriptor.Builder().name("Video source")
+			.description("Specifies a video file, or a directory whose files are replayed in name order")
+			.required(true).addValidator(StandardValidators.FILE_EXISTS_VALIDATOR)
+			.addValidator(new Validator() {
+
+				@Override
+				public ValidationResult validate(final String aSubject, final String aInput,
+						final ValidationContext aContext) {
+					return new ValidationResult.Builder().subject(aSubject).input(aInput)
+							.valid(!listVideos(aInput).isEmpty()).explanation("contains no video files").build();
+				}
+			}).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor REPLAY_MODE = new PropertyDescriptor.Builder().name("Replay mode")
+			.description("Specifies how fast frames are replayed")
+			.allowableValues(MODE_FAST, MODE_REAL_TIME, MODE_ACCELERATED).defaultValue(MODE_REAL_TIME.getValue())
+			.required(true).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor SPEED_FACTOR = new PropertyDescriptor.Builder().name("Speed-up factor")
+			.description("Specifies how many times faster than real time frames are replayed in accelerated mode")
+			.defaultValue("2").required(true)
+			.addValidator(DetectFaces.createNumberValidator(value -> value > 0, "must be a positive number"))
+			.build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor FRAME_STEP = new PropertyDescriptor.Builder().name("Frame step")
+			.description("Specifies that only every Nth decoded frame is transferred, 1 for all frames")
+			.defaultValue("1").required(true).addValidator(StandardValidators.POSITIVE_INTEGER_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor KEY_FRAMES_ONLY = new PropertyDescriptor.Builder()
+			.name("Key frames only")
+			.description("Specifies whether only key frames are decoded, before the frame step is applied")
+			.allowableValues(new HashSet<String>(Arrays.asList("true", "false"))).defaultValue("false").required(true)
+			.addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
+	/** Processor property. */
+	public static final PropertyDescriptor LOOP = new PropertyDescriptor.Builder().name("Loop")
+			.description("Specifies whether the video source is replayed again from the start when it ends")
+			.allowableValues(new HashSet<String>(Arrays.asList("true", "false"))).defaultValue("true").required(true)
+			.addValidator(StandardValidators.BOOLEAN_VALIDATOR).build();
+
+	/** Background replay thread. */
+	private volatile ReplayThread replay;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void init(final ProcessorInitializationContext aContext) {
+
+		super.init(aContext);
+
+		final Set<Relationship> procRels = new HashSet<>();
+		procRels.add(REL_SUCCESS);
+		setRelationships(Collections.unmodifiableSet(procRels));
+
+		final List<PropertyDescriptor> supDescriptors = new ArrayList<>();
+		supDescriptors.add(VIDEO_SOURCE);
+		supDescriptors.add(REPLAY_MODE);
+		supDescriptors.add(SPEED_FACTOR);
+		supDescriptors.add(FRAME_STEP);
+		supDescriptors.add(KEY_FRAMES_ONLY);
+		supDescriptors.add(LOOP);
+		supDescriptors.add(CaptureVideo.BUFFER_SIZE);
+		supDescriptors.add(FRAME_FORMAT);
+		supDescriptors.add(SAVE_IMAGES);
+		supDescriptors.add(DEBUG_IMAGE_DIR);
+		supDescriptors.add(DEBUG_IMAGE_SAMPLE_RATE);
+		supDescriptors.add(DEBUG_IMAGE_QUEUE_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_SIZE);
+		supDescriptors.add(DEBUG_IMAGE_MAX_AGE);
+		supDescriptors.add(BENCHMARKING_DIR);
+		supDescriptors.add(BENCHMARK_FORMAT);
+		supDescriptors.add(BENCHMARK_BUFFER_SIZE);
+		supDescriptors.add(LATENCY_REPORT_INTERVAL);
+		supDescriptors.add(LATENCY_SLA);
+		setProperties(Collections.unmodifiableList(supDescriptors));
+
+		getLogger().info("Initialision complete!");
+	}
+
+	/**
+	 * Starts the background replay thread.
+	 *
+	 * @param aContext process context
+	 * @throws ProcessException if there are no video files to replay
+	 */
+	@OnScheduled
+	public void startReplay(final ProcessContext aContext) {
+
+		List<File> files = listVideos(aContext.getProperty(VIDEO_SOURCE).getValue());
+		if (files.isEmpty()) {
+			throw new ProcessException("No video files found in " + aContext.getProperty(VIDEO_SOURCE).getValue());
+		}
+
+		replay = new ReplayThread(files,
+				new FrameRingBuffer<Frame>(aContext.getProperty(CaptureVideo.BUFFER_SIZE).asInteger()),
+				getSpeed(aContext), aContext.getProperty(FRAME_STEP).asInteger(),
+				aContext.getProperty(KEY_FRAMES_ONLY).asBoolean(), aContext.getProperty(LOOP).asBoolean(),
+				getLogger());
+		replay.start();
+	}
+
+	/**
+	 * Stops the background replay thread.
+	 */
+	@OnStopped
+	public void stopReplay() {
+
+		if (null != replay) {
+			replay.shutdown();
+			getLogger().info("Replay stopped. Delivered frames: " + replay.getBuffer().getDelivered()
+					+ ", dropped frames: " + replay.getBuffer().getDropped());
+			replay = null;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onTrigger(final ProcessContext aContext, final ProcessSession aSession) throws ProcessException {
+
+		super.onTrigger(aContext, aSession);
+
+		if (null == replay) {
+			aContext.yield();
+			return;
+		}
+
+		Frame frame = replay.getBuffer().poll();
+		if (null == frame) {
+			aContext.yield();
+			return;
+		}
+		long start = StageMetrics.nowMicros();
+
+		try {
+
+			transferFrame(aContext, aSession, frame, start);
+			aSession.commit();
+
+		} catch (IOException e) {
+			getLogger().error("Something went wrong with saving the file!", e);
+		}
+
+	}
+
+	/**
+	 * Lists the video files of a source.
+	 *
+	 * @param aSource video file or directory
+	 * @return the file itself, or the files of the directory in name order
+	 */
+	static List<File> listVideos(final String aSource) {
+
+		File source = new File(aSource);
+		if (!source.isDirectory()) {
+			return source.isFile() ? Collections.singletonList(source) : Collections.<File>emptyList();
+		}
+
+		File[] files = source.listFiles(File::isFile);
+		if (null == files) {
+			return Collections.<File>emptyList();
+		}
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+
+	/**
+	 * Reads the replay speed of a processor.
+	 *
+	 * @param aContext process context
+	 * @return speed relative to real time, 0 for as fast as possible
+	 */
+	private static double getSpeed(final ProcessContext aContext) {
+
+		String mode = aContext.getProperty(REPLAY_MODE).getValue();
+		if (MODE_FAST.getValue().equals(mode)) {
+			return 0;
+		}
+		if (MODE_ACCELERATED.getValue().equals(mode)) {
+			return Double.parseDouble(aContext.getProperty(SPEED_FACTOR).getValue());
+		}
+		return 1;
+	}
+}
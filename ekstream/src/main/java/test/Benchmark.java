@@ -1,10 +1,5 @@
 package test;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 
 public class Benchmark {
@@ -13,18 +8,7 @@ public class Benchmark {
 
 	public static void main(String[] args) throws IOException {
 
-		BufferedReader br1 = new BufferedReader(new FileReader(FILENAME));
-
-		String sCurrentLine;
-
-		while ((sCurrentLine = br1.readLine()) != null) {
-
-			String[] output = sCurrentLine.split(";");
-
-			Double delay = Double.parseDouble(output[3]) - Double.parseDouble(output[1]);
-			System.out.println(delay * 10);
-
-		}
+		BenchmarkAnalyzer.main(args.length > 0 ? args : new String[] { "--ready", FILENAME });
 
 	}
 
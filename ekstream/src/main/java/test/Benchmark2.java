@@ -1,10 +1,5 @@
 package test;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 
 public class Benchmark2 {
@@ -17,33 +12,8 @@ public class Benchmark2 {
 
 	public static void main(String[] args) throws IOException {
 
-		BufferedReader br1 = new BufferedReader(new FileReader(DETECTION_FILENAME));
-
-		BufferedReader br2 = new BufferedReader(new FileReader(RECOGNITION_FILENAME));
-
-		Object[] lines = br2.lines().toArray();
-
-		String sCurrentLine;
-
-		while ((sCurrentLine = br1.readLine()) != null) {
-
-			String[] output1 = sCurrentLine.split(";");
-
-			for (Object str : lines) {
-
-				String[] output2 = str.toString().split(";");
-
-				if (output1[0].equalsIgnoreCase(output2[0])) {
-					// System.out.println(output1[0]);
-					// System.out.println(output2[0]);
-					// System.out.println("Detection: " + output1[1]);
-					// System.out.println("Recognition: " + output2[1]);
-					Double delay = Double.parseDouble(output2[1]) - Double.parseDouble(output1[1]);
-					System.out.println(delay);
-				}
-			}
-
-		}
+		BenchmarkAnalyzer.main(args.length > 0 ? args
+				: new String[] { "--detection", DETECTION_FILENAME, "--recognition", RECOGNITION_FILENAME });
 
 	}
 
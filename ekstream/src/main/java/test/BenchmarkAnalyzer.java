@@ -0,0 +1,443 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import utils.BenchmarkLogger;
+import utils.LatencyHistogram;
+
+/**
+ * Streams the benchmarking logs of a pipeline and reports latency
+ * percentiles, stage breakdowns and a per-second throughput timeline.
+ *
+ * Detection and recognition logs ("uuid;ms") are hash-joined on the frame
+ * UUID while all logs are merged in timestamp order. Detections are only kept
+ * for a sliding window, so memory stays bounded however long the logs are.
+ * The "-ready" log of RecogniseFaces ("uuid;capture;detect;recognise")
+ * carries all stage timestamps of a face and needs no join. Both the text and
+ * the binary format of {@link BenchmarkLogger} are read.
+ *
+ * Usage: BenchmarkAnalyzer [--detection file] [--recognition file]
+ * [--ready file] [--window seconds] [--timeline file]
+ */
+public class BenchmarkAnalyzer {
+
+	/** Default join window, in seconds. */
+	private static final long DEFAULT_WINDOW = 60;
+
+	/** Percentiles to report. */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	/**
+	 * A single log record.
+	 */
+	static final class Record {
+
+		/** Flow file UUID. */
+		private final String id;
+
+		/** Timestamps, in ms. */
+		private final long[] values;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param aId     flow file UUID
+		 * @param aValues timestamps, in ms
+		 */
+		Record(final String aId, final long[] aValues) {
+			id = aId;
+			values = aValues;
+		}
+
+		/**
+		 * Getter.
+		 *
+		 * @return the last timestamp, which orders the record
+		 */
+		long time() {
+			return values[values.length - 1];
+		}
+	}
+
+	/**
+	 * A sequential reader of a benchmarking log in either format.
+	 */
+	static final class LogReader implements Closeable {
+
+		/** Binary input, or null for text logs. */
+		private final DataInputStream binary;
+
+		/** Text input, or null for binary logs. */
+		private final BufferedReader text;
+
+		/** Next record, or null at the end of the log. */
+		private Record next;
+
+		/** Number of malformed records. */
+		private long malformed;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param aPath log file
+		 * @throws IOException exception
+		 */
+		LogReader(final String aPath) throws IOException {
+
+			BufferedInputStream in = new BufferedInputStream(new FileInputStream(aPath), 1 << 16);
+			in.mark(4);
+			DataInputStream data = new DataInputStream(in);
+			boolean isBinary;
+			try {
+				isBinary = data.readInt() == BenchmarkLogger.MAGIC;
+			} catch (EOFException e) {
+				isBinary = false;
+			}
+			if (isBinary) {
+				binary = data;
+				text = null;
+			} else {
+				in.reset();
+				binary = null;
+				text = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+			}
+			advance();
+		}
+
+		/**
+		 * Getter.
+		 *
+		 * @return next record without consuming it, or null at the end
+		 */
+		Record peek() {
+			return next;
+		}
+
+		/**
+		 * Consumes the next record.
+		 *
+		 * @return next record, or null at the end
+		 * @throws IOException exception
+		 */
+		Record poll() throws IOException {
+			Record current = next;
+			advance();
+			return current;
+		}
+
+		/**
+		 * Reads the next well-formed record.
+		 *
+		 * @throws IOException exception
+		 */
+		private void advance() throws IOException {
+
+			next = null;
+			if (null != binary) {
+				try {
+					String id = new UUID(binary.readLong(), binary.readLong()).toString();
+					long[] values = new long[binary.readUnsignedByte()];
+					for (int i = 0; i < values.length; i++) {
+						values[i] = binary.readLong();
+					}
+					next = values.length > 0 ? new Record(id, values) : null;
+				} catch (EOFException e) {
+					next = null;
+				}
+				return;
+			}
+
+			String line;
+			while (null != (line = text.readLine())) {
+				String[] fields = line.split(";");
+				if (fields.length < 2) {
+					malformed++;
+					continue;
+				}
+				try {
+					long[] values = new long[fields.length - 1];
+					for (int i = 1; i < fields.length; i++) {
+						values[i - 1] = Long.parseLong(fields[i].trim());
+					}
+					next = new Record(fields[0], values);
+					return;
+				} catch (NumberFormatException e) {
+					malformed++;
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (null != binary) {
+				binary.close();
+			} else {
+				text.close();
+			}
+		}
+	}
+
+	/** Log kinds. */
+	private static final int DETECTION = 0, RECOGNITION = 1, READY = 2;
+
+	/** Latency histograms, in ms, by metric name. */
+	private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+	/** Pending detections by frame UUID, in arrival order. */
+	private final LinkedHashMap<String, Long> detections = new LinkedHashMap<>();
+
+	/** Throughput per second, by second: detections, recognitions, ready faces. */
+	private final TreeMap<Long, long[]> timeline = new TreeMap<>();
+
+	/** Join window, in ms. */
+	private final long window;
+
+	/** Timeline output. */
+	private final PrintStream timelineOut;
+
+	/** Latest timestamp seen, in ms. */
+	private long watermark = Long.MIN_VALUE;
+
+	/** First timeline second which has not been printed yet. */
+	private long unflushed = Long.MIN_VALUE;
+
+	/** Counters. */
+	private long joined, unmatched, expired, late;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param aWindow      join window, in ms
+	 * @param aTimelineOut timeline output
+	 */
+	BenchmarkAnalyzer(final long aWindow, final PrintStream aTimelineOut) {
+		window = aWindow;
+		timelineOut = aTimelineOut;
+		for (String metric : new String[] { "detection-to-recognition", "capture-to-detection",
+				"detection-to-recognition (ready)", "capture-to-recognition (ready)" }) {
+			histograms.put(metric, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * @param aArgs command line arguments
+	 * @throws IOException exception
+	 */
+	public static void main(final String[] aArgs) throws IOException {
+
+		String[] paths = new String[3];
+		long window = DEFAULT_WINDOW;
+		String timelinePath = null;
+
+		for (int i = 0; i + 1 < aArgs.length; i += 2) {
+			switch (aArgs[i]) {
+			case "--detection":
+				paths[DETECTION] = aArgs[i + 1];
+				break;
+			case "--recognition":
+				paths[RECOGNITION] = aArgs[i + 1];
+				break;
+			case "--ready":
+				paths[READY] = aArgs[i + 1];
+				break;
+			case "--window":
+				window = Long.parseLong(aArgs[i + 1]);
+				break;
+			case "--timeline":
+				timelinePath = aArgs[i + 1];
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + aArgs[i]);
+			}
+		}
+
+		if (null == paths[DETECTION] && null == paths[RECOGNITION] && null == paths[READY]) {
+			System.out.println("Usage: BenchmarkAnalyzer [--detection file] [--recognition file] [--ready file] "
+					+ "[--window seconds] [--timeline file]");
+			return;
+		}
+
+		try (PrintStream timelineOut = null == timelinePath ? null : new PrintStream(timelinePath, "US-ASCII")) {
+			BenchmarkAnalyzer analyzer = new BenchmarkAnalyzer(window * 1000L,
+					null == timelineOut ? System.out : timelineOut);
+			analyzer.run(paths);
+			analyzer.printSummary(System.out);
+		}
+	}
+
+	/**
+	 * Merges the logs in timestamp order and analyses every record.
+	 *
+	 * @param aPaths log files by kind, null entries for missing logs
+	 * @throws IOException exception
+	 */
+	void run(final String[] aPaths) throws IOException {
+
+		List<LogReader> readers = new ArrayList<>();
+		try {
+			for (String path : aPaths) {
+				readers.add(null == path ? null : new LogReader(path));
+			}
+
+			timelineOut.println("second;detections;recognitions;ready");
+			while (true) {
+				int kind = -1;
+				for (int i = 0; i < readers.size(); i++) {
+					LogReader reader = readers.get(i);
+					if (null != reader && null != reader.peek()
+							&& (kind < 0 || reader.peek().time() < readers.get(kind).peek().time())) {
+						kind = i;
+					}
+				}
+				if (kind < 0) {
+					break;
+				}
+				process(kind, readers.get(kind).poll());
+			}
+			flushTimeline(Long.MAX_VALUE);
+
+			for (int i = 0; i < readers.size(); i++) {
+				if (null != readers.get(i) && readers.get(i).malformed > 0) {
+					System.out.println("Skipped malformed lines in " + aPaths[i] + ": " + readers.get(i).malformed);
+				}
+			}
+		} finally {
+			for (LogReader reader : readers) {
+				if (null != reader) {
+					reader.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Analyses a single record.
+	 *
+	 * @param aKind   log kind
+	 * @param aRecord record
+	 */
+	private void process(final int aKind, final Record aRecord) {
+
+		long time = aRecord.time();
+		watermark = Math.max(watermark, time);
+
+		long second = time / 1000L;
+		if (second < unflushed) {
+			late++;
+		} else {
+			timeline.computeIfAbsent(second, k -> new long[3])[aKind]++;
+		}
+
+		switch (aKind) {
+		case DETECTION:
+			// several faces of a frame share its UUID, keep the first detection
+			detections.putIfAbsent(aRecord.id, time);
+			break;
+		case RECOGNITION:
+			Long detected = detections.get(aRecord.id);
+			if (null == detected) {
+				unmatched++;
+			} else {
+				joined++;
+				record("detection-to-recognition", time - detected);
+			}
+			break;
+		default:
+			long[] v = aRecord.values;
+			if (v.length >= 3) {
+				if (v[0] >= 0 && v[1] >= 0) {
+					record("capture-to-detection", v[1] - v[0]);
+				}
+				if (v[1] >= 0) {
+					record("detection-to-recognition (ready)", v[2] - v[1]);
+				}
+				if (v[0] >= 0) {
+					record("capture-to-recognition (ready)", v[2] - v[0]);
+				}
+			}
+		}
+
+		// evict detections which have fallen out of the join window
+		Iterator<Long> it = detections.values().iterator();
+		while (it.hasNext()) {
+			if (watermark - it.next() <= window) {
+				break;
+			}
+			it.remove();
+			expired++;
+		}
+
+		flushTimeline(watermark - window);
+	}
+
+	/**
+	 * Records a latency.
+	 *
+	 * @param aMetric metric name
+	 * @param aMillis latency, in ms
+	 */
+	private void record(final String aMetric, final long aMillis) {
+		histograms.get(aMetric).record(aMillis);
+	}
+
+	/**
+	 * Prints and forgets the timeline seconds before a given time.
+	 *
+	 * @param aBefore time, in ms
+	 */
+	private void flushTimeline(final long aBefore) {
+
+		long before = aBefore / 1000L;
+		while (!timeline.isEmpty() && timeline.firstKey() < before) {
+			Map.Entry<Long, long[]> e = timeline.pollFirstEntry();
+			timelineOut.println(e.getKey() + ";" + e.getValue()[DETECTION] + ";" + e.getValue()[RECOGNITION] + ";"
+					+ e.getValue()[READY]);
+		}
+		unflushed = Math.max(unflushed, before);
+	}
+
+	/**
+	 * Prints the latency percentiles and join statistics.
+	 *
+	 * @param aOut output
+	 */
+	void printSummary(final PrintStream aOut) {
+
+		aOut.println("Joined recognitions: " + joined + ", without detection: " + unmatched
+				+ ", detections expired from the join window: " + expired + ", late records: " + late);
+
+		StringBuilder header = new StringBuilder("metric;count");
+		for (double p : PERCENTILES) {
+			header.append(";p").append(p == Math.rint(p) ? String.valueOf((long) p) : String.valueOf(p));
+		}
+		aOut.println(header.append(";max (ms)"));
+
+		for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+			LatencyHistogram.Snapshot s = e.getValue().reset();
+			if (s.getCount() == 0) {
+				continue;
+			}
+			StringBuilder line = new StringBuilder(e.getKey()).append(';').append(s.getCount());
+			for (double p : PERCENTILES) {
+				line.append(';').append(s.getValueAtPercentile(p));
+			}
+			aOut.println(line.append(';').append(s.getMax()));
+		}
+	}
+}
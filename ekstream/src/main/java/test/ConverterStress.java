@@ -0,0 +1,171 @@
+package test;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+import utils.Utils;
+
+/**
+ * Stress-tests the {@link Utils} conversions from concurrent threads. Every
+ * thread keeps round-tripping distinct images through PNG and through a mat
+ * and compares the pixels to the original, while the conversion throughput
+ * (conversions/sec) is measured as the number of threads grows from 1 to N.
+ * Any corrupted conversion is counted as an error.
+ *
+ * Usage: ConverterStress [max threads] [seconds per step] [width] [height]
+ */
+public class ConverterStress {
+
+	/** Number of distinct images. */
+	private static final int IMAGES = 8;
+
+	/**
+	 * @param aArgs command line arguments
+	 * @throws InterruptedException exception
+	 */
+	public static void main(final String[] aArgs) throws InterruptedException {
+
+		int maxThreads = aArgs.length > 0 ? Integer.parseInt(aArgs[0]) : Runtime.getRuntime().availableProcessors();
+		long seconds = aArgs.length > 1 ? Long.parseLong(aArgs[1]) : 5;
+		int width = aArgs.length > 2 ? Integer.parseInt(aArgs[2]) : 320;
+		int height = aArgs.length > 3 ? Integer.parseInt(aArgs[3]) : 240;
+
+		IplImage[] images = new IplImage[IMAGES];
+		long[] checksums = new long[IMAGES];
+		for (int i = 0; i < IMAGES; i++) {
+			images[i] = syntheticFrame(width, height, i);
+			checksums[i] = checksum(images[i]);
+		}
+
+		// warm up
+		for (int i = 0; i < IMAGES; i++) {
+			roundTrip(images[i], checksums[i]);
+		}
+
+		System.out.println("threads;conversions/sec;speed-up;errors");
+
+		double baseline = 0;
+		long totalErrors = 0;
+		for (int threads = 1; threads <= maxThreads; threads++) {
+
+			AtomicLong conversions = new AtomicLong();
+			AtomicLong errors = new AtomicLong();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			for (int t = 0; t < threads; t++) {
+				final int offset = t;
+				executor.execute(() -> {
+					for (int i = offset; System.nanoTime() < deadline; i++) {
+						int index = i % IMAGES;
+						if (!roundTrip(images[index], checksums[index])) {
+							errors.incrementAndGet();
+						}
+						conversions.incrementAndGet();
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+
+			double rate = conversions.get() / (double) seconds;
+			if (threads == 1) {
+				baseline = rate;
+			}
+			totalErrors += errors.get();
+			System.out.println(threads + ";" + String.format("%.2f", rate) + ";"
+					+ String.format("%.2f", rate / baseline) + ";" + errors.get());
+		}
+
+		for (IplImage image : images) {
+			opencv_core.cvReleaseImage(image);
+		}
+
+		if (totalErrors > 0) {
+			System.out.println("FAILED: " + totalErrors + " corrupted conversions");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	/**
+	 * Converts an image to PNG and back, and to a mat, and checks the pixels.
+	 *
+	 * @param aImage    original image
+	 * @param aChecksum checksum of the original pixels
+	 * @return true if both conversions preserved the pixels
+	 */
+	private static boolean roundTrip(final IplImage aImage, final long aChecksum) {
+
+		try {
+			byte[] png = Utils.getInstance().convertToByteArray(aImage);
+			IplImage decoded = Utils.getInstance().convertToImage(png);
+			if (checksum(decoded) != aChecksum) {
+				return false;
+			}
+
+			Mat mat = Utils.getInstance().convertToMat(aImage);
+			return checksum(mat.data(), mat.cols() * mat.channels(), mat.rows(), (int) mat.step()) == aChecksum;
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Computes a checksum of the pixels of an image, ignoring row padding.
+	 *
+	 * @param aImage image
+	 * @return checksum
+	 */
+	private static long checksum(final IplImage aImage) {
+		return checksum(aImage.imageData(), aImage.width() * aImage.nChannels(), aImage.height(),
+				aImage.widthStep());
+	}
+
+	/**
+	 * Computes a checksum of pixel rows.
+	 *
+	 * @param aData   pixels
+	 * @param aRow    bytes per row, without padding
+	 * @param aHeight number of rows
+	 * @param aStride bytes per row, with padding
+	 * @return checksum
+	 */
+	private static long checksum(final BytePointer aData, final int aRow, final int aHeight, final int aStride) {
+
+		CRC32 crc = new CRC32();
+		byte[] row = new byte[aRow];
+		for (int y = 0; y < aHeight; y++) {
+			aData.position((long) y * aStride).get(row);
+			crc.update(row);
+		}
+		aData.position(0);
+		return crc.getValue();
+	}
+
+	/**
+	 * Creates a colour frame filled with random noise.
+	 *
+	 * @param aWidth  frame width
+	 * @param aHeight frame height
+	 * @param aSeed   random seed
+	 * @return frame
+	 */
+	private static IplImage syntheticFrame(final int aWidth, final int aHeight, final long aSeed) {
+
+		IplImage image = opencv_core.cvCreateImage(opencv_core.cvSize(aWidth, aHeight), opencv_core.IPL_DEPTH_8U, 3);
+		byte[] pixels = new byte[image.imageSize()];
+		new Random(aSeed).nextBytes(pixels);
+		image.imageData().put(pixels, 0, pixels.length);
+		return image;
+	}
+}
@@ -0,0 +1,123 @@
+package test;
+
+import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_DO_CANNY_PRUNING;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_imgcodecs;
+import org.bytedeco.javacpp.presets.opencv_objdetect;
+
+import utils.DetectionSettings;
+import utils.FaceDetectorPool;
+
+/**
+ * Measures face detection throughput (frames/sec) of a detector pool as the
+ * number of concurrent tasks grows from 1 to N.
+ *
+ * Usage: DetectionScaling [cascade file] [max tasks] [seconds per step] [image]
+ */
+public class DetectionScaling {
+
+	/** Bundled cascade file. */
+	private static final String CASCADE_RESOURCE = "/haarcascade_frontalface_default.xml";
+
+	/** Scale factor for face detection. */
+	private static final double SCALE_FACTOR = 1.5;
+
+	/** Neighbors for face detection. */
+	private static final int MIN_NEIGHBOURS = 3;
+
+	/**
+	 * @param aArgs command line arguments
+	 * @throws IOException          exception
+	 * @throws InterruptedException exception
+	 */
+	public static void main(final String[] aArgs) throws IOException, InterruptedException {
+
+		Loader.load(opencv_objdetect.class);
+
+		String cascade = aArgs.length > 0 ? aArgs[0] : extractCascade();
+		int maxTasks = aArgs.length > 1 ? Integer.parseInt(aArgs[1]) : Runtime.getRuntime().availableProcessors();
+		long seconds = aArgs.length > 2 ? Long.parseLong(aArgs[2]) : 5;
+		IplImage image = aArgs.length > 3 ? opencv_imgcodecs.cvLoadImage(aArgs[3]) : syntheticFrame(640, 480);
+
+		DetectionSettings settings = new DetectionSettings(cascade, SCALE_FACTOR, MIN_NEIGHBOURS,
+				CV_HAAR_DO_CANNY_PRUNING, 0, 0, 0);
+
+		System.out.println("tasks;frames/sec;speed-up");
+
+		double baseline = 0;
+		for (int tasks = 1; tasks <= maxTasks; tasks++) {
+
+			FaceDetectorPool pool = new FaceDetectorPool(tasks, settings);
+
+			// warm up
+			pool.detect(image);
+
+			AtomicLong frames = new AtomicLong();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+			ExecutorService executor = Executors.newFixedThreadPool(tasks);
+			for (int i = 0; i < tasks; i++) {
+				executor.execute(() -> {
+					while (System.nanoTime() < deadline) {
+						pool.detect(image);
+						frames.incrementAndGet();
+					}
+				});
+			}
+			executor.shutdown();
+			executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+			pool.release();
+
+			double fps = frames.get() / (double) seconds;
+			if (tasks == 1) {
+				baseline = fps;
+			}
+			System.out.println(tasks + ";" + String.format("%.2f", fps) + ";" + String.format("%.2f", fps / baseline));
+		}
+	}
+
+	/**
+	 * Copies the bundled cascade file to a temporary file.
+	 *
+	 * @return path to the cascade file
+	 * @throws IOException exception
+	 */
+	static String extractCascade() throws IOException {
+
+		File file = File.createTempFile("haarcascade", ".xml");
+		file.deleteOnExit();
+		try (InputStream in = DetectionScaling.class.getResourceAsStream(CASCADE_RESOURCE)) {
+			Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return file.getAbsolutePath();
+	}
+
+	/**
+	 * Creates a colour frame filled with random noise.
+	 *
+	 * @param aWidth  frame width
+	 * @param aHeight frame height
+	 * @return frame
+	 */
+	static IplImage syntheticFrame(final int aWidth, final int aHeight) {
+
+		IplImage image = opencv_core.cvCreateImage(opencv_core.cvSize(aWidth, aHeight), opencv_core.IPL_DEPTH_8U, 3);
+		byte[] pixels = new byte[image.imageSize()];
+		new Random(42).nextBytes(pixels);
+		image.imageData().put(pixels, 0, pixels.length);
+		return image;
+	}
+}
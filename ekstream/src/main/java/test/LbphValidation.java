@@ -0,0 +1,233 @@
+package test;
+
+import static org.bytedeco.javacpp.opencv_core.CV_32SC1;
+import static org.bytedeco.javacpp.opencv_core.CV_8UC1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.MatVector;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.bytedeco.javacpp.opencv_face;
+
+import processors.RecogniseFaces;
+import utils.JavaLbphEngine;
+import utils.OpenCvEngine;
+import utils.RecognizerEngine;
+
+/**
+ * Checks that the pure-Java LBPH engine predicts the same labels and
+ * distances as the native OpenCV recognizer, that both read each other's
+ * model files, and compares their prediction throughput (predictions/sec).
+ * Every other image is held out of training and predicted, so that distances
+ * are not 0. Exits with 1 on a mismatch.
+ *
+ * Usage: LbphValidation [training folder] [image width] [image height]
+ */
+public class LbphValidation {
+
+	/** Relative tolerance of distance comparisons. */
+	private static final double TOLERANCE = 1e-4;
+
+	/** Number of synthetic people if there is no training folder. */
+	private static final int PEOPLE = 20;
+
+	/** Number of synthetic images per person. */
+	private static final int IMAGES_PER_PERSON = 10;
+
+	/** Number of prediction rounds of the throughput measurement. */
+	private static final int ROUNDS = 20;
+
+	/**
+	 * @param aArgs command line arguments
+	 * @throws IOException exception
+	 */
+	public static void main(final String[] aArgs) throws IOException {
+
+		Size size = new Size(aArgs.length > 1 ? Integer.parseInt(aArgs[1]) : 92,
+				aArgs.length > 2 ? Integer.parseInt(aArgs[2]) : 112);
+
+		MatVector images;
+		Mat labels;
+		if (aArgs.length > 0) {
+			File[] imageFiles = RecogniseFaces.listImages(aArgs[0]);
+			images = new MatVector(imageFiles.length);
+			labels = new Mat(imageFiles.length, 1, CV_32SC1);
+			RecogniseFaces.readTrainingSet(imageFiles, size, images, labels);
+		} else {
+			images = new MatVector(PEOPLE * IMAGES_PER_PERSON);
+			labels = new Mat(PEOPLE * IMAGES_PER_PERSON, 1, CV_32SC1);
+			syntheticFaces(size, images, labels);
+		}
+
+		// hold out every other image of each person
+		int total = (int) images.size();
+		MatVector train = new MatVector((total + 1) / 2);
+		Mat trainLabels = new Mat((total + 1) / 2, 1, CV_32SC1);
+		MatVector queries = new MatVector(total / 2);
+		IntBuffer source = labels.createBuffer();
+		IntBuffer target = trainLabels.createBuffer();
+		for (int i = 0; i < total; i++) {
+			if (i % 2 == 0) {
+				train.put(i / 2, images.get(i));
+				target.put(i / 2, source.get(i));
+			} else {
+				queries.put(i / 2, images.get(i));
+			}
+		}
+
+		RecognizerEngine reference = new OpenCvEngine(opencv_face.createLBPHFaceRecognizer());
+		RecognizerEngine heap = new JavaLbphEngine();
+		RecognizerEngine offHeap = new JavaLbphEngine(JavaLbphEngine.RADIUS, JavaLbphEngine.NEIGHBORS,
+				JavaLbphEngine.GRID_X, JavaLbphEngine.GRID_Y, true);
+
+		reference.train(train, trainLabels);
+		heap.train(train, trainLabels);
+		offHeap.train(train, trainLabels);
+
+		int mismatches = compare("Java LBPH (heap)", reference, heap, queries)
+				+ compare("Java LBPH (off-heap)", reference, offHeap, queries);
+
+		// each engine loads the model saved by the other one
+		File nativeModel = File.createTempFile("lbph-native", ".yml");
+		File javaModel = File.createTempFile("lbph-java", ".yml");
+		nativeModel.deleteOnExit();
+		javaModel.deleteOnExit();
+		reference.save(nativeModel.getAbsolutePath());
+		heap.save(javaModel.getAbsolutePath());
+
+		RecognizerEngine javaFromNative = new JavaLbphEngine();
+		javaFromNative.load(nativeModel.getAbsolutePath());
+		RecognizerEngine nativeFromJava = new OpenCvEngine(opencv_face.createLBPHFaceRecognizer());
+		nativeFromJava.load(javaModel.getAbsolutePath());
+		mismatches += compare("Java LBPH loaded from a native model", reference, javaFromNative, queries)
+				+ compare("native LBPH loaded from a Java model", reference, nativeFromJava, queries);
+
+		System.out.println("engine;predictions/sec");
+		System.out.println("OpenCV LBPH;" + String.format("%.1f", throughput(reference, queries)));
+		System.out.println("Java LBPH (heap);" + String.format("%.1f", throughput(heap, queries)));
+		System.out.println("Java LBPH (off-heap);" + String.format("%.1f", throughput(offHeap, queries)));
+
+		reference.release();
+		heap.release();
+		offHeap.release();
+		javaFromNative.release();
+		nativeFromJava.release();
+
+		if (mismatches > 0) {
+			System.out.println(mismatches + " mismatching predictions");
+			System.exit(1);
+		}
+		System.out.println("All " + queries.size() + " predictions match");
+	}
+
+	/**
+	 * Compares the predictions of an engine with the reference ones.
+	 *
+	 * @param aName     engine name
+	 * @param aExpected reference engine
+	 * @param aActual   engine under test
+	 * @param aQueries  faces to predict
+	 * @return number of mismatching predictions
+	 */
+	private static int compare(final String aName, final RecognizerEngine aExpected, final RecognizerEngine aActual,
+			final MatVector aQueries) {
+
+		int[] expectedLabel = new int[1];
+		double[] expectedDistance = new double[1];
+		int[] actualLabel = new int[1];
+		double[] actualDistance = new double[1];
+
+		int mismatches = 0;
+		for (int i = 0; i < aQueries.size(); i++) {
+			aExpected.predict(aQueries.get(i), expectedLabel, expectedDistance);
+			aActual.predict(aQueries.get(i), actualLabel, actualDistance);
+
+			double error = Math.abs(expectedDistance[0] - actualDistance[0])
+					/ Math.max(Math.abs(expectedDistance[0]), Double.MIN_NORMAL);
+			if (expectedLabel[0] != actualLabel[0] || error > TOLERANCE) {
+				System.out.println(aName + ": face " + i + " expected " + expectedLabel[0] + " ("
+						+ expectedDistance[0] + ") but got " + actualLabel[0] + " (" + actualDistance[0] + ")");
+				mismatches++;
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * Measures the prediction throughput of an engine on a single thread.
+	 *
+	 * @param aEngine  trained engine
+	 * @param aQueries faces to predict
+	 * @return predictions/sec
+	 */
+	private static double throughput(final RecognizerEngine aEngine, final MatVector aQueries) {
+
+		int[] label = new int[1];
+		double[] distance = new double[1];
+
+		// warm up
+		for (int i = 0; i < aQueries.size(); i++) {
+			aEngine.predict(aQueries.get(i), label, distance);
+		}
+
+		long start = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int i = 0; i < aQueries.size(); i++) {
+				aEngine.predict(aQueries.get(i), label, distance);
+			}
+		}
+		return ROUNDS * aQueries.size() / ((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Creates grayscale faces of several people: every person has a random
+	 * pattern of blobs, and every image of a person adds noise to it.
+	 *
+	 * @param aSize   image size
+	 * @param aImages images, filled by index
+	 * @param aLabels labels, filled by index
+	 */
+	static void syntheticFaces(final Size aSize, final MatVector aImages, final Mat aLabels) {
+
+		Random random = new Random(42);
+		IntBuffer labels = aLabels.createBuffer();
+		int width = aSize.width();
+		int height = aSize.height();
+
+		for (int person = 0; person < PEOPLE; person++) {
+
+			byte[] face = new byte[width * height];
+			for (int blob = 0; blob < 12; blob++) {
+				int cx = random.nextInt(width);
+				int cy = random.nextInt(height);
+				int r = 4 + random.nextInt(12);
+				int shade = random.nextInt(256);
+				for (int y = Math.max(0, cy - r); y < Math.min(height, cy + r); y++) {
+					for (int x = Math.max(0, cx - r); x < Math.min(width, cx + r); x++) {
+						if ((x - cx) * (x - cx) + (y - cy) * (y - cy) < r * r) {
+							face[y * width + x] = (byte) shade;
+						}
+					}
+				}
+			}
+
+			for (int k = 0; k < IMAGES_PER_PERSON; k++) {
+				byte[] pixels = new byte[face.length];
+				for (int p = 0; p < face.length; p++) {
+					int value = (face[p] & 0xFF) + random.nextInt(31) - 15;
+					pixels[p] = (byte) Math.max(0, Math.min(255, value));
+				}
+				Mat image = new Mat(height, width, CV_8UC1);
+				image.data().put(pixels);
+
+				int index = person * IMAGES_PER_PERSON + k;
+				aImages.put(index, image);
+				labels.put(index, person);
+			}
+		}
+	}
+}
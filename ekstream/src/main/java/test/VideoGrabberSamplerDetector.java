@@ -1,7 +1,6 @@
 package test;
 
 import static org.bytedeco.javacpp.helper.opencv_objdetect.cvHaarDetectObjects;
-import static org.bytedeco.javacpp.opencv_core.CV_32SC1;
 import static org.bytedeco.javacpp.opencv_core.cvClearMemStorage;
 import static org.bytedeco.javacpp.opencv_core.cvGetSeqElem;
 import static org.bytedeco.javacpp.opencv_core.cvLoad;
@@ -9,17 +8,13 @@ import static org.bytedeco.javacpp.opencv_objdetect.CV_HAAR_DO_CANNY_PRUNING;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
 
 import javax.imageio.ImageIO;
 
 import org.bytedeco.javacpp.Loader;
 import org.bytedeco.javacpp.opencv_core;
-import org.bytedeco.javacpp.opencv_face;
 import org.bytedeco.javacpp.opencv_imgcodecs;
 import org.bytedeco.javacpp.helper.opencv_core.AbstractCvMemStorage;
 import org.bytedeco.javacpp.opencv_core.CvMemStorage;
@@ -27,8 +22,7 @@ import org.bytedeco.javacpp.opencv_core.CvRect;
 import org.bytedeco.javacpp.opencv_core.CvSeq;
 import org.bytedeco.javacpp.opencv_core.IplImage;
 import org.bytedeco.javacpp.opencv_core.Mat;
-import org.bytedeco.javacpp.opencv_core.MatVector;
-import org.bytedeco.javacpp.opencv_face.FaceRecognizer;
+import org.bytedeco.javacpp.opencv_core.Size;
 import org.bytedeco.javacpp.opencv_objdetect.CvHaarClassifierCascade;
 import org.bytedeco.javacpp.presets.opencv_objdetect;
 import org.bytedeco.javacv.Frame;
@@ -36,6 +30,9 @@ import org.bytedeco.javacv.FrameGrabber;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 
+import processors.RecogniseFaces;
+import utils.ImagePool;
+import utils.RecognizerEngine;
 import utils.Utils;
 
 import org.bytedeco.javacv.FrameGrabber.Exception;
@@ -65,7 +62,10 @@ public class VideoGrabberSamplerDetector {
 	private static Java2DFrameConverter flatConverter;
 
 	/** Face recognizer. */
-	private static FaceRecognizer faceRecognizer;
+	private static RecognizerEngine faceRecognizer;
+
+	/** Buffers of the cropped and resized faces. */
+	private static final ImagePool POOL = new ImagePool();
 
 	/**
 	 * @param aArgs
@@ -102,7 +102,7 @@ public class VideoGrabberSamplerDetector {
 					opencv_imgcodecs.cvSaveImage(System.currentTimeMillis() + "-detected.png", face);
 				}
 
-				ArrayList<IplImage> resizedFaces = Utils.getInstance().resizeImages(faces, 92, 112);
+				ArrayList<IplImage> resizedFaces = Utils.getInstance().resizeImages(faces, 92, 112, POOL);
 
 				// now transfer the cropped images forward
 				for (IplImage face : resizedFaces) {
@@ -119,6 +119,14 @@ public class VideoGrabberSamplerDetector {
 					System.out.println("Predicted label: " + plabel[0] + " & Confidence: " + pconfidence[0]);
 
 				}
+
+				for (IplImage face : resizedFaces) {
+					POOL.release(face);
+				}
+			}
+
+			for (IplImage face : faces) {
+				POOL.release(face);
 			}
 
 			Thread.currentThread();
@@ -134,7 +142,7 @@ public class VideoGrabberSamplerDetector {
 	 * Detects faces in an input image.
 	 *
 	 * @param aImage input image
-	 * @return an array of detected faces as images
+	 * @return an array of detected faces as images, to be released to the pool
 	 */
 	public static ArrayList<IplImage> detect(final IplImage aImage) {
 
@@ -151,7 +159,7 @@ public class VideoGrabberSamplerDetector {
 			// cvPoint(r.width() + r.x(), r.height() + r.y()),
 			// AbstractCvScalar.RED, 2, LINE_AA, 0);
 
-			IplImage image = Utils.getInstance().cropImage(aImage, r);
+			IplImage image = Utils.getInstance().cropImage(aImage, r, POOL);
 			result.add(image);
 		}
 
@@ -167,45 +175,8 @@ public class VideoGrabberSamplerDetector {
 	 */
 	public static void train(final String aTrainingDir, final String aAlgorithm) {
 
-		File root = new File(aTrainingDir);
-
-		FilenameFilter imgFilter = new FilenameFilter() {
-			@Override
-			public boolean accept(final File aDir, final String aName) {
-				String name = aName.toLowerCase();
-				return name.endsWith(".jpg") || name.endsWith(".pgm") || name.endsWith(".png");
-			}
-		};
-
-		File[] imageFiles = root.listFiles(imgFilter);
-
-		MatVector images = new MatVector(imageFiles.length);
-
-		Mat labels = new Mat(imageFiles.length, 1, CV_32SC1);
-		IntBuffer labelsBuf = labels.createBuffer();
-
-		for (int i = 0; i < imageFiles.length; i++) {
-
-			Mat img = opencv_imgcodecs.imread(imageFiles[i].getAbsolutePath(),
-					opencv_imgcodecs.CV_LOAD_IMAGE_GRAYSCALE);
-
-			int label = Integer.parseInt(imageFiles[i].getName().split("\\-")[0]);
-			images.put(i, img);
-			labelsBuf.put(i, label);
-		}
-
-		switch (aAlgorithm) {
-		case "Fisher":
-			faceRecognizer = opencv_face.createFisherFaceRecognizer();
-		case "Eigen":
-			faceRecognizer = opencv_face.createEigenFaceRecognizer();
-		case "LBPH":
-			faceRecognizer = opencv_face.createLBPHFaceRecognizer();
-		default:
-			faceRecognizer = opencv_face.createFisherFaceRecognizer();
-		}
-
-		faceRecognizer.train(images, labels);
+		faceRecognizer = RecogniseFaces.train(RecogniseFaces.listImages(aTrainingDir), aAlgorithm,
+				new Size(92, 112));
 	}
 
 }
@@ -0,0 +1,113 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * A bounded pool of worker threads, one per core by default, which runs a
+ * processing step for every item of a micro-batch in parallel and waits for
+ * all of them. Several concurrent tasks of a processor may share the pool.
+ */
+public final class BatchWorkers {
+
+    /**
+     * A processing step, run for each item of a batch.
+     *
+     * @param <T> item type
+     */
+    @FunctionalInterface
+    public interface Step<T> {
+
+        /**
+         * Processes an item.
+         *
+         * @param aItem item of the batch
+         * @throws IOException exception
+         */
+        void run(T aItem) throws IOException;
+    }
+
+    /** Worker threads. */
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor, with one worker per available core.
+     */
+    public BatchWorkers() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aParallelism number of workers
+     */
+    public BatchWorkers(final int aParallelism) {
+        pool = new ForkJoinPool(Math.max(1, aParallelism));
+    }
+
+    /**
+     * Runs a step for every item of a batch and waits for all of them. Items
+     * may be processed in any order; writes made by the step are visible to
+     * the caller afterwards.
+     *
+     * @param aItems items of the batch
+     * @param aStep step to run
+     * @param <T> item type
+     * @throws IOException the first exception thrown by the step, or if
+     *             interrupted while waiting
+     */
+    public <T> void forEach(final List<T> aItems, final Step<T> aStep) throws IOException {
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(aItems.size());
+        for (T item : aItems) {
+            tasks.add(() -> {
+                aStep.run(item);
+                return null;
+            });
+        }
+
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing a batch");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of workers
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Stops the workers once the running batches are done.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
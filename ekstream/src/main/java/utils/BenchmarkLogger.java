@@ -0,0 +1,308 @@
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.nifi.logging.ComponentLog;
+
+/**
+ * An asynchronous benchmark logger. Processor threads append timestamp
+ * records to a bounded lock-free ring buffer without ever touching the disk,
+ * and a single background thread writes them out in batches. Records which do
+ * not fit into a full buffer are dropped and counted.
+ *
+ * Records are written either as text lines "id;value;value..." or, in the
+ * binary format, as the two halves of the flow file UUID, the number of
+ * values and the values, all big-endian, behind a {@link #MAGIC} header.
+ */
+public final class BenchmarkLogger {
+
+    /** Binary file header: "EKBL". */
+    public static final int MAGIC = 0x454B424C;
+
+    /** Maximum number of values per record. */
+    public static final int MAX_VALUES = 8;
+
+    /** Write buffer size, in bytes. */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /** Time the writer sleeps when the ring buffer is empty, in ms. */
+    private static final long IDLE_PARK = 1;
+
+    /** Time to wait for the writer to drain the buffer on close, in seconds. */
+    private static final int CLOSE_TIMEOUT = 10;
+
+    /** Record identifiers, usually flow file UUIDs. */
+    private final String[] ids;
+
+    /** Record values, {@link #MAX_VALUES} per slot. */
+    private final long[] values;
+
+    /** Number of values of each record. */
+    private final int[] counts;
+
+    /**
+     * Slot sequence numbers: a slot is free for the producer claiming position
+     * p when its sequence is p, and readable once it is p + 1.
+     */
+    private final AtomicLongArray sequences;
+
+    /** Index mask, the capacity being a power of two. */
+    private final int mask;
+
+    /** Next position to be claimed by a producer. */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Next position to be read by the writer thread. */
+    private long head;
+
+    /** Number of dropped records. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Number of written records. */
+    private final AtomicLong written = new AtomicLong();
+
+    /** Whether records are written in the binary format. */
+    private final boolean binary;
+
+    /** Output stream. */
+    private final DataOutputStream out;
+
+    /** Processor logger. */
+    private final ComponentLog logger;
+
+    /** Background writer thread. */
+    private final Thread writer;
+
+    /** Whether the writer thread should keep running. */
+    private volatile boolean running = true;
+
+    /**
+     * Constructor. Opens the file in append mode and starts the writer thread.
+     *
+     * @param aPath log file
+     * @param aCapacity ring buffer capacity, rounded up to a power of two
+     * @param aBinary true for the binary record format
+     * @param aLogger processor logger
+     * @throws IOException if the file cannot be opened
+     */
+    public BenchmarkLogger(final String aPath, final int aCapacity, final boolean aBinary,
+            final ComponentLog aLogger) throws IOException {
+        this(aPath, aCapacity, aBinary, aLogger, true);
+    }
+
+    /**
+     * Constructor. Opens the file in append mode.
+     *
+     * @param aPath log file
+     * @param aCapacity ring buffer capacity, rounded up to a power of two
+     * @param aBinary true for the binary record format
+     * @param aLogger processor logger
+     * @param aStart whether to start the writer thread; otherwise records are
+     *        only written by calling {@link #drain()}, e.g. from tests
+     * @throws IOException if the file cannot be opened
+     */
+    BenchmarkLogger(final String aPath, final int aCapacity, final boolean aBinary,
+            final ComponentLog aLogger, final boolean aStart) throws IOException {
+
+        int capacity = Integer.highestOneBit(Math.max(2, aCapacity) - 1) << 1;
+        ids = new String[capacity];
+        values = new long[capacity * MAX_VALUES];
+        counts = new int[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+
+        binary = aBinary;
+        logger = aLogger;
+
+        boolean exists = new File(aPath).length() > 0;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aPath, true), WRITE_BUFFER_SIZE));
+        if (binary && !exists) {
+            out.writeInt(MAGIC);
+        }
+
+        writer = new Thread(this::drainLoop, "benchmark-logger");
+        writer.setDaemon(true);
+        if (aStart) {
+            writer.start();
+        }
+    }
+
+    /**
+     * Appends a record without blocking. The record is dropped if the buffer
+     * is full.
+     *
+     * @param aId record identifier, usually a flow file UUID
+     * @param aValues record values, usually timestamps
+     * @return false if the record has been dropped
+     */
+    public boolean log(final String aId, final long... aValues) {
+
+        if (!running) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        long position;
+        while (true) {
+            position = tail.get();
+            long available = sequences.get((int) position & mask) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (available < 0) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+
+        int slot = (int) position & mask;
+        int count = Math.min(aValues.length, MAX_VALUES);
+        ids[slot] = aId;
+        counts[slot] = count;
+        System.arraycopy(aValues, 0, values, slot * MAX_VALUES, count);
+        sequences.lazySet(slot, position + 1);
+        return true;
+    }
+
+    /**
+     * Writes records until the logger is closed, flushing whenever the buffer
+     * runs empty.
+     */
+    private void drainLoop() {
+
+        try {
+            while (running) {
+                if (drain() == 0) {
+                    out.flush();
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(IDLE_PARK));
+                }
+            }
+            drain();
+            out.flush();
+        } catch (IOException e) {
+            logger.error("Could not write benchmarking results!", e);
+        }
+    }
+
+    /**
+     * Writes all readable records. Only called by the writer thread, or
+     * instead of it if it has not been started.
+     *
+     * @return number of written records
+     * @throws IOException exception
+     */
+    int drain() throws IOException {
+
+        int n = 0;
+        while (true) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+
+            write(ids[slot], slot * MAX_VALUES, counts[slot]);
+            ids[slot] = null;
+            sequences.lazySet(slot, head + mask + 1);
+            head++;
+            n++;
+        }
+        written.addAndGet(n);
+        return n;
+    }
+
+    /**
+     * Writes a single record.
+     *
+     * @param aId record identifier
+     * @param aOffset offset of the record values
+     * @param aCount number of record values
+     * @throws IOException exception
+     */
+    private void write(final String aId, final int aOffset, final int aCount) throws IOException {
+
+        if (binary) {
+            UUID uuid = toUuid(aId);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+            out.writeByte(aCount);
+            for (int i = 0; i < aCount; i++) {
+                out.writeLong(values[aOffset + i]);
+            }
+            return;
+        }
+
+        StringBuilder line = new StringBuilder(String.valueOf(aId));
+        for (int i = 0; i < aCount; i++) {
+            line.append(';').append(values[aOffset + i]);
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Parses a record identifier as a UUID for the binary format.
+     *
+     * @param aId record identifier
+     * @return UUID, or the nil UUID if the identifier is not one
+     */
+    private static UUID toUuid(final String aId) {
+        try {
+            return UUID.fromString(aId);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return new UUID(0, 0);
+        }
+    }
+
+    /**
+     * Stops the writer thread once all buffered records have been written, and
+     * closes the file.
+     */
+    public void close() {
+
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.error("Could not close the benchmarking file!", e);
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of records dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of written records
+     */
+    public long getWritten() {
+        return written.get();
+    }
+}
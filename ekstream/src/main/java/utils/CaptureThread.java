@@ -0,0 +1,234 @@
+package utils;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.FrameGrabber.Exception;
+
+/**
+ * A long-lived background thread which keeps a frame grabber open and feeds
+ * sampled frames into a ring buffer. The thread is a virtual thread if asked
+ * for and supported by the JVM, and a daemon platform thread otherwise. While
+ * the grabber returns no frames, e.g. at the end of a stream or while a camera
+ * is unplugged, it is polled with an exponentially growing delay, and while it
+ * fails, it is restarted with the same delay.
+ */
+public final class CaptureThread implements FrameSource, Runnable {
+
+    /** First delay after the grabber returned no frame, in ms. */
+    private static final long MIN_RETRY_DELAY = 10;
+
+    /** Longest delay between two polls of a grabber returning no frames, in ms. */
+    private static final long MAX_RETRY_DELAY = 1000;
+
+    /** Longest wait for the capture loop to stop, in ms. */
+    private static final long SHUTDOWN_TIMEOUT = 5000;
+
+    /** Thread running the capture loop. */
+    private final Thread thread;
+
+    /** Frame grabber owned by this thread. */
+    private final FrameGrabber grabber;
+
+    /** Buffer receiving captured frames. */
+    private final FrameRingBuffer<Frame> buffer;
+
+    /** Minimum interval between two buffered frames, in ms. */
+    private volatile long interval;
+
+    /** Logger of the owning processor. */
+    private final ComponentLog logger;
+
+    /** Running flag. */
+    private volatile boolean running = true;
+
+    /** Whether the grabber has been failing or returning no frames for the longest retry delay. */
+    private volatile boolean stalled;
+
+    /**
+     * Constructor.
+     *
+     * @param aGrabber frame grabber, not yet started
+     * @param aBuffer destination buffer
+     * @param aInterval minimum interval between buffered frames, in ms
+     * @param aLogger logger of the owning processor
+     */
+    public CaptureThread(final FrameGrabber aGrabber, final FrameRingBuffer<Frame> aBuffer,
+            final long aInterval, final ComponentLog aLogger) {
+        this(aGrabber, aBuffer, aInterval, "ekstream-capture", false, aLogger);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aGrabber frame grabber, not yet started
+     * @param aBuffer destination buffer
+     * @param aInterval minimum interval between buffered frames, in ms
+     * @param aName thread name
+     * @param aVirtual whether to capture on a virtual thread, if supported
+     * @param aLogger logger of the owning processor
+     */
+    public CaptureThread(final FrameGrabber aGrabber, final FrameRingBuffer<Frame> aBuffer,
+            final long aInterval, final String aName, final boolean aVirtual, final ComponentLog aLogger) {
+        grabber = aGrabber;
+        buffer = aBuffer;
+        interval = aInterval;
+        logger = aLogger;
+        thread = VirtualThreads.newThread(this, aName, aVirtual);
+    }
+
+    /**
+     * Opens the grabber, so that a camera which cannot be opened fails the
+     * caller, and then starts the capture loop.
+     *
+     * @throws Exception if the grabber cannot be opened
+     */
+    @Override
+    public void start() throws Exception {
+        try {
+            grabber.start();
+        } catch (Exception e) {
+            try {
+                grabber.release();
+            } catch (Exception r) {
+                e.addSuppressed(r);
+            }
+            throw e;
+        }
+        thread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+
+        long lastFrame = 0;
+        long retryDelay = 0;
+
+        try {
+            while (running) {
+
+                // keep grabbing so that the device never serves stale frames
+                Frame frame;
+                try {
+                    frame = grabber.grab();
+                } catch (Exception e) {
+                    if (0 == retryDelay) {
+                        logger.error("Something went wrong with the video capture, restarting the video grabber!",
+                                e);
+                    }
+                    retryDelay = Math.min(MAX_RETRY_DELAY, Math.max(MIN_RETRY_DELAY, 2 * retryDelay));
+                    stalled = MAX_RETRY_DELAY == retryDelay;
+                    Thread.sleep(retryDelay);
+                    restart();
+                    continue;
+                }
+                if (null == frame) {
+                    if (0 == retryDelay) {
+                        logger.warn("The video grabber returned no frame, polling it less often until it does");
+                    }
+                    retryDelay = Math.min(MAX_RETRY_DELAY, Math.max(MIN_RETRY_DELAY, 2 * retryDelay));
+                    stalled = MAX_RETRY_DELAY == retryDelay;
+                    Thread.sleep(retryDelay);
+                    continue;
+                }
+                if (retryDelay > 0) {
+                    logger.info("The video grabber returns frames again");
+                    retryDelay = 0;
+                    stalled = false;
+                }
+                if (null == frame.image) {
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastFrame >= interval) {
+                    // the grabber reuses its frame, so buffer a copy stamped
+                    // with the wall-clock capture time, in microseconds
+                    Frame copy = frame.clone();
+                    copy.timestamp = StageMetrics.nowMicros();
+                    buffer.offer(copy);
+                    lastFrame = now;
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped while waiting for the grabber
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception e) {
+                logger.error("Something went wrong with stopping the video grabber!", e);
+            }
+        }
+    }
+
+    /**
+     * Restarts a failing grabber. A grabber which cannot be restarted yet is
+     * tried again after the next failed grab.
+     */
+    private void restart() {
+        try {
+            grabber.restart();
+        } catch (Exception e) {
+            logger.debug("The video grabber could not be restarted yet", e);
+        }
+    }
+
+    /**
+     * Stops capturing and waits for the grabber to be released, unless it is
+     * stuck in a native call for longer than the shutdown timeout.
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warn("The video capture did not stop within " + SHUTDOWN_TIMEOUT
+                    + " ms, leaving it to release the grabber");
+        }
+        buffer.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCapturing() {
+        return thread.isAlive() && !stalled;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return minimum interval between buffered frames, in ms
+     */
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Changes the sampling rate while capturing, taking effect from the next
+     * grabbed frame.
+     *
+     * @param aInterval minimum interval between buffered frames, in ms
+     */
+    public void setInterval(final long aInterval) {
+        interval = aInterval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FrameRingBuffer<Frame> getBuffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,358 @@
+package utils;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_imgcodecs;
+import org.bytedeco.javacv.Frame;
+
+/**
+ * Writes interim debug images in the background. Only one in N submitted
+ * images is kept; it is copied on the caller's thread and queued for a single
+ * writer thread, or dropped if the queue is full, so processors never wait
+ * for disk I/O. Every file name gets a unique sequence number, so that
+ * images submitted within the same millisecond do not overwrite each other.
+ * Every writer owns a subfolder of the target directory, named after its
+ * processor, so that processors sharing a target directory never adopt or
+ * delete the images of each other. The images in the subfolder, including
+ * those left by an earlier writer of the same processor, are deleted again,
+ * oldest first, once they exceed a total size or a maximum age.
+ */
+public final class DebugImageWriter {
+
+    /** Time to wait for the queue to drain on close, in seconds. */
+    private static final int CLOSE_TIMEOUT = 10;
+
+    /**
+     * A queued image.
+     */
+    private static final class Job {
+
+        /** Destination file. */
+        private final File file;
+
+        /** Private copy of the image. */
+        private final Mat image;
+
+        /**
+         * Constructor.
+         *
+         * @param aFile destination file
+         * @param aImage private copy of the image
+         */
+        private Job(final File aFile, final Mat aImage) {
+            file = aFile;
+            image = aImage;
+        }
+    }
+
+    /**
+     * An image in the target directory.
+     */
+    private static final class Written {
+
+        /** Image file. */
+        private final File file;
+
+        /** Size of the file when it was written or found, in bytes. */
+        private final long length;
+
+        /** Modification time of the file when it was written or found, in ms. */
+        private final long modified;
+
+        /**
+         * Constructor.
+         *
+         * @param aFile image file, which exists
+         */
+        private Written(final File aFile) {
+            file = aFile;
+            length = aFile.length();
+            modified = aFile.lastModified();
+        }
+    }
+
+    /** Subfolder of the target directory owned by this writer. */
+    private final File directory;
+
+    /** Every how many submitted images one is written. */
+    private final int sampleRate;
+
+    /** Maximum total size of the written images, in bytes. */
+    private final long maxBytes;
+
+    /** Maximum age of the written images, in ms. */
+    private final long maxAge;
+
+    /** Queued images. */
+    private final BlockingQueue<Job> queue;
+
+    /** Images in the subfolder, oldest first. Accessed by the writer thread only. */
+    private final Deque<Written> written = new ArrayDeque<Written>();
+
+    /** Total size of the images in the subfolder. Accessed by the writer thread only. */
+    private long writtenBytes;
+
+    /** Number of submitted images. */
+    private final AtomicLong submitted = new AtomicLong();
+
+    /** Number of images dropped because the queue was full. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Number of images deleted by the retention policy. */
+    private final AtomicLong deleted = new AtomicLong();
+
+    /** Processor logger. */
+    private final ComponentLog logger;
+
+    /** Background writer thread. */
+    private final Thread writer;
+
+    /** Whether the writer thread should keep running. */
+    private volatile boolean running = true;
+
+    /**
+     * Constructor. Creates the subfolder and starts the writer thread, which
+     * first takes stock of the images already in the subfolder.
+     *
+     * @param aDirectory target directory
+     * @param aOwner identifier of the writing processor, naming its subfolder
+     * @param aSampleRate every how many submitted images one is written
+     * @param aQueueSize maximum number of queued images
+     * @param aMaxBytes maximum total size of the written images, in bytes
+     * @param aMaxAge maximum age of the written images, in ms
+     * @param aLogger processor logger
+     */
+    public DebugImageWriter(final String aDirectory, final String aOwner, final int aSampleRate,
+            final int aQueueSize, final long aMaxBytes, final long aMaxAge, final ComponentLog aLogger) {
+
+        directory = new File(aDirectory, aOwner);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Could not create the debug image folder: " + directory);
+        }
+        sampleRate = Math.max(1, aSampleRate);
+        queue = new ArrayBlockingQueue<Job>(Math.max(1, aQueueSize));
+        maxBytes = aMaxBytes;
+        maxAge = aMaxAge;
+        logger = aLogger;
+
+        writer = new Thread(this::writeLoop, "debug-image-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Submits an image. If it is sampled, a copy is queued for writing.
+     *
+     * @param aName file name within the subfolder
+     * @param aImage image, which may be reused by the caller afterwards
+     */
+    public void submit(final String aName, final IplImage aImage) {
+        long index = sample();
+        if (index >= 0) {
+            enqueue(aName, index, opencv_core.cvarrToMat(aImage).clone());
+        }
+    }
+
+    /**
+     * Submits a frame. Only if it is sampled, it is converted and a copy is
+     * queued for writing.
+     *
+     * @param aName file name within the subfolder
+     * @param aFrame frame, which may be reused by the caller afterwards
+     */
+    public void submit(final String aName, final Frame aFrame) {
+        long index = sample();
+        if (index >= 0) {
+            enqueue(aName, index, opencv_core.cvarrToMat(Utils.getInstance().convertToImage(aFrame)).clone());
+        }
+    }
+
+    /**
+     * Submits an image. If it is sampled, a copy is queued for writing.
+     *
+     * @param aName file name within the subfolder
+     * @param aImage image, which may be reused by the caller afterwards
+     */
+    public void submit(final String aName, final Mat aImage) {
+        long index = sample();
+        if (index >= 0) {
+            enqueue(aName, index, aImage.clone());
+        }
+    }
+
+    /**
+     * Counts a submitted image and decides whether it is written.
+     *
+     * @return sequence number of the image if it is one of the one in
+     *         {@link #sampleRate} images written, otherwise -1
+     */
+    private long sample() {
+        if (!running) {
+            return -1;
+        }
+        long index = submitted.getAndIncrement();
+        return index % sampleRate == 0 ? index : -1;
+    }
+
+    /**
+     * Queues a copy of an image, or drops it if the queue is full.
+     *
+     * @param aName file name
+     * @param aIndex sequence number of the image, appended to the file name
+     * @param aCopy private copy of the image
+     */
+    private void enqueue(final String aName, final long aIndex, final Mat aCopy) {
+        if (!queue.offer(new Job(new File(directory, uniqueName(aName, aIndex)), aCopy))) {
+            aCopy.deallocate();
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Appends a sequence number to a file name, before its extension, which
+     * selects the image format.
+     *
+     * @param aName file name, e.g. "1500000000000-received.png"
+     * @param aIndex sequence number
+     * @return unique file name, e.g. "1500000000000-received-42.png"
+     */
+    static String uniqueName(final String aName, final long aIndex) {
+        int dot = aName.lastIndexOf('.');
+        return dot < 0 ? aName + "-" + aIndex : aName.substring(0, dot) + "-" + aIndex + aName.substring(dot);
+    }
+
+    /**
+     * Takes stock of the images left in the subfolder, e.g. before a restart,
+     * so that the retention policy covers them too. Files other than images
+     * are left alone.
+     */
+    private void scanDirectory() {
+
+        File[] files = directory.listFiles(aFile -> aFile.isFile()
+                && aFile.getName().toLowerCase().matches(".*\\.(png|jpe?g|bmp|pgm)"));
+        if (null == files) {
+            return;
+        }
+        Written[] found = new Written[files.length];
+        for (int i = 0; i < files.length; i++) {
+            found[i] = new Written(files[i]);
+        }
+        Arrays.sort(found, Comparator.comparingLong(aWritten -> aWritten.modified));
+        for (Written file : found) {
+            written.addLast(file);
+            writtenBytes += file.length;
+        }
+    }
+
+    /**
+     * Writes queued images until the writer is closed.
+     */
+    private void writeLoop() {
+
+        scanDirectory();
+        enforceRetention();
+
+        while (running || !queue.isEmpty()) {
+            Job job;
+            try {
+                job = queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            if (null != job) {
+                try {
+                    opencv_imgcodecs.imwrite(job.file.getPath(), job.image);
+                    Written file = new Written(job.file);
+                    written.addLast(file);
+                    writtenBytes += file.length;
+                } catch (RuntimeException e) {
+                    logger.error("Could not save the debug image " + job.file, e);
+                } finally {
+                    job.image.deallocate();
+                }
+            }
+
+            enforceRetention();
+        }
+    }
+
+    /**
+     * Deletes the oldest written images while they are too large in total or
+     * too old. Sizes and ages are the ones recorded when the images were
+     * written, so that the total stays right if a file went missing meanwhile.
+     */
+    private void enforceRetention() {
+
+        long now = System.currentTimeMillis();
+        while (!written.isEmpty()) {
+            Written oldest = written.peekFirst();
+            if (writtenBytes <= maxBytes && now - oldest.modified <= maxAge) {
+                break;
+            }
+            written.removeFirst();
+            writtenBytes -= oldest.length;
+            if (oldest.file.delete()) {
+                deleted.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining queued images and stops the writer thread.
+     */
+    public void close() {
+
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Job job;
+        while (null != (job = queue.poll())) {
+            job.image.deallocate();
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of submitted images
+     */
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of images dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of images deleted by the retention policy
+     */
+    public long getDeleted() {
+        return deleted.get();
+    }
+}
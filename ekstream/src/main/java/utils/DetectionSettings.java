@@ -0,0 +1,113 @@
+package utils;
+
+/**
+ * Immutable face detection parameters shared by all detectors of a pool.
+ */
+public final class DetectionSettings {
+
+    /** Cascade file. */
+    private final String cascadeFile;
+
+    /** Scale factor for face detection. */
+    private final double scaleFactor;
+
+    /** Neighbours for face detection. */
+    private final int minNeighbours;
+
+    /** Detection flags. */
+    private final int flags;
+
+    /** Minimum face size in full-resolution pixels, 0 for no limit. */
+    private final int minFaceSize;
+
+    /** Maximum face size in full-resolution pixels, 0 for no limit. */
+    private final int maxFaceSize;
+
+    /** Width frames are downscaled to before detection, 0 for full resolution. */
+    private final int detectionWidth;
+
+    /**
+     * Constructor.
+     *
+     * @param aCascadeFile cascade file
+     * @param aScaleFactor scale factor for face detection
+     * @param aMinNeighbours neighbours for face detection
+     * @param aFlags detection flags
+     * @param aMinFaceSize minimum face size in full-resolution pixels, 0 for no limit
+     * @param aMaxFaceSize maximum face size in full-resolution pixels, 0 for no limit
+     * @param aDetectionWidth width frames are downscaled to, 0 for full resolution
+     */
+    public DetectionSettings(final String aCascadeFile, final double aScaleFactor, final int aMinNeighbours,
+            final int aFlags, final int aMinFaceSize, final int aMaxFaceSize, final int aDetectionWidth) {
+        cascadeFile = aCascadeFile;
+        scaleFactor = aScaleFactor;
+        minNeighbours = aMinNeighbours;
+        flags = aFlags;
+        minFaceSize = aMinFaceSize;
+        maxFaceSize = aMaxFaceSize;
+        detectionWidth = aDetectionWidth;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return cascade file
+     */
+    public String getCascadeFile() {
+        return cascadeFile;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return scale factor
+     */
+    public double getScaleFactor() {
+        return scaleFactor;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return minimum neighbours
+     */
+    public int getMinNeighbours() {
+        return minNeighbours;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return detection flags
+     */
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return minimum face size, 0 for no limit
+     */
+    public int getMinFaceSize() {
+        return minFaceSize;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return maximum face size, 0 for no limit
+     */
+    public int getMaxFaceSize() {
+        return maxFaceSize;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return detection width, 0 for full resolution
+     */
+    public int getDetectionWidth() {
+        return detectionWidth;
+    }
+}
@@ -0,0 +1,113 @@
+package utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Container format packing all faces detected in one frame into a single flow
+ * file. The container starts with a big-endian header and an offset index,
+ * followed by the encoded faces (raw frames or PNG images) back to back:
+ *
+ * <pre>
+ * magic(4) count(4) [offset(4) length(4)] * count faces...
+ * </pre>
+ *
+ * Offsets are counted from the beginning of the container.
+ */
+public final class FaceBatchCodec {
+
+    /** Magic number, "EKFB". */
+    public static final int MAGIC = 0x454B4642;
+
+    /** MIME type of face containers. */
+    public static final String MIME_TYPE = "application/x-ekstream-faces";
+
+    /** Length of the fixed part of the header in bytes. */
+    private static final int HEADER_LENGTH = 8;
+
+    /** Length of a single index entry in bytes. */
+    private static final int ENTRY_LENGTH = 8;
+
+    /**
+     * Constructor.
+     */
+    private FaceBatchCodec() {
+    }
+
+    /**
+     * Checks whether a byte array holds a face container.
+     *
+     * @param aBytes encoded bytes
+     * @return true if the array starts with a container header
+     */
+    public static boolean isBatch(final byte[] aBytes) {
+        return aBytes.length >= HEADER_LENGTH && ByteBuffer.wrap(aBytes).getInt(0) == MAGIC;
+    }
+
+    /**
+     * Packs encoded faces into a container.
+     *
+     * @param aFaces encoded faces
+     * @return container
+     */
+    public static byte[] encode(final List<byte[]> aFaces) {
+
+        int offset = HEADER_LENGTH + ENTRY_LENGTH * aFaces.size();
+        int length = offset;
+        for (byte[] face : aFaces) {
+            length += face.length;
+        }
+
+        byte[] result = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        buffer.putInt(MAGIC).putInt(aFaces.size());
+        for (byte[] face : aFaces) {
+            buffer.putInt(offset).putInt(face.length);
+            offset += face.length;
+        }
+        for (byte[] face : aFaces) {
+            buffer.put(face);
+        }
+
+        return result;
+    }
+
+    /**
+     * Unpacks the encoded faces of a container.
+     *
+     * @param aBytes container
+     * @return encoded faces, in detection order
+     * @throws IllegalArgumentException if the array is not a face container,
+     *         or its index points outside of it
+     */
+    public static List<byte[]> decode(final byte[] aBytes) {
+
+        if (!isBatch(aBytes)) {
+            throw new IllegalArgumentException("Not a face container!");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(aBytes);
+        buffer.position(Integer.BYTES);
+        int count = buffer.getInt();
+        long indexEnd = HEADER_LENGTH + (long) ENTRY_LENGTH * count;
+        if (count < 0 || indexEnd > aBytes.length) {
+            throw new IllegalArgumentException("Truncated face container index: " + count + " faces in "
+                    + aBytes.length + " bytes");
+        }
+
+        List<byte[]> result = new ArrayList<byte[]>(count);
+        for (int i = 0; i < count; i++) {
+            int offset = buffer.getInt();
+            int length = buffer.getInt();
+            if (offset < indexEnd || length < 0 || (long) offset + length > aBytes.length) {
+                throw new IllegalArgumentException("Face " + i + " at " + offset + " (" + length
+                        + " bytes) is outside of the face container of " + aBytes.length + " bytes");
+            }
+            result.add(Arrays.copyOfRange(aBytes, offset, offset + length));
+        }
+
+        return result;
+    }
+}
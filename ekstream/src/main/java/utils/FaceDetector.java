@@ -0,0 +1,135 @@
+package utils;
+
+import java.util.ArrayList;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Rect;
+import org.bytedeco.javacpp.opencv_core.RectVector;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.bytedeco.javacpp.opencv_imgproc;
+import org.bytedeco.javacpp.opencv_objdetect.CascadeClassifier;
+
+/**
+ * A Haar cascade face detector together with its reusable scratch buffers.
+ * Detection optionally runs on a downscaled grayscale copy of the frame, and
+ * the resulting rectangles are mapped back to full-resolution coordinates.
+ * Instances are not thread-safe and are meant to be used by one thread at a
+ * time, see {@link FaceDetectorPool}.
+ */
+public final class FaceDetector {
+
+    /** Cascade classifier. */
+    private final CascadeClassifier classifier;
+
+    /** Detection parameters. */
+    private final DetectionSettings settings;
+
+    /** Reusable downscaled copy of the input image. */
+    private final Mat small = new Mat();
+
+    /** Reusable grayscale copy of the input image. */
+    private final Mat gray = new Mat();
+
+    /** Reusable detection results. */
+    private final RectVector faces = new RectVector();
+
+    /** Reusable size of the downscaled image. */
+    private final Size smallSize = new Size();
+
+    /** Minimum face size at detection resolution, empty for no limit. */
+    private final Size minSize = new Size();
+
+    /** Maximum face size at detection resolution, empty for no limit. */
+    private final Size maxSize = new Size();
+
+    /**
+     * Constructor.
+     *
+     * @param aSettings detection parameters
+     */
+    public FaceDetector(final DetectionSettings aSettings) {
+
+        classifier = new CascadeClassifier();
+        if (!classifier.load(aSettings.getCascadeFile())) {
+            throw new IllegalArgumentException("Could not load the cascade file: " + aSettings.getCascadeFile());
+        }
+        settings = aSettings;
+    }
+
+    /**
+     * Locates faces in an input image.
+     *
+     * @param aImage input image
+     * @return an array of bounding boxes of detected faces, in full-resolution
+     *         coordinates
+     */
+    public ArrayList<CvRect> detect(final IplImage aImage) {
+
+        Mat image = opencv_core.cvarrToMat(aImage);
+
+        // downscale first, so that the colour conversion touches fewer pixels
+        double scale = 1;
+        if (settings.getDetectionWidth() > 0 && image.cols() > settings.getDetectionWidth()) {
+            scale = image.cols() / (double) settings.getDetectionWidth();
+            smallSize.width(settings.getDetectionWidth()).height((int) Math.round(image.rows() / scale));
+            opencv_imgproc.resize(image, small, smallSize, 0, 0, opencv_imgproc.INTER_AREA);
+            image = small;
+        }
+
+        if (image.channels() != 1) {
+            opencv_imgproc.cvtColor(image, gray, opencv_imgproc.COLOR_BGR2GRAY);
+            image = gray;
+        }
+
+        int min = (int) Math.round(settings.getMinFaceSize() / scale);
+        int max = (int) Math.round(settings.getMaxFaceSize() / scale);
+        minSize.width(min).height(min);
+        maxSize.width(max).height(max);
+
+        classifier.detectMultiScale(image, faces, settings.getScaleFactor(), settings.getMinNeighbours(),
+                settings.getFlags(), minSize, maxSize);
+
+        ArrayList<CvRect> result = new ArrayList<CvRect>((int) faces.size());
+        for (long i = 0; i < faces.size(); i++) {
+            result.add(remap(faces.get(i), scale, aImage.width(), aImage.height()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Maps a rectangle found at detection resolution back onto the full
+     * resolution frame, clamped to the frame bounds.
+     *
+     * @param aRect rectangle at detection resolution
+     * @param aScale downscaling factor
+     * @param aWidth frame width
+     * @param aHeight frame height
+     * @return rectangle at full resolution
+     */
+    static CvRect remap(final Rect aRect, final double aScale, final int aWidth, final int aHeight) {
+
+        int x = Math.min(Math.max(0, (int) Math.round(aRect.x() * aScale)), aWidth - 1);
+        int y = Math.min(Math.max(0, (int) Math.round(aRect.y() * aScale)), aHeight - 1);
+        int w = Math.max(1, Math.min((int) Math.round(aRect.width() * aScale), aWidth - x));
+        int h = Math.max(1, Math.min((int) Math.round(aRect.height() * aScale), aHeight - y));
+
+        return new CvRect(x, y, w, h);
+    }
+
+    /**
+     * Releases the native resources of this detector.
+     */
+    public void release() {
+        classifier.deallocate();
+        small.deallocate();
+        gray.deallocate();
+        faces.deallocate();
+        smallSize.deallocate();
+        minSize.deallocate();
+        maxSize.deallocate();
+    }
+}
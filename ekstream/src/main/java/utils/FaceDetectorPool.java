@@ -0,0 +1,85 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+
+/**
+ * A fixed-size pool of face detectors, loaded once and shared by concurrent
+ * processor tasks. Each detector is used by at most one thread at a time.
+ */
+public final class FaceDetectorPool {
+
+    /** All detectors of the pool. */
+    private final List<FaceDetector> detectors;
+
+    /** Currently idle detectors. */
+    private final BlockingQueue<FaceDetector> idle;
+
+    /**
+     * Constructor.
+     *
+     * @param aSize number of detectors, normally the number of concurrent tasks
+     * @param aSettings detection parameters
+     */
+    public FaceDetectorPool(final int aSize, final DetectionSettings aSettings) {
+
+        int size = Math.max(1, aSize);
+        detectors = new ArrayList<FaceDetector>(size);
+        idle = new ArrayBlockingQueue<FaceDetector>(size);
+
+        for (int i = 0; i < size; i++) {
+            FaceDetector detector = new FaceDetector(aSettings);
+            detectors.add(detector);
+            idle.add(detector);
+        }
+    }
+
+    /**
+     * Locates faces in an input image using an idle detector, waiting for one
+     * if all of them are busy.
+     *
+     * @param aImage input image
+     * @return an array of bounding boxes of detected faces
+     */
+    public ArrayList<CvRect> detect(final IplImage aImage) {
+
+        FaceDetector detector;
+        try {
+            detector = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<CvRect>();
+        }
+
+        try {
+            return detector.detect(aImage);
+        } finally {
+            idle.add(detector);
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of detectors
+     */
+    public int size() {
+        return detectors.size();
+    }
+
+    /**
+     * Releases the native resources of all detectors.
+     */
+    public void release() {
+        for (FaceDetector detector : detectors) {
+            detector.release();
+        }
+        detectors.clear();
+        idle.clear();
+    }
+}
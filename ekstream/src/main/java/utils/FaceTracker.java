@@ -0,0 +1,184 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import org.bytedeco.javacpp.opencv_core.CvRect;
+
+/**
+ * A lightweight face tracker, which follows faces across consecutive frames
+ * by greedily matching bounding boxes with the largest overlap
+ * (intersection over union). Every face gets the identifier of the track it
+ * continues, or of a new track, so that downstream stages can reuse results
+ * for the same person. Tracks which have not been seen for a while are lost.
+ */
+public final class FaceTracker {
+
+    /** Minimum intersection over union for a face to continue a track. */
+    public static final double MIN_IOU = 0.3;
+
+    /**
+     * A tracked face.
+     */
+    private static final class Track {
+
+        /** Track identifier. */
+        private final String id;
+
+        /** Last bounding box. */
+        private int x, y, width, height;
+
+        /** Timestamp of the last frame the face was seen in, in ms. */
+        private long lastSeen;
+
+        /**
+         * Constructor.
+         *
+         * @param aId track identifier
+         */
+        private Track(final String aId) {
+            id = aId;
+        }
+    }
+
+    /**
+     * A candidate match between a track and a face.
+     */
+    private static final class Match {
+
+        /** Track. */
+        private final Track track;
+
+        /** Face index. */
+        private final int face;
+
+        /** Intersection over union. */
+        private final double iou;
+
+        /**
+         * Constructor.
+         *
+         * @param aTrack track
+         * @param aFace face index
+         * @param aIou intersection over union
+         */
+        private Match(final Track aTrack, final int aFace, final double aIou) {
+            track = aTrack;
+            face = aFace;
+            iou = aIou;
+        }
+    }
+
+    /** Prefix keeping identifiers unique across processors and restarts. */
+    private final String prefix = UUID.randomUUID().toString().substring(0, 8);
+
+    /** Time after which an unseen track is lost, in ms. */
+    private final long timeout;
+
+    /** Active tracks. */
+    private final List<Track> tracks = new ArrayList<Track>();
+
+    /** Sequence number of the next track. */
+    private long nextId;
+
+    /**
+     * Constructor.
+     *
+     * @param aTimeout time after which an unseen track is lost, in ms
+     */
+    public FaceTracker(final long aTimeout) {
+        timeout = aTimeout;
+    }
+
+    /**
+     * Assigns the faces of a frame to tracks.
+     *
+     * @param aRectangles bounding boxes of the faces of the frame
+     * @param aTimestamp frame timestamp, in ms
+     * @return track identifiers, in face order
+     */
+    public synchronized List<String> assign(final List<CvRect> aRectangles, final long aTimestamp) {
+
+        Iterator<Track> it = tracks.iterator();
+        while (it.hasNext()) {
+            if (aTimestamp - it.next().lastSeen > timeout) {
+                it.remove();
+            }
+        }
+
+        List<Match> matches = new ArrayList<Match>();
+        for (Track track : tracks) {
+            for (int i = 0; i < aRectangles.size(); i++) {
+                double iou = iou(track, aRectangles.get(i));
+                if (iou >= MIN_IOU) {
+                    matches.add(new Match(track, i, iou));
+                }
+            }
+        }
+        Collections.sort(matches, (a, b) -> Double.compare(b.iou, a.iou));
+
+        Track[] assigned = new Track[aRectangles.size()];
+        List<Track> used = new ArrayList<Track>();
+        for (Match match : matches) {
+            if (null == assigned[match.face] && !used.contains(match.track)) {
+                assigned[match.face] = match.track;
+                used.add(match.track);
+            }
+        }
+
+        List<String> result = new ArrayList<String>(aRectangles.size());
+        for (int i = 0; i < aRectangles.size(); i++) {
+            Track track = assigned[i];
+            if (null == track) {
+                track = new Track(prefix + "-" + nextId++);
+                tracks.add(track);
+            }
+
+            CvRect r = aRectangles.get(i);
+            track.x = r.x();
+            track.y = r.y();
+            track.width = r.width();
+            track.height = r.height();
+            track.lastSeen = Math.max(track.lastSeen, aTimestamp);
+            result.add(track.id);
+        }
+
+        return result;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of active tracks
+     */
+    public synchronized int size() {
+        return tracks.size();
+    }
+
+    /**
+     * Computes the intersection over union of a track and a face.
+     *
+     * @param aTrack track
+     * @param aRect face
+     * @return intersection over union, between 0 and 1
+     */
+    private static double iou(final Track aTrack, final CvRect aRect) {
+
+        int left = Math.max(aTrack.x, aRect.x());
+        int top = Math.max(aTrack.y, aRect.y());
+        int right = Math.min(aTrack.x + aTrack.width, aRect.x() + aRect.width());
+        int bottom = Math.min(aTrack.y + aTrack.height, aRect.y() + aRect.height());
+
+        if (right <= left || bottom <= top) {
+            return 0;
+        }
+
+        double intersection = (double) (right - left) * (bottom - top);
+        double union = (double) aTrack.width * aTrack.height + (double) aRect.width() * aRect.height()
+                - intersection;
+        return intersection / union;
+    }
+}
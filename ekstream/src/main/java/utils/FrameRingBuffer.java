@@ -0,0 +1,111 @@
+package utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded ring buffer which drops the oldest element when full. Producers
+ * never block unless they ask to wait for room, and consumers drain it
+ * without waiting.
+ *
+ * @param <E> element type
+ */
+public final class FrameRingBuffer<E> {
+
+    /** Underlying bounded queue. */
+    private final ArrayBlockingQueue<E> queue;
+
+    /** Number of elements discarded because the buffer was full. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Number of elements handed over to consumers. */
+    private final AtomicLong delivered = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aCapacity maximum number of buffered elements
+     */
+    public FrameRingBuffer(final int aCapacity) {
+        queue = new ArrayBlockingQueue<E>(Math.max(1, aCapacity));
+    }
+
+    /**
+     * Adds an element, evicting the oldest ones if there is no room left.
+     *
+     * @param aElement element to add
+     */
+    public void offer(final E aElement) {
+        while (!queue.offer(aElement)) {
+            if (null != queue.poll()) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Adds an element, waiting for room instead of evicting older ones.
+     *
+     * @param aElement element to add
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void put(final E aElement) throws InterruptedException {
+        queue.put(aElement);
+    }
+
+    /**
+     * Takes the oldest element without blocking.
+     *
+     * @return oldest element, or null if the buffer is empty
+     */
+    public E poll() {
+        E element = queue.poll();
+        if (null != element) {
+            delivered.incrementAndGet();
+        }
+        return element;
+    }
+
+    /**
+     * Discards all buffered elements.
+     */
+    public void clear() {
+        queue.clear();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of currently buffered elements
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return maximum number of buffered elements
+     */
+    public int getCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of dropped elements
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of delivered elements
+     */
+    public long getDelivered() {
+        return delivered.get();
+    }
+}
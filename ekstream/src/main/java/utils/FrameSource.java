@@ -0,0 +1,38 @@
+package utils;
+
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+
+/**
+ * A background task which feeds frames from a camera, a stream or video files
+ * into a ring buffer.
+ */
+public interface FrameSource {
+
+    /**
+     * Starts feeding frames.
+     *
+     * @throws FrameGrabber.Exception if the underlying grabber cannot be opened
+     */
+    void start() throws FrameGrabber.Exception;
+
+    /**
+     * Stops feeding frames and releases the underlying grabber.
+     */
+    void shutdown();
+
+    /**
+     * Checks whether frames are flowing.
+     *
+     * @return false once the source has stopped for good, or while its grabber
+     *         keeps failing or returning no frames
+     */
+    boolean isCapturing();
+
+    /**
+     * Getter.
+     *
+     * @return frame buffer
+     */
+    FrameRingBuffer<Frame> getBuffer();
+}
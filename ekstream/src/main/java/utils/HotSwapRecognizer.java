@@ -0,0 +1,189 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.MatVector;
+
+/**
+ * A face recognizer which can be replaced or incrementally updated while
+ * predictions are running. Predictions always use the currently published
+ * replica and never wait for training; a new model becomes visible through a
+ * single atomic reference swap.
+ *
+ * Incremental updates need two identical replicas: the idle standby replica
+ * is updated first and published, then the previously published one is
+ * updated once its in-flight predictions have finished, and becomes the new
+ * standby. Only one thread may publish or update models.
+ */
+public final class HotSwapRecognizer {
+
+    /**
+     * A single recognizer instance together with the lock guarding it.
+     * Predictions hold the read lock, training holds the write lock.
+     */
+    private static final class Replica {
+
+        /** Recognition engine. */
+        private final RecognizerEngine recognizer;
+
+        /** Read lock for predictions, write lock for updates. */
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /** Whether the recognition engine has been released. */
+        private boolean retired;
+
+        /**
+         * Constructor.
+         *
+         * @param aRecognizer recognition engine
+         */
+        private Replica(final RecognizerEngine aRecognizer) {
+            recognizer = aRecognizer;
+        }
+    }
+
+    /** Replica serving predictions. */
+    private final AtomicReference<Replica> active = new AtomicReference<Replica>();
+
+    /** Idle replica for incremental updates, accessed by the training thread only. */
+    private Replica standby;
+
+    /**
+     * Checks whether a model has been published.
+     *
+     * @return true if predictions can be made
+     */
+    public boolean isReady() {
+        return null != active.get();
+    }
+
+    /**
+     * Checks whether the published model can be updated incrementally.
+     *
+     * @return true if there is a standby replica
+     */
+    public boolean isIncremental() {
+        return null != standby;
+    }
+
+    /**
+     * Predicts the label of a face with the published model, without blocking
+     * on training.
+     *
+     * @param aFace grayscale face
+     * @param aLabel predicted label
+     * @param aConfidence prediction confidence
+     * @return false if no model has been published yet
+     */
+    public boolean predict(final Mat aFace, final int[] aLabel, final double[] aConfidence) {
+
+        while (true) {
+            Replica replica = active.get();
+            if (null == replica) {
+                return false;
+            }
+
+            if (replica.lock.readLock().tryLock()) {
+                try {
+                    if (!replica.retired) {
+                        replica.recognizer.predict(aFace, aLabel, aConfidence);
+                        return true;
+                    }
+                } finally {
+                    replica.lock.readLock().unlock();
+                }
+            }
+
+            // the replica has just been demoted, so a newer one is published
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Publishes a newly trained model, releasing the previous one once its
+     * in-flight predictions have finished.
+     *
+     * @param aRecognizer trained recognizer
+     * @param aStandby identical copy for incremental updates, or null if the
+     *            algorithm cannot be updated incrementally
+     */
+    public void publish(final RecognizerEngine aRecognizer, final RecognizerEngine aStandby) {
+
+        Replica previous = active.getAndSet(new Replica(aRecognizer));
+        retire(previous);
+        retire(standby);
+        standby = null == aStandby ? null : new Replica(aStandby);
+    }
+
+    /**
+     * Incrementally adds training images to the published model.
+     *
+     * @param aImages grayscale training images
+     * @param aLabels labels of the training images
+     */
+    public void update(final MatVector aImages, final Mat aLabels) {
+
+        if (null == standby) {
+            throw new IllegalStateException("The model cannot be updated incrementally!");
+        }
+
+        Replica next = standby;
+        next.lock.writeLock().lock();
+        try {
+            next.recognizer.update(aImages, aLabels);
+        } finally {
+            next.lock.writeLock().unlock();
+        }
+
+        Replica previous = active.getAndSet(next);
+        previous.lock.writeLock().lock();
+        try {
+            previous.recognizer.update(aImages, aLabels);
+        } finally {
+            previous.lock.writeLock().unlock();
+        }
+        standby = previous;
+    }
+
+    /**
+     * Returns the standby replica, which is identical to the published model
+     * after an update. May only be used by the training thread, e.g. to save
+     * the model.
+     *
+     * @return standby recognizer, or null
+     */
+    public RecognizerEngine getStandby() {
+        return null == standby ? null : standby.recognizer;
+    }
+
+    /**
+     * Releases all replicas.
+     */
+    public void release() {
+        retire(active.getAndSet(null));
+        retire(standby);
+        standby = null;
+    }
+
+    /**
+     * Releases a replica once no prediction is using it any more.
+     *
+     * @param aReplica replica, may be null
+     */
+    private static void retire(final Replica aReplica) {
+
+        if (null == aReplica) {
+            return;
+        }
+
+        aReplica.lock.writeLock().lock();
+        try {
+            aReplica.retired = true;
+            aReplica.recognizer.release();
+        } finally {
+            aReplica.lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+/**
+ * A pool of reusable native image buffers, keyed by their size and type, so
+ * that the per-frame crop, resize and decode buffers are not allocated and
+ * left to the garbage collector again for every frame. Buffers are taken with
+ * {@code acquire} and must be handed back explicitly with {@code release} once
+ * they are no longer used; at most {@link #MAX_IDLE} idle buffers are kept per
+ * size, the rest are freed immediately. Face crops come in many sizes, so the
+ * number of sizes and the total size of the idle buffers are capped too; once
+ * either is exceeded, the idle buffers of the least recently used sizes are
+ * freed. Instances are thread-safe.
+ */
+public final class ImagePool {
+
+    /** Maximum number of idle buffers kept per size. */
+    public static final int MAX_IDLE = 16;
+
+    /** Default maximum total size of the idle buffers, in bytes. */
+    public static final long MAX_IDLE_BYTES = 64L << 20;
+
+    /** Default maximum number of sizes with idle buffers. */
+    public static final int MAX_SIZES = 256;
+
+    /**
+     * Idle buffers of one size.
+     *
+     * @param <T> buffer type
+     */
+    private static final class Bucket<T> {
+
+        /** Idle buffers. */
+        private final Deque<T> buffers = new ArrayDeque<T>();
+
+        /** Size of a buffer, in bytes. */
+        private final long bytes;
+
+        /** Frees an evicted buffer. */
+        private final Consumer<T> free;
+
+        /** Tick of the last use. */
+        private long lastUsed;
+
+        /** Whether the bucket has been evicted from the pool. */
+        private boolean retired;
+
+        /**
+         * Constructor.
+         *
+         * @param aBytes size of a buffer, in bytes
+         * @param aFree frees an evicted buffer
+         */
+        private Bucket(final long aBytes, final Consumer<T> aFree) {
+            bytes = aBytes;
+            free = aFree;
+        }
+
+        /**
+         * Takes an idle buffer.
+         *
+         * @param aTick current tick
+         * @return buffer, or null if there is none
+         */
+        private synchronized T poll(final long aTick) {
+            lastUsed = aTick;
+            return buffers.poll();
+        }
+
+        /**
+         * Returns a buffer, unless the bucket is full or evicted.
+         *
+         * @param aBuffer buffer
+         * @param aTick current tick
+         * @return true if the buffer has been kept
+         */
+        private synchronized boolean offer(final T aBuffer, final long aTick) {
+            if (retired || buffers.size() >= MAX_IDLE) {
+                return false;
+            }
+            buffers.add(aBuffer);
+            lastUsed = aTick;
+            return true;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return tick of the last use
+         */
+        private synchronized long getLastUsed() {
+            return lastUsed;
+        }
+
+        /**
+         * Frees all idle buffers and stops taking new ones.
+         *
+         * @return number of freed buffers
+         */
+        private synchronized int retire() {
+            retired = true;
+            int count = buffers.size();
+            T buffer;
+            while (null != (buffer = buffers.poll())) {
+                free.accept(buffer);
+            }
+            return count;
+        }
+    }
+
+    /** Idle images by size. */
+    private final Map<Long, Bucket<IplImage>> images = new ConcurrentHashMap<Long, Bucket<IplImage>>();
+
+    /** Idle mats by size. */
+    private final Map<Long, Bucket<Mat>> mats = new ConcurrentHashMap<Long, Bucket<Mat>>();
+
+    /** Maximum total size of the idle buffers, in bytes. */
+    private final long maxIdleBytes;
+
+    /** Maximum number of sizes with idle buffers. */
+    private final int maxSizes;
+
+    /** Total size of the idle buffers, in bytes. */
+    private final AtomicLong idleBytes = new AtomicLong();
+
+    /** Logical clock ordering the uses of the buckets. */
+    private final AtomicLong clock = new AtomicLong();
+
+    /** Number of newly allocated buffers. */
+    private final AtomicLong allocated = new AtomicLong();
+
+    /** Number of reused buffers. */
+    private final AtomicLong reused = new AtomicLong();
+
+    /** Number of idle buffers freed to stay within the caps. */
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * Constructor, with the default caps.
+     */
+    public ImagePool() {
+        this(MAX_IDLE_BYTES, MAX_SIZES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aMaxIdleBytes maximum total size of the idle buffers, in bytes
+     * @param aMaxSizes maximum number of sizes with idle buffers
+     */
+    public ImagePool(final long aMaxIdleBytes, final int aMaxSizes) {
+        maxIdleBytes = aMaxIdleBytes;
+        maxSizes = aMaxSizes;
+    }
+
+    /**
+     * Takes an image of the given size from the pool, or allocates one.
+     *
+     * @param aWidth image width
+     * @param aHeight image height
+     * @param aDepth image depth, e.g. IPL_DEPTH_8U
+     * @param aChannels number of channels
+     * @return image with undefined content
+     */
+    public IplImage acquireImage(final int aWidth, final int aHeight, final int aDepth, final int aChannels) {
+
+        IplImage result = poll(images.get(imageKey(aWidth, aHeight, aDepth, aChannels)));
+        if (null != result) {
+            return result;
+        }
+
+        allocated.incrementAndGet();
+        return opencv_core.cvCreateImage(opencv_core.cvSize(aWidth, aHeight), aDepth, aChannels);
+    }
+
+    /**
+     * Hands an image obtained from {@link #acquireImage} back to the pool.
+     *
+     * @param aImage image, which must not be used by the caller anymore
+     */
+    public void release(final IplImage aImage) {
+
+        opencv_core.cvResetImageROI(aImage);
+        Bucket<IplImage> bucket = images.computeIfAbsent(
+                imageKey(aImage.width(), aImage.height(), aImage.depth(), aImage.nChannels()),
+                k -> new Bucket<IplImage>(aImage.imageSize(), opencv_core::cvReleaseImage));
+        if (!offer(bucket, aImage)) {
+            opencv_core.cvReleaseImage(aImage);
+        }
+    }
+
+    /**
+     * Takes a mat of the given size from the pool, or allocates one.
+     *
+     * @param aRows number of rows
+     * @param aCols number of columns
+     * @param aType mat type, e.g. CV_8UC1
+     * @return mat with undefined content
+     */
+    public Mat acquireMat(final int aRows, final int aCols, final int aType) {
+
+        Mat result = poll(mats.get(matKey(aRows, aCols, aType)));
+        if (null != result) {
+            return result;
+        }
+
+        allocated.incrementAndGet();
+        return new Mat(aRows, aCols, aType);
+    }
+
+    /**
+     * Hands a mat obtained from {@link #acquireMat} back to the pool.
+     *
+     * @param aMat mat, which must not be used by the caller anymore
+     */
+    public void release(final Mat aMat) {
+
+        Bucket<Mat> bucket = mats.computeIfAbsent(matKey(aMat.rows(), aMat.cols(), aMat.type()),
+                k -> new Bucket<Mat>(aMat.total() * aMat.elemSize(), Mat::deallocate));
+        if (!offer(bucket, aMat)) {
+            aMat.deallocate();
+        }
+    }
+
+    /**
+     * Takes an idle buffer from a bucket.
+     *
+     * @param <T> buffer type
+     * @param aBucket bucket, or null if the size has no idle buffers
+     * @return buffer, or null if there is none
+     */
+    private <T> T poll(final Bucket<T> aBucket) {
+
+        if (null == aBucket) {
+            return null;
+        }
+        T result = aBucket.poll(clock.incrementAndGet());
+        if (null != result) {
+            idleBytes.addAndGet(-aBucket.bytes);
+            reused.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Keeps a buffer in a bucket, and evicts the least recently used sizes if
+     * the pool exceeds its caps.
+     *
+     * @param <T> buffer type
+     * @param aBucket bucket
+     * @param aBuffer buffer
+     * @return true if the buffer has been kept
+     */
+    private <T> boolean offer(final Bucket<T> aBucket, final T aBuffer) {
+
+        if (!aBucket.offer(aBuffer, clock.incrementAndGet())) {
+            return false;
+        }
+        if (idleBytes.addAndGet(aBucket.bytes) > maxIdleBytes || images.size() + mats.size() > maxSizes) {
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * Frees the idle buffers of the least recently used sizes until the pool
+     * is within its caps again.
+     */
+    private synchronized void evict() {
+
+        while (idleBytes.get() > maxIdleBytes || images.size() + mats.size() > maxSizes) {
+            Map.Entry<Long, Bucket<IplImage>> image = leastRecentlyUsed(images);
+            Map.Entry<Long, Bucket<Mat>> mat = leastRecentlyUsed(mats);
+            if (null == image && null == mat) {
+                return;
+            }
+            if (null == mat || null != image && image.getValue().getLastUsed() <= mat.getValue().getLastUsed()) {
+                evicted.addAndGet(retire(images, image.getKey(), image.getValue()));
+            } else {
+                evicted.addAndGet(retire(mats, mat.getKey(), mat.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Finds the least recently used size.
+     *
+     * @param <T> buffer type
+     * @param aBuckets buckets by size
+     * @return least recently used bucket and its size, or null if there is none
+     */
+    private static <T> Map.Entry<Long, Bucket<T>> leastRecentlyUsed(final Map<Long, Bucket<T>> aBuckets) {
+
+        Map.Entry<Long, Bucket<T>> result = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<Long, Bucket<T>> entry : aBuckets.entrySet()) {
+            long lastUsed = entry.getValue().getLastUsed();
+            if (lastUsed < oldest) {
+                oldest = lastUsed;
+                result = entry;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes a size from the pool and frees its idle buffers.
+     *
+     * @param <T> buffer type
+     * @param aBuckets buckets by size
+     * @param aKey size
+     * @param aBucket bucket of the size
+     * @return number of freed buffers
+     */
+    private <T> int retire(final Map<Long, Bucket<T>> aBuckets, final Long aKey, final Bucket<T> aBucket) {
+
+        aBuckets.remove(aKey, aBucket);
+        int count = aBucket.retire();
+        idleBytes.addAndGet(-count * aBucket.bytes);
+        return count;
+    }
+
+    /**
+     * Frees all idle buffers. Buffers released afterwards are pooled again.
+     */
+    public synchronized void clear() {
+
+        for (Map.Entry<Long, Bucket<IplImage>> entry : images.entrySet()) {
+            retire(images, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Long, Bucket<Mat>> entry : mats.entrySet()) {
+            retire(mats, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of newly allocated buffers
+     */
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of reused buffers
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of idle buffers freed to stay within the caps
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return total size of the idle buffers, in bytes
+     */
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /**
+     * Packs an image size into a key. Depths are small powers of two,
+     * optionally with the sign bit set.
+     *
+     * @param aWidth image width
+     * @param aHeight image height
+     * @param aDepth image depth
+     * @param aChannels number of channels
+     * @return key
+     */
+    private static Long imageKey(final int aWidth, final int aHeight, final int aDepth, final int aChannels) {
+        long depth = (aDepth & 0x7F) | (aDepth < 0 ? 0x80 : 0);
+        return ((long) aWidth << 40) | ((long) aHeight << 16) | (depth << 8) | (aChannels & 0xFF);
+    }
+
+    /**
+     * Packs a mat size into a key.
+     *
+     * @param aRows number of rows
+     * @param aCols number of columns
+     * @param aType mat type
+     * @return key
+     */
+    private static Long matKey(final int aRows, final int aCols, final int aType) {
+        return ((long) aCols << 40) | ((long) aRows << 16) | (aType & 0xFFFF);
+    }
+}
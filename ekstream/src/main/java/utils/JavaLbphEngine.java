@@ -0,0 +1,614 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.MatVector;
+
+/**
+ * A pure-Java implementation of the OpenCV LBPH face recognizer, which
+ * predicts without crossing JNI for every face. A face is described by the
+ * histograms of the circular local binary patterns of a grid of cells,
+ * computed with the same sampling and interpolation as OpenCV, i.e. with one
+ * bin per pattern rather than uniform patterns only. The histograms of all training images are kept back to back in one float
+ * array, optionally off-heap, and compared to a face with the chi-square
+ * distance in plain, branch-free loops the JIT can vectorise. Models are read
+ * and written in the OpenCV YAML format.
+ *
+ * Predictions may run concurrently with each other, but not with training,
+ * updates or loading.
+ */
+public final class JavaLbphEngine implements RecognizerEngine {
+
+    /** Default radius of the circular patterns, as in OpenCV. */
+    public static final int RADIUS = 1;
+
+    /** Default number of sampling points of the circular patterns, as in OpenCV. */
+    public static final int NEIGHBORS = 8;
+
+    /** Default number of grid cells per row, as in OpenCV. */
+    public static final int GRID_X = 8;
+
+    /** Default number of grid cells per column, as in OpenCV. */
+    public static final int GRID_Y = 8;
+
+    /** Name of the model node in OpenCV model files. */
+    private static final String MODEL_NODE = "opencv_lbphfaces";
+
+    /** Tolerance of the pattern comparison, as in OpenCV. */
+    private static final float EPSILON = Math.ulp(1.0f);
+
+    /** Added to the chi-square denominators so that empty bins count as 0. */
+    private static final float TINY = Float.MIN_NORMAL;
+
+    /** Number of histogram values per line of a model file. */
+    private static final int VALUES_PER_LINE = 8;
+
+    /** Whether the histograms are stored off-heap. */
+    private final boolean offHeap;
+
+    /** Radius of the circular patterns. */
+    private int radius;
+
+    /** Number of sampling points of the circular patterns. */
+    private int neighbors;
+
+    /** Number of grid cells per row. */
+    private int gridX;
+
+    /** Number of grid cells per column. */
+    private int gridY;
+
+    /** Number of values of a histogram. */
+    private int length;
+
+    /** Row offsets of the sampling points, rounded down. */
+    private int[] floorY;
+
+    /** Column offsets of the sampling points, rounded down. */
+    private int[] floorX;
+
+    /** Row offsets of the sampling points, rounded up. */
+    private int[] ceilY;
+
+    /** Column offsets of the sampling points, rounded up. */
+    private int[] ceilX;
+
+    /** Interpolation weights of the four pixels around every sampling point. */
+    private float[][] weights;
+
+    /** Histograms of the training images, back to back, if on the heap. */
+    private float[] gallery = new float[0];
+
+    /** Histograms of the training images, back to back, if off-heap. */
+    private FloatBuffer offHeapGallery = allocate(0);
+
+    /** Labels of the training images. */
+    private int[] labels = new int[0];
+
+    /** Number of training images. */
+    private int count;
+
+    /**
+     * Constructor, with the OpenCV default parameters and the histograms on
+     * the heap.
+     */
+    public JavaLbphEngine() {
+        this(RADIUS, NEIGHBORS, GRID_X, GRID_Y, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aRadius radius of the circular patterns
+     * @param aNeighbors number of sampling points of the circular patterns
+     * @param aGridX number of grid cells per row
+     * @param aGridY number of grid cells per column
+     * @param aOffHeap whether to store the histograms off-heap
+     */
+    public JavaLbphEngine(final int aRadius, final int aNeighbors, final int aGridX, final int aGridY,
+            final boolean aOffHeap) {
+        offHeap = aOffHeap;
+        configure(aRadius, aNeighbors, aGridX, aGridY);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void train(final MatVector aImages, final Mat aLabels) {
+        count = 0;
+        add(aImages, aLabels);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(final MatVector aImages, final Mat aLabels) {
+        add(aImages, aLabels);
+    }
+
+    /**
+     * Predicts the label of the closest training image, like OpenCV without a
+     * threshold: the label is -1 and the confidence the largest double if
+     * there is no training image.
+     *
+     * @param aFace grayscale face
+     * @param aLabel predicted label
+     * @param aConfidence chi-square distance to the closest training image
+     */
+    @Override
+    public void predict(final Mat aFace, final int[] aLabel, final double[] aConfidence) {
+
+        float[] query = histogram(aFace);
+
+        int label = -1;
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            double distance = offHeap ? chiSquare(offHeapGallery, i * length, query)
+                    : chiSquare(gallery, i * length, query);
+            if (distance < best) {
+                best = distance;
+                label = labels[i];
+            }
+        }
+
+        aLabel[0] = label;
+        aConfidence[0] = best;
+    }
+
+    /**
+     * Computes the grid histograms of a face, each cell normalised by its
+     * number of pixels.
+     *
+     * @param aImage grayscale image
+     * @return histograms of all cells, row by row
+     */
+    public float[] histogram(final Mat aImage) {
+
+        if (aImage.type() != opencv_core.CV_8UC1) {
+            throw new IllegalArgumentException("LBPH needs 8-bit grayscale images!");
+        }
+
+        int rows = aImage.rows();
+        int cols = aImage.cols();
+        float[] pixels = readPixels(aImage, rows, cols);
+        float[] result = new float[length];
+
+        int bins = 1 << neighbors;
+        int cellWidth = (cols - 2 * radius) / gridX;
+        int cellHeight = (rows - 2 * radius) / gridY;
+        if (cellWidth <= 0 || cellHeight <= 0) {
+            return result;
+        }
+
+        for (int y = 0; y < gridY * cellHeight; y++) {
+            int i = y + radius;
+            int cellRow = y / cellHeight * gridX;
+            for (int x = 0; x < gridX * cellWidth; x++) {
+                int j = x + radius;
+                float center = pixels[i * cols + j];
+
+                int code = 0;
+                for (int n = 0; n < neighbors; n++) {
+                    float[] w = weights[n];
+                    float t = w[0] * pixels[(i + floorY[n]) * cols + j + floorX[n]]
+                            + w[1] * pixels[(i + floorY[n]) * cols + j + ceilX[n]]
+                            + w[2] * pixels[(i + ceilY[n]) * cols + j + floorX[n]]
+                            + w[3] * pixels[(i + ceilY[n]) * cols + j + ceilX[n]];
+                    if (t > center || Math.abs(t - center) < EPSILON) {
+                        code |= 1 << n;
+                    }
+                }
+
+                result[(cellRow + x / cellWidth) * bins + code]++;
+            }
+        }
+
+        float scale = (float) (1.0 / (cellWidth * cellHeight));
+        for (int k = 0; k < result.length; k++) {
+            result[k] *= scale;
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(final String aFile) throws IOException {
+
+        try (Writer out = Files.newBufferedWriter(Paths.get(aFile), StandardCharsets.US_ASCII)) {
+
+            out.write("%YAML:1.0\n" + MODEL_NODE + ":\n");
+            out.write("   radius: " + radius + "\n   neighbors: " + neighbors + "\n   grid_x: " + gridX
+                    + "\n   grid_y: " + gridY + "\n   threshold: " + Double.MAX_VALUE + "\n");
+
+            out.write(count == 0 ? "   histograms: []\n" : "   histograms:\n");
+            float[] histogram = new float[length];
+            for (int i = 0; i < count; i++) {
+                if (offHeap) {
+                    FloatBuffer source = offHeapGallery.duplicate();
+                    source.position(i * length);
+                    source.get(histogram);
+                } else {
+                    System.arraycopy(gallery, i * length, histogram, 0, length);
+                }
+
+                out.write("      - !!opencv-matrix\n         rows: 1\n         cols: " + length
+                        + "\n         dt: f\n         data: [ ");
+                for (int k = 0; k < length; k++) {
+                    out.write(0 == histogram[k] ? "0." : Float.toString(histogram[k]));
+                    if (k < length - 1) {
+                        out.write(k % VALUES_PER_LINE == VALUES_PER_LINE - 1 ? ",\n             " : ", ");
+                    }
+                }
+                out.write(" ]\n");
+            }
+
+            out.write("   labels: !!opencv-matrix\n      rows: " + count + "\n      cols: 1\n      dt: i\n"
+                    + "      data: [ ");
+            for (int i = 0; i < count; i++) {
+                out.write((i > 0 ? ", " : "") + labels[i]);
+            }
+            out.write(" ]\n   labelsInfo:\n      []\n");
+        }
+    }
+
+    /**
+     * Replaces the model with one saved by this engine or by the native LBPH
+     * recognizer. A file which cannot be read keeps the current model.
+     *
+     * @param aFile model file
+     * @throws IOException if the file cannot be read or is not an LBPH model
+     */
+    @Override
+    public void load(final String aFile) throws IOException {
+
+        int[] parameters = { RADIUS, NEIGHBORS, GRID_X, GRID_Y };
+        String[] names = { "radius:", "neighbors:", "grid_x:", "grid_y:" };
+        List<float[]> histograms = new ArrayList<float[]>();
+        String[] fileLabels = new String[0];
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(aFile), StandardCharsets.US_ASCII)) {
+
+            String section = "";
+            String line;
+            while (null != (line = in.readLine())) {
+
+                String trimmed = line.trim();
+                for (int p = 0; p < names.length; p++) {
+                    if (trimmed.startsWith(names[p])) {
+                        parameters[p] = Integer.parseInt(trimmed.substring(names[p].length()).trim());
+                    }
+                }
+                if (trimmed.startsWith("histograms:") || trimmed.startsWith("labels:")
+                        || trimmed.startsWith("labelsInfo:")) {
+                    section = trimmed.substring(0, trimmed.indexOf(':'));
+                }
+
+                if (!trimmed.startsWith("data:")) {
+                    continue;
+                }
+                String[] values = readValues(trimmed, in);
+                if ("histograms".equals(section)) {
+                    float[] histogram = new float[values.length];
+                    for (int k = 0; k < values.length; k++) {
+                        histogram[k] = Float.parseFloat(values[k]);
+                    }
+                    histograms.add(histogram);
+                } else if ("labels".equals(section)) {
+                    fileLabels = values;
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed LBPH model " + aFile, e);
+        }
+
+        // validate the whole file first, so that a malformed one keeps the current model
+        try {
+            checkParameters(parameters[0], parameters[1], parameters[2], parameters[3]);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed LBPH model " + aFile, e);
+        }
+        if (fileLabels.length != histograms.size()) {
+            throw new IOException("Malformed LBPH model " + aFile + ": " + histograms.size() + " histograms, "
+                    + fileLabels.length + " labels");
+        }
+        int fileLength = parameters[2] * parameters[3] * (1 << parameters[1]);
+        int[] parsedLabels = new int[fileLabels.length];
+        for (int i = 0; i < histograms.size(); i++) {
+            if (histograms.get(i).length != fileLength) {
+                throw new IOException("Malformed LBPH model " + aFile + ": histogram of "
+                        + histograms.get(i).length + " values instead of " + fileLength);
+            }
+            try {
+                parsedLabels[i] = Integer.parseInt(fileLabels[i]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed LBPH model " + aFile, e);
+            }
+        }
+
+        release();
+        configure(parameters[0], parameters[1], parameters[2], parameters[3]);
+        ensureCapacity(histograms.size());
+        for (int i = 0; i < histograms.size(); i++) {
+            store(i, histograms.get(i), parsedLabels[i]);
+        }
+        count = histograms.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release() {
+        gallery = new float[0];
+        offHeapGallery = allocate(0);
+        labels = new int[0];
+        count = 0;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of training images
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Checks the pattern and grid parameters.
+     *
+     * @param aRadius radius of the circular patterns
+     * @param aNeighbors number of sampling points of the circular patterns
+     * @param aGridX number of grid cells per row
+     * @param aGridY number of grid cells per column
+     * @throws IllegalArgumentException if the parameters are not supported
+     */
+    private static void checkParameters(final int aRadius, final int aNeighbors, final int aGridX,
+            final int aGridY) {
+
+        if (aRadius < 1 || aNeighbors < 1 || aNeighbors > 16 || aGridX < 1 || aGridY < 1
+                || (long) aGridX * aGridY * (1 << aNeighbors) > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported LBPH parameters: radius " + aRadius + ", neighbors "
+                    + aNeighbors + ", grid " + aGridX + "x" + aGridY);
+        }
+    }
+
+    /**
+     * Sets the pattern and grid parameters and precomputes the sampling points
+     * and interpolation weights, like OpenCV does.
+     *
+     * @param aRadius radius of the circular patterns
+     * @param aNeighbors number of sampling points of the circular patterns
+     * @param aGridX number of grid cells per row
+     * @param aGridY number of grid cells per column
+     */
+    private void configure(final int aRadius, final int aNeighbors, final int aGridX, final int aGridY) {
+
+        checkParameters(aRadius, aNeighbors, aGridX, aGridY);
+
+        radius = aRadius;
+        neighbors = aNeighbors;
+        gridX = aGridX;
+        gridY = aGridY;
+        length = gridX * gridY * (1 << neighbors);
+
+        floorY = new int[neighbors];
+        floorX = new int[neighbors];
+        ceilY = new int[neighbors];
+        ceilX = new int[neighbors];
+        weights = new float[neighbors][];
+
+        for (int n = 0; n < neighbors; n++) {
+            float x = (float) (radius * Math.cos(2.0 * Math.PI * n / (float) neighbors));
+            float y = (float) (-radius * Math.sin(2.0 * Math.PI * n / (float) neighbors));
+            floorX[n] = (int) Math.floor(x);
+            floorY[n] = (int) Math.floor(y);
+            ceilX[n] = (int) Math.ceil(x);
+            ceilY[n] = (int) Math.ceil(y);
+            float ty = y - floorY[n];
+            float tx = x - floorX[n];
+            weights[n] = new float[] { (1 - tx) * (1 - ty), tx * (1 - ty), (1 - tx) * ty, tx * ty };
+        }
+    }
+
+    /**
+     * Computes and appends the histograms of training images, in parallel.
+     *
+     * @param aImages grayscale training images
+     * @param aLabels labels of the training images
+     */
+    private void add(final MatVector aImages, final Mat aLabels) {
+
+        int size = (int) aImages.size();
+        if (aLabels.total() != size) {
+            throw new IllegalArgumentException("Got " + size + " images but " + aLabels.total() + " labels!");
+        }
+
+        float[][] histograms = new float[size][];
+        IntStream.range(0, size).parallel().forEach(i -> histograms[i] = histogram(aImages.get(i)));
+
+        IntBuffer labelBuffer = aLabels.createBuffer();
+        ensureCapacity(count + size);
+        for (int i = 0; i < size; i++) {
+            store(count + i, histograms[i], labelBuffer.get(i));
+        }
+        count += size;
+    }
+
+    /**
+     * Writes a training image at an index of the gallery.
+     *
+     * @param aIndex index, below the capacity
+     * @param aHistogram histogram of the image
+     * @param aLabel label of the image
+     */
+    private void store(final int aIndex, final float[] aHistogram, final int aLabel) {
+
+        if (offHeap) {
+            FloatBuffer target = offHeapGallery.duplicate();
+            target.position(aIndex * length);
+            target.put(aHistogram);
+        } else {
+            System.arraycopy(aHistogram, 0, gallery, aIndex * length, length);
+        }
+        labels[aIndex] = aLabel;
+    }
+
+    /**
+     * Grows the gallery, keeping the current training images.
+     *
+     * @param aCapacity number of training images to make room for
+     */
+    private void ensureCapacity(final int aCapacity) {
+
+        if (labels.length >= aCapacity) {
+            return;
+        }
+
+        int capacity = Math.max(aCapacity, Math.min(2 * labels.length, Integer.MAX_VALUE / length));
+        if ((long) capacity * length * (offHeap ? Float.BYTES : 1) > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many training images for an LBPH gallery: " + aCapacity);
+        }
+
+        labels = Arrays.copyOf(labels, capacity);
+        if (offHeap) {
+            FloatBuffer grown = allocate(capacity * length);
+            FloatBuffer current = offHeapGallery.duplicate();
+            current.position(0);
+            current.limit(count * length);
+            grown.put(current);
+            offHeapGallery = grown;
+        } else {
+            gallery = Arrays.copyOf(gallery, capacity * length);
+        }
+    }
+
+    /**
+     * Computes the chi-square distance, as of OpenCV's HISTCMP_CHISQR_ALT,
+     * between a histogram of the gallery and a query.
+     *
+     * @param aGallery gallery
+     * @param aOffset start of the histogram in the gallery
+     * @param aQuery query histogram
+     * @return distance
+     */
+    private double chiSquare(final float[] aGallery, final int aOffset, final float[] aQuery) {
+
+        int bins = 1 << neighbors;
+        double result = 0;
+        for (int cell = 0; cell < length; cell += bins) {
+            float sum = 0;
+            for (int k = cell; k < cell + bins; k++) {
+                float a = aGallery[aOffset + k];
+                float b = aQuery[k];
+                float d = a - b;
+                sum += d * d / (a + b + TINY);
+            }
+            result += sum;
+        }
+        return 2 * result;
+    }
+
+    /**
+     * Computes the chi-square distance, as of OpenCV's HISTCMP_CHISQR_ALT,
+     * between a histogram of the off-heap gallery and a query.
+     *
+     * @param aGallery gallery
+     * @param aOffset start of the histogram in the gallery
+     * @param aQuery query histogram
+     * @return distance
+     */
+    private double chiSquare(final FloatBuffer aGallery, final int aOffset, final float[] aQuery) {
+
+        int bins = 1 << neighbors;
+        double result = 0;
+        for (int cell = 0; cell < length; cell += bins) {
+            float sum = 0;
+            for (int k = cell; k < cell + bins; k++) {
+                float a = aGallery.get(aOffset + k);
+                float b = aQuery[k];
+                float d = a - b;
+                sum += d * d / (a + b + TINY);
+            }
+            result += sum;
+        }
+        return 2 * result;
+    }
+
+    /**
+     * Reads the pixels of a grayscale image, whose rows may be padded.
+     *
+     * @param aImage grayscale image
+     * @param aRows number of rows
+     * @param aCols number of columns
+     * @return pixel values, row by row
+     */
+    private static float[] readPixels(final Mat aImage, final int aRows, final int aCols) {
+
+        float[] result = new float[aRows * aCols];
+        byte[] row = new byte[aCols];
+        BytePointer data = aImage.data();
+        long step = aImage.step();
+        for (int y = 0; y < aRows; y++) {
+            data.position(y * step).get(row);
+            for (int x = 0; x < aCols; x++) {
+                result[y * aCols + x] = row[x] & 0xFF;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the values of a matrix of a model file, which may span several
+     * lines.
+     *
+     * @param aLine line starting the values, e.g. "data: [ 1, 2,"
+     * @param aReader reader positioned after the line
+     * @return values as text
+     * @throws IOException if the values are not terminated
+     */
+    private static String[] readValues(final String aLine, final BufferedReader aReader) throws IOException {
+
+        StringBuilder text = new StringBuilder(aLine.substring(aLine.indexOf('[') + 1));
+        String line;
+        while (text.indexOf("]") < 0) {
+            if (null == (line = aReader.readLine())) {
+                throw new IOException("Unterminated matrix in the LBPH model");
+            }
+            text.append(' ').append(line);
+        }
+
+        String values = text.substring(0, text.indexOf("]")).trim();
+        return values.isEmpty() ? new String[0] : values.split("[,\\s]+");
+    }
+
+    /**
+     * Allocates an off-heap float buffer.
+     *
+     * @param aLength number of values
+     * @return buffer in native byte order
+     */
+    private static FloatBuffer allocate(final int aLength) {
+        return ByteBuffer.allocateDirect(aLength * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,161 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram in the spirit of HdrHistogram. Values are
+ * counted in log-linear buckets: exactly below 256, and with 8 significant
+ * bits (under 1% relative error) above, so that percentiles of values from
+ * microseconds up to days take a fixed, small amount of memory. Recording is
+ * a single atomic increment and can happen from any number of threads.
+ */
+public final class LatencyHistogram {
+
+    /** Number of significant bits kept per value. */
+    private static final int PRECISION_BITS = 8;
+
+    /** Number of exactly counted values, 256. */
+    private static final int LINEAR_BUCKETS = 1 << PRECISION_BITS;
+
+    /** Number of buckets per power of two above the linear range, 128. */
+    private static final int HALF_BUCKETS = LINEAR_BUCKETS / 2;
+
+    /** Largest recordable value, about 12 days in microseconds. */
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    /** Number of buckets. */
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    /** Bucket counts. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a value. Negative values are recorded as 0, values above
+     * {@link #MAX_VALUE} as {@link #MAX_VALUE}.
+     *
+     * @param aValue value, e.g. a latency in microseconds
+     */
+    public void record(final long aValue) {
+        counts.incrementAndGet(index(Math.min(Math.max(0, aValue), MAX_VALUE)));
+    }
+
+    /**
+     * Takes a snapshot of the recorded values and starts a new interval.
+     * Values recorded concurrently end up in either interval.
+     *
+     * @return snapshot of the interval
+     */
+    public Snapshot reset() {
+
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+        }
+        return new Snapshot(snapshot);
+    }
+
+    /**
+     * Maps a value to its bucket.
+     *
+     * @param aValue non-negative value
+     * @return bucket index
+     */
+    static int index(final long aValue) {
+
+        if (aValue < LINEAR_BUCKETS) {
+            return (int) aValue;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(aValue) - PRECISION_BITS;
+        int top = (int) (aValue >>> shift);
+        return LINEAR_BUCKETS + (shift - 1) * HALF_BUCKETS + (top - HALF_BUCKETS);
+    }
+
+    /**
+     * Maps a bucket to the largest value it holds.
+     *
+     * @param aIndex bucket index
+     * @return largest value of the bucket
+     */
+    static long highestValue(final int aIndex) {
+
+        if (aIndex < LINEAR_BUCKETS) {
+            return aIndex;
+        }
+        int shift = (aIndex - LINEAR_BUCKETS) / HALF_BUCKETS + 1;
+        long top = (aIndex - LINEAR_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * The values recorded during one interval.
+     */
+    public static final class Snapshot {
+
+        /** Bucket counts. */
+        private final long[] counts;
+
+        /** Number of values. */
+        private final long total;
+
+        /**
+         * Constructor.
+         *
+         * @param aCounts bucket counts
+         */
+        private Snapshot(final long[] aCounts) {
+            counts = aCounts;
+            long sum = 0;
+            for (long count : aCounts) {
+                sum += count;
+            }
+            total = sum;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return number of recorded values
+         */
+        public long getCount() {
+            return total;
+        }
+
+        /**
+         * Returns the value below or at which a given share of the recorded
+         * values lies.
+         *
+         * @param aPercentile percentile, between 0 and 100
+         * @return value at the percentile, 0 if nothing has been recorded
+         */
+        public long getValueAtPercentile(final double aPercentile) {
+
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(aPercentile / 100.0 * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return MAX_VALUE;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return largest recorded value, 0 if nothing has been recorded
+         */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.bytedeco.javacpp.opencv_imgproc;
+
+/**
+ * A cheap motion pre-filter for face detection. Every frame is reduced to a
+ * small grayscale thumbnail and compared with a running-average background
+ * model; frames in which too few pixels have changed are reported as static,
+ * so that the expensive cascade scan can be skipped.
+ */
+public final class MotionDetector {
+
+    /** Thumbnail width, in pixels. */
+    public static final int THUMBNAIL_WIDTH = 64;
+
+    /** Intensity difference for a thumbnail pixel to count as changed. */
+    public static final double PIXEL_THRESHOLD = 25;
+
+    /** Weight of the newest frame in the background model. */
+    public static final double LEARNING_RATE = 0.05;
+
+    /** Minimum share of changed thumbnail pixels, in percent. */
+    private final double minArea;
+
+    /** Reusable thumbnail. */
+    private final Mat thumbnail = new Mat();
+
+    /** Reusable grayscale thumbnail. */
+    private final Mat gray = new Mat();
+
+    /** Reusable floating point thumbnail. */
+    private final Mat current = new Mat();
+
+    /** Reusable difference to the background. */
+    private final Mat difference = new Mat();
+
+    /** Running-average background, empty until the first frame. */
+    private final Mat background = new Mat();
+
+    /** Reusable thumbnail size. */
+    private final Size size = new Size();
+
+    /** Number of frames with motion. */
+    private final AtomicLong moving = new AtomicLong();
+
+    /** Number of static frames. */
+    private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aMinArea minimum share of changed pixels for a frame to count as
+     *            moving, in percent
+     */
+    public MotionDetector(final double aMinArea) {
+        minArea = aMinArea;
+    }
+
+    /**
+     * Compares a frame with the background model and then blends it into the
+     * model. The first frame always counts as moving.
+     *
+     * @param aImage input image
+     * @return true if the frame differs enough from the background to be
+     *         worth scanning for faces
+     */
+    public synchronized boolean hasMotion(final IplImage aImage) {
+
+        Mat image = opencv_core.cvarrToMat(aImage);
+
+        size.width(Math.min(THUMBNAIL_WIDTH, image.cols()))
+                .height(Math.max(1, image.rows() * Math.min(THUMBNAIL_WIDTH, image.cols()) / image.cols()));
+        opencv_imgproc.resize(image, thumbnail, size, 0, 0, opencv_imgproc.INTER_AREA);
+
+        Mat source = thumbnail;
+        if (thumbnail.channels() != 1) {
+            opencv_imgproc.cvtColor(thumbnail, gray, opencv_imgproc.COLOR_BGR2GRAY);
+            source = gray;
+        }
+        source.convertTo(current, opencv_core.CV_32F);
+
+        boolean motion;
+        if (background.empty() || background.cols() != current.cols() || background.rows() != current.rows()) {
+            current.copyTo(background);
+            motion = true;
+        } else {
+            opencv_core.absdiff(current, background, difference);
+            opencv_imgproc.threshold(difference, difference, PIXEL_THRESHOLD, 1, opencv_imgproc.THRESH_BINARY);
+            double changed = 100.0 * opencv_core.countNonZero(difference) / difference.total();
+            motion = changed >= minArea;
+            opencv_imgproc.accumulateWeighted(current, background, LEARNING_RATE);
+        }
+
+        if (motion) {
+            moving.incrementAndGet();
+        } else {
+            skipped.incrementAndGet();
+        }
+
+        return motion;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of frames with motion
+     */
+    public long getMoving() {
+        return moving.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of static frames
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Releases the native resources of this detector.
+     */
+    public synchronized void release() {
+        thumbnail.deallocate();
+        gray.deallocate();
+        current.deallocate();
+        difference.deallocate();
+        background.deallocate();
+        size.deallocate();
+    }
+}
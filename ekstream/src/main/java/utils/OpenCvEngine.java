@@ -0,0 +1,71 @@
+package utils;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.MatVector;
+import org.bytedeco.javacpp.opencv_face.FaceRecognizer;
+
+/**
+ * A {@link RecognizerEngine} backed by a native OpenCV face recognizer.
+ */
+public final class OpenCvEngine implements RecognizerEngine {
+
+    /** Native recognizer. */
+    private final FaceRecognizer recognizer;
+
+    /**
+     * Constructor.
+     *
+     * @param aRecognizer native recognizer
+     */
+    public OpenCvEngine(final FaceRecognizer aRecognizer) {
+        recognizer = aRecognizer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void train(final MatVector aImages, final Mat aLabels) {
+        recognizer.train(aImages, aLabels);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void update(final MatVector aImages, final Mat aLabels) {
+        recognizer.update(aImages, aLabels);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void predict(final Mat aFace, final int[] aLabel, final double[] aConfidence) {
+        recognizer.predict(aFace, aLabel, aConfidence);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void save(final String aFile) {
+        recognizer.save(aFile);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void load(final String aFile) {
+        recognizer.load(aFile);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release() {
+        recognizer.deallocate();
+    }
+}
@@ -0,0 +1,51 @@
+package utils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * State which must be kept apart for every camera of a flow, such as the
+ * background model of a {@link MotionDetector} or the tracks of a
+ * {@link FaceTracker}, since frames of several cameras may arrive interleaved
+ * in a single queue. The state of a camera is created on first use.
+ *
+ * @param <T> state type
+ */
+public final class PerCamera<T> {
+
+    /** States by camera. */
+    private final Map<String, T> states = new ConcurrentHashMap<String, T>();
+
+    /** Creates the state of a new camera. */
+    private final Function<String, T> factory;
+
+    /**
+     * Constructor.
+     *
+     * @param aFactory creates the state of a new camera from its key
+     */
+    public PerCamera(final Function<String, T> aFactory) {
+        factory = aFactory;
+    }
+
+    /**
+     * Returns the state of a camera, creating it if needed.
+     *
+     * @param aCamera camera key
+     * @return state of the camera
+     */
+    public T get(final String aCamera) {
+        return states.computeIfAbsent(aCamera, factory);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return states of all cameras seen so far
+     */
+    public Collection<T> values() {
+        return states.values();
+    }
+}
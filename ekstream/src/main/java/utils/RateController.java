@@ -0,0 +1,148 @@
+package utils;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the sampling rate of a {@link CaptureThread} to what downstream can
+ * take, additive-increase/multiplicative-decrease style. The rate is raised
+ * by a fixed step towards the maximum while the capture buffer stays shallow,
+ * and halved, down to the minimum, as soon as frames pile up or are dropped,
+ * which is what happens when NiFi stops triggering the processor under
+ * backpressure, or when the recent end-to-end latency of the frames of this
+ * capture exceeds the target.
+ * The rate is re-evaluated periodically on a thread of its own, so that
+ * neither the capture thread nor the NiFi worker threads ever wait for it.
+ */
+public final class RateController {
+
+    /** Share of the maximum rate added per period without congestion. */
+    private static final double INCREASE = 0.1;
+
+    /** Factor applied to the rate per period with congestion. */
+    private static final double DECREASE = 0.5;
+
+    /** Age after which the end-to-end latency is not trusted anymore, in microseconds. */
+    private static final long LATENCY_MAX_AGE = TimeUnit.SECONDS.toMicros(10);
+
+    /** Controlled capture thread. */
+    private final CaptureThread capture;
+
+    /** Identifier of the capturing processor, which frames carry downstream. */
+    private final String source;
+
+    /** Minimum rate, in frames per second. */
+    private final double minRate;
+
+    /** Maximum rate, in frames per second. */
+    private final double maxRate;
+
+    /** End-to-end latency target, in microseconds, 0 for none. */
+    private final long target;
+
+    /** Current rate, in frames per second. */
+    private volatile double rate;
+
+    /** Number of dropped frames at the last evaluation. */
+    private long lastDropped;
+
+    /** Periodic evaluation. */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor. The initial rate is the current one of the capture thread,
+     * within the limits.
+     *
+     * @param aCapture controlled capture thread
+     * @param aSource identifier of the capturing processor
+     * @param aMinRate minimum rate, in frames per second
+     * @param aMaxRate maximum rate, in frames per second
+     * @param aTarget end-to-end latency target, in microseconds, 0 for none
+     */
+    public RateController(final CaptureThread aCapture, final String aSource, final double aMinRate,
+            final double aMaxRate, final long aTarget) {
+        capture = aCapture;
+        source = aSource;
+        minRate = Math.min(aMinRate, aMaxRate);
+        maxRate = aMaxRate;
+        target = aTarget;
+        rate = clamp(1000.0 / Math.max(1, aCapture.getInterval()));
+        lastDropped = aCapture.getBuffer().getDropped();
+        capture.setInterval(toInterval(rate));
+    }
+
+    /**
+     * Starts re-evaluating the rate periodically.
+     *
+     * @param aPeriod evaluation period, in ms
+     */
+    public synchronized void start(final long aPeriod) {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleAtFixedRate(this::adjust, aPeriod, aPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops re-evaluating the rate. The capture thread keeps its last rate.
+     */
+    public synchronized void shutdown() {
+        if (null != scheduler) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        StageMetrics.clearRecentEndToEnd(source);
+    }
+
+    /**
+     * Re-evaluates the rate from the state of the capture buffer and the
+     * recent end-to-end latency of its frames, and applies it to the capture
+     * thread.
+     */
+    public synchronized void adjust() {
+
+        FrameRingBuffer<?> buffer = capture.getBuffer();
+        long dropped = buffer.getDropped();
+        int buffered = buffer.size();
+        int capacity = buffer.getCapacity();
+        long latency = target > 0 ? StageMetrics.getRecentEndToEnd(source, LATENCY_MAX_AGE) : -1;
+
+        boolean congested = dropped > lastDropped || 2 * buffered > capacity || latency > target;
+        lastDropped = dropped;
+
+        if (congested) {
+            rate = clamp(rate * DECREASE);
+        } else if (4 * buffered <= capacity) {
+            rate = clamp(rate + maxRate * INCREASE);
+        }
+        capture.setInterval(toInterval(rate));
+    }
+
+    /**
+     * Getter.
+     *
+     * @return current rate, in frames per second
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Keeps a rate within the limits.
+     *
+     * @param aRate rate, in frames per second
+     * @return limited rate
+     */
+    private double clamp(final double aRate) {
+        return Math.max(minRate, Math.min(maxRate, aRate));
+    }
+
+    /**
+     * Converts a rate into an interval between frames.
+     *
+     * @param aRate rate, in frames per second
+     * @return interval, in ms
+     */
+    private static long toInterval(final double aRate) {
+        return Math.round(1000.0 / aRate);
+    }
+}
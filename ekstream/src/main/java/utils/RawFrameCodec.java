@@ -0,0 +1,235 @@
+package utils;
+
+import java.nio.ByteBuffer;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+
+/**
+ * Compact binary frame format used to pass images between Ekstream processors
+ * without PNG encoding. A frame is a fixed-size big-endian header followed by
+ * the raw pixel rows exactly as they are laid out in native memory:
+ *
+ * <pre>
+ * magic(4) width(4) height(4) channels(4) depth(4) stride(4) timestamp(8) pixels(stride * height)
+ * </pre>
+ *
+ * The depth is an IplImage depth constant (e.g. IPL_DEPTH_8U), the stride is
+ * the number of bytes per row, and the timestamp is the capture time in ms.
+ */
+public final class RawFrameCodec {
+
+    /** Magic number, "EKRF". */
+    public static final int MAGIC = 0x454B5246;
+
+    /** Header length in bytes. */
+    public static final int HEADER_LENGTH = 32;
+
+    /** MIME type of encoded frames. */
+    public static final String MIME_TYPE = "application/x-ekstream-frame";
+
+    /**
+     * Constructor.
+     */
+    private RawFrameCodec() {
+    }
+
+    /**
+     * Checks whether a byte array holds a raw frame.
+     *
+     * @param aBytes encoded bytes
+     * @return true if the array starts with a raw frame header
+     */
+    public static boolean isRawFrame(final byte[] aBytes) {
+        return aBytes.length >= HEADER_LENGTH && ByteBuffer.wrap(aBytes).getInt(0) == MAGIC;
+    }
+
+    /**
+     * Encodes an image into the raw frame format.
+     *
+     * @param aImage input image
+     * @param aTimestamp capture timestamp, in ms
+     * @return encoded frame
+     */
+    public static byte[] encode(final IplImage aImage, final long aTimestamp) {
+
+        int stride = aImage.widthStep();
+        int length = stride * aImage.height();
+
+        byte[] result = new byte[HEADER_LENGTH + length];
+        ByteBuffer.wrap(result).putInt(MAGIC).putInt(aImage.width()).putInt(aImage.height())
+                .putInt(aImage.nChannels()).putInt(aImage.depth()).putInt(stride).putLong(aTimestamp);
+        aImage.imageData().get(result, HEADER_LENGTH, length);
+
+        return result;
+    }
+
+    /**
+     * Decodes a raw frame straight into a newly allocated native image.
+     *
+     * @param aBytes encoded frame
+     * @return image
+     */
+    public static IplImage decodeImage(final byte[] aBytes) {
+        return decodeImage(aBytes, null);
+    }
+
+    /**
+     * Decodes a raw frame straight into a native image taken from a pool.
+     *
+     * @param aBytes encoded frame
+     * @param aPool buffer pool, or null to allocate a new image
+     * @return image, to be released to the pool
+     */
+    public static IplImage decodeImage(final byte[] aBytes, final ImagePool aPool) {
+
+        ByteBuffer header = header(aBytes);
+        int width = header.getInt();
+        int height = header.getInt();
+        int channels = header.getInt();
+        int depth = header.getInt();
+        int stride = header.getInt();
+
+        IplImage result = null == aPool
+                ? opencv_core.cvCreateImage(opencv_core.cvSize(width, height), depth, channels)
+                : aPool.acquireImage(width, height, depth, channels);
+        copyRows(aBytes, stride, height, result.imageData(), result.widthStep());
+
+        return result;
+    }
+
+    /**
+     * Decodes a raw frame straight into a newly allocated native matrix.
+     *
+     * @param aBytes encoded frame
+     * @return matrix
+     */
+    public static Mat decodeMat(final byte[] aBytes) {
+        return decodeMat(aBytes, null);
+    }
+
+    /**
+     * Decodes a raw frame straight into a native matrix taken from a pool.
+     *
+     * @param aBytes encoded frame
+     * @param aPool buffer pool, or null to allocate a new matrix
+     * @return matrix, to be released to the pool
+     */
+    public static Mat decodeMat(final byte[] aBytes, final ImagePool aPool) {
+
+        ByteBuffer header = header(aBytes);
+        int width = header.getInt();
+        int height = header.getInt();
+        int channels = header.getInt();
+        int depth = header.getInt();
+        int stride = header.getInt();
+
+        int type = opencv_core.CV_MAKETYPE(toMatDepth(depth), channels);
+        Mat result = null == aPool ? new Mat(height, width, type) : aPool.acquireMat(height, width, type);
+        copyRows(aBytes, stride, height, result.data(), (int) result.step());
+
+        return result;
+    }
+
+    /**
+     * Reads the capture timestamp of a raw frame.
+     *
+     * @param aBytes encoded frame
+     * @return capture timestamp, in ms
+     */
+    public static long readTimestamp(final byte[] aBytes) {
+        return header(aBytes).getLong(HEADER_LENGTH - Long.BYTES);
+    }
+
+    /**
+     * Validates the header and positions a buffer right after the magic number.
+     *
+     * @param aBytes encoded frame
+     * @return header buffer
+     * @throws IllegalArgumentException if the array is not a raw frame, its
+     *         header is inconsistent, or it is shorter than its header says
+     */
+    private static ByteBuffer header(final byte[] aBytes) {
+        if (!isRawFrame(aBytes)) {
+            throw new IllegalArgumentException("Not a raw frame!");
+        }
+        ByteBuffer header = ByteBuffer.wrap(aBytes);
+        int width = header.getInt(4);
+        int height = header.getInt(8);
+        int channels = header.getInt(12);
+        int depth = header.getInt(16);
+        int stride = header.getInt(20);
+        if (width <= 0 || height <= 0 || channels <= 0 || stride <= 0) {
+            throw new IllegalArgumentException("Invalid raw frame header: " + width + "x" + height + ", "
+                    + channels + " channels, stride " + stride);
+        }
+        toMatDepth(depth);
+        long row = (long) width * channels * ((depth & ~opencv_core.IPL_DEPTH_SIGN) / Byte.SIZE);
+        if (stride < row) {
+            throw new IllegalArgumentException("Invalid raw frame header: stride " + stride + " shorter than a "
+                    + row + " byte row");
+        }
+        if (aBytes.length - HEADER_LENGTH < (long) stride * height) {
+            throw new IllegalArgumentException("Truncated raw frame: " + (aBytes.length - HEADER_LENGTH)
+                    + " of " + (long) stride * height + " pixel bytes");
+        }
+        header.position(Integer.BYTES);
+        return header;
+    }
+
+    /**
+     * Copies pixel rows into native memory, honouring both strides.
+     *
+     * @param aBytes encoded frame
+     * @param aStride source stride
+     * @param aHeight number of rows
+     * @param aTarget destination memory
+     * @param aTargetStride destination stride
+     */
+    private static void copyRows(final byte[] aBytes, final int aStride, final int aHeight,
+            final BytePointer aTarget, final int aTargetStride) {
+
+        if (aStride == aTargetStride) {
+            aTarget.put(aBytes, HEADER_LENGTH, aStride * aHeight);
+            return;
+        }
+
+        int row = Math.min(aStride, aTargetStride);
+        long start = aTarget.position();
+        for (int i = 0; i < aHeight; i++) {
+            aTarget.position(start + (long) i * aTargetStride);
+            aTarget.put(aBytes, HEADER_LENGTH + i * aStride, row);
+        }
+        aTarget.position(start);
+    }
+
+    /**
+     * Maps an IplImage depth onto the matching Mat depth.
+     *
+     * @param aDepth IplImage depth
+     * @return Mat depth
+     * @throws IllegalArgumentException if the depth is not an IplImage depth
+     */
+    private static int toMatDepth(final int aDepth) {
+        switch (aDepth) {
+        case opencv_core.IPL_DEPTH_8U:
+            return opencv_core.CV_8U;
+        case opencv_core.IPL_DEPTH_8S:
+            return opencv_core.CV_8S;
+        case opencv_core.IPL_DEPTH_16U:
+            return opencv_core.CV_16U;
+        case opencv_core.IPL_DEPTH_16S:
+            return opencv_core.CV_16S;
+        case opencv_core.IPL_DEPTH_32S:
+            return opencv_core.CV_32S;
+        case opencv_core.IPL_DEPTH_32F:
+            return opencv_core.CV_32F;
+        case opencv_core.IPL_DEPTH_64F:
+            return opencv_core.CV_64F;
+        default:
+            throw new IllegalArgumentException("Invalid raw frame depth: " + aDepth);
+        }
+    }
+}
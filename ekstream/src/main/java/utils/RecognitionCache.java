@@ -0,0 +1,224 @@
+package utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Size;
+import org.bytedeco.javacpp.opencv_imgproc;
+
+/**
+ * A bounded cache of face predictions keyed by a perceptual hash (dHash) of
+ * the grayscale face, so that near-identical crops coming from fixed cameras
+ * are recognised without touching the native recognizer. Faces whose hashes
+ * differ in at most a configurable number of bits share a prediction. Least
+ * recently used entries are evicted once the cache is full, and entries
+ * expire after a time to live.
+ */
+public final class RecognitionCache {
+
+    /** Width of the thumbnail the hash is computed from. */
+    private static final int HASH_WIDTH = 9;
+
+    /** Height of the thumbnail the hash is computed from. */
+    private static final int HASH_HEIGHT = 8;
+
+    /**
+     * A cached prediction.
+     */
+    private static final class Entry {
+
+        /** Predicted label. */
+        private final int label;
+
+        /** Prediction confidence. */
+        private final double confidence;
+
+        /** Prediction time, in ms. */
+        private final long predicted;
+
+        /**
+         * Constructor.
+         *
+         * @param aLabel predicted label
+         * @param aConfidence prediction confidence
+         * @param aPredicted prediction time, in ms
+         */
+        private Entry(final int aLabel, final double aConfidence, final long aPredicted) {
+            label = aLabel;
+            confidence = aConfidence;
+            predicted = aPredicted;
+        }
+    }
+
+    /** Maximum number of entries. */
+    private final int capacity;
+
+    /** Maximum Hamming distance between matching hashes. */
+    private final int tolerance;
+
+    /** Time to live of an entry, in ms. */
+    private final long ttl;
+
+    /** Predictions by hash, in access order. */
+    private final LinkedHashMap<Long, Entry> entries;
+
+    /** Number of reused predictions. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of predictions which had to be made. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** Number of evicted or expired entries. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aCapacity maximum number of entries
+     * @param aTolerance maximum Hamming distance between matching hashes
+     * @param aTtl time to live of an entry, in ms
+     */
+    public RecognitionCache(final int aCapacity, final int aTolerance, final long aTtl) {
+
+        capacity = aCapacity;
+        tolerance = aTolerance;
+        ttl = aTtl;
+        entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, Entry> aEldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Computes the difference hash of a grayscale image: every bit tells
+     * whether a pixel of a 9x8 thumbnail is brighter than its right neighbour.
+     *
+     * @param aGray 8-bit grayscale image
+     * @return 64-bit hash
+     */
+    public static long hash(final Mat aGray) {
+
+        Mat thumbnail = new Mat();
+        Size size = new Size(HASH_WIDTH, HASH_HEIGHT);
+        byte[] pixels = new byte[HASH_WIDTH * HASH_HEIGHT];
+        try {
+            opencv_imgproc.resize(aGray, thumbnail, size, 0, 0, opencv_imgproc.INTER_AREA);
+            thumbnail.data().get(pixels);
+        } finally {
+            thumbnail.deallocate();
+            size.deallocate();
+        }
+
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                int left = pixels[y * HASH_WIDTH + x] & 0xFF;
+                int right = pixels[y * HASH_WIDTH + x + 1] & 0xFF;
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Looks up the prediction of the closest matching face.
+     *
+     * @param aHash face hash
+     * @param aNow current time, in ms
+     * @param aLabel predicted label
+     * @param aConfidence prediction confidence
+     * @return true if a matching face has been predicted within the time to live
+     */
+    public synchronized boolean lookup(final long aHash, final long aNow, final int[] aLabel,
+            final double[] aConfidence) {
+
+        Entry match = entries.get(aHash);
+        if (null == match && tolerance > 0) {
+            int best = tolerance + 1;
+            Long bestKey = null;
+            for (Map.Entry<Long, Entry> e : entries.entrySet()) {
+                int distance = Long.bitCount(e.getKey() ^ aHash);
+                if (distance < best && aNow - e.getValue().predicted < ttl) {
+                    best = distance;
+                    bestKey = e.getKey();
+                }
+            }
+            // refresh the access order of the match
+            match = null == bestKey ? null : entries.get(bestKey);
+        }
+
+        if (null != match && aNow - match.predicted >= ttl) {
+            match = null;
+        }
+
+        if (null == match) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        aLabel[0] = match.label;
+        aConfidence[0] = match.confidence;
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stores the prediction of a face and removes expired entries.
+     *
+     * @param aHash face hash
+     * @param aNow current time, in ms
+     * @param aLabel predicted label
+     * @param aConfidence prediction confidence
+     */
+    public synchronized void put(final long aHash, final long aNow, final int aLabel, final double aConfidence) {
+
+        // cheap sweep from the least recently used end; expired entries behind
+        // a live one are skipped by lookups until they are evicted
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext() && aNow - it.next().predicted >= ttl) {
+            it.remove();
+            evictions.incrementAndGet();
+        }
+
+        entries.put(aHash, new Entry(aLabel, aConfidence, aNow));
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of reused predictions
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of predictions which had to be made
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of evicted or expired entries
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,61 @@
+package utils;
+
+import java.io.IOException;
+
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.MatVector;
+
+/**
+ * A face recognition algorithm, either a native OpenCV recognizer or one
+ * implemented in Java. Predictions may run concurrently with each other, but
+ * not with training, updates or loading.
+ */
+public interface RecognizerEngine {
+
+    /**
+     * Trains a new model, discarding the current one.
+     *
+     * @param aImages grayscale training images
+     * @param aLabels labels of the training images, one CV_32SC1 row each
+     */
+    void train(MatVector aImages, Mat aLabels);
+
+    /**
+     * Adds training images to the current model, if the algorithm supports it.
+     *
+     * @param aImages grayscale training images
+     * @param aLabels labels of the training images, one CV_32SC1 row each
+     */
+    void update(MatVector aImages, Mat aLabels);
+
+    /**
+     * Predicts the label of a face.
+     *
+     * @param aFace grayscale face
+     * @param aLabel predicted label
+     * @param aConfidence prediction confidence, the distance to the closest
+     *            training image
+     */
+    void predict(Mat aFace, int[] aLabel, double[] aConfidence);
+
+    /**
+     * Saves the model in the OpenCV storage format.
+     *
+     * @param aFile model file, whose extension selects the format
+     * @throws IOException exception
+     */
+    void save(String aFile) throws IOException;
+
+    /**
+     * Replaces the model with a saved one.
+     *
+     * @param aFile model file
+     * @throws IOException exception
+     */
+    void load(String aFile) throws IOException;
+
+    /**
+     * Releases the model. The engine must not be used afterwards.
+     */
+    void release();
+}
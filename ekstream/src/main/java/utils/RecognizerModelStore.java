@@ -0,0 +1,182 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+/**
+ * Stores trained face recognizer models on disk, keyed by the recognition
+ * algorithm and a fingerprint of the training set and image size, so that an
+ * unchanged training set never has to be trained again. Models are scoped to
+ * their owner, e.g. a processor instance, which never loads or deletes the
+ * models of another owner sharing the folder.
+ */
+public final class RecognizerModelStore {
+
+    /** Extension of model files, which also selects the OpenCV storage format. */
+    private static final String EXTENSION = ".yml";
+
+    /** Number of hex digits of the fingerprint kept in file names. */
+    private static final int FINGERPRINT_LENGTH = 16;
+
+    /** Folder with model files. */
+    private final File modelDir;
+
+    /** Owner of the models, which prefixes their file names. */
+    private final String scope;
+
+    /** Width training images are resized to. */
+    private final int width;
+
+    /** Height training images are resized to. */
+    private final int height;
+
+    /**
+     * Constructor.
+     *
+     * @param aModelDir folder with model files, created if missing
+     * @param aScope owner of the models, e.g. a processor identifier
+     * @param aWidth width training images are resized to
+     * @param aHeight height training images are resized to
+     */
+    public RecognizerModelStore(final String aModelDir, final String aScope, final int aWidth, final int aHeight) {
+        modelDir = new File(aModelDir);
+        modelDir.mkdirs();
+        scope = aScope;
+        width = aWidth;
+        height = aHeight;
+    }
+
+    /**
+     * Computes a fingerprint of a training set from the name, size and
+     * modification time of every image, together with the algorithm and the
+     * size images are resized to.
+     *
+     * @param aImageFiles training images
+     * @param aAlgorithm face recognition algorithm
+     * @return hex fingerprint
+     */
+    public String fingerprint(final File[] aImageFiles, final String aAlgorithm) {
+
+        File[] files = aImageFiles.clone();
+        Arrays.sort(files, Comparator.comparing(File::getName));
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        digest.update((aAlgorithm + ";" + width + "x" + height + "\n").getBytes(StandardCharsets.UTF_8));
+        for (File file : files) {
+            digest.update((file.getName() + ";" + file.length() + ";" + file.lastModified() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(String.format("%02x", b));
+        }
+        return result.substring(0, FINGERPRINT_LENGTH);
+    }
+
+    /**
+     * Returns the model file for an algorithm and training set fingerprint.
+     *
+     * @param aAlgorithm face recognition algorithm
+     * @param aFingerprint training set fingerprint
+     * @return model file, which may not exist yet
+     */
+    public File getModelFile(final String aAlgorithm, final String aFingerprint) {
+        return new File(modelDir, prefix(aAlgorithm) + width + "x" + height + "-" + aFingerprint + EXTENSION);
+    }
+
+    /**
+     * Finds the most recently saved model of this owner for an algorithm and
+     * the current image size, whatever training set it was built from.
+     *
+     * @param aAlgorithm face recognition algorithm
+     * @return model file, or null if there is none
+     */
+    public File findLatest(final String aAlgorithm) {
+
+        String size = width + "x" + height + "-";
+        File[] models = modelDir.listFiles((aDir, aName) -> isModel(aAlgorithm, aName)
+                && aName.startsWith(prefix(aAlgorithm) + size));
+        if (null == models || models.length == 0) {
+            return null;
+        }
+        return Arrays.stream(models).max(Comparator.comparingLong(File::lastModified)).get();
+    }
+
+    /**
+     * Loads a model into an untrained recognizer.
+     *
+     * @param aRecognizer untrained recognizer of the right algorithm
+     * @param aModelFile model file
+     * @return the given recognizer
+     * @throws IOException exception
+     */
+    public RecognizerEngine load(final RecognizerEngine aRecognizer, final File aModelFile) throws IOException {
+        aRecognizer.load(aModelFile.getAbsolutePath());
+        return aRecognizer;
+    }
+
+    /**
+     * Saves a trained model, atomically replacing any older model of this
+     * owner for the same algorithm, whatever its image size.
+     *
+     * @param aRecognizer trained recognizer
+     * @param aAlgorithm face recognition algorithm
+     * @param aModelFile model file
+     * @throws IOException exception
+     */
+    public void save(final RecognizerEngine aRecognizer, final String aAlgorithm, final File aModelFile)
+            throws IOException {
+
+        File temp = new File(modelDir, "." + aModelFile.getName().replace(EXTENSION, "") + ".tmp" + EXTENSION);
+        aRecognizer.save(temp.getAbsolutePath());
+        Files.move(temp.toPath(), aModelFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        File[] stale = modelDir.listFiles((aDir, aName) -> isModel(aAlgorithm, aName)
+                && !aName.equals(aModelFile.getName()));
+        if (null != stale) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Checks whether a file name denotes a model of this owner for an
+     * algorithm, of any image size.
+     *
+     * @param aAlgorithm face recognition algorithm
+     * @param aName file name
+     * @return true for model files of the algorithm
+     */
+    private boolean isModel(final String aAlgorithm, final String aName) {
+        return aName.matches(Pattern.quote(prefix(aAlgorithm)) + "[0-9]+x[0-9]+-[0-9a-f]{" + FINGERPRINT_LENGTH
+                + "}" + Pattern.quote(EXTENSION));
+    }
+
+    /**
+     * Returns the start of the file names of the models of this owner for an
+     * algorithm.
+     *
+     * @param aAlgorithm face recognition algorithm
+     * @return file name prefix
+     */
+    private String prefix(final String aAlgorithm) {
+        return scope + "-" + aAlgorithm + "-";
+    }
+}
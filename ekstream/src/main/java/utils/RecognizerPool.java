@@ -0,0 +1,101 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed set of identical face recognizer replicas, so that parallel
+ * predictions do not all go through the same native model. Every replica is
+ * a {@link HotSwapRecognizer} and is published and updated by the training
+ * thread one after another; a replica is used by one worker at a time.
+ */
+public final class RecognizerPool {
+
+    /** All replicas. */
+    private final List<HotSwapRecognizer> replicas;
+
+    /** Replicas not currently used by a worker. */
+    private final BlockingQueue<HotSwapRecognizer> idle;
+
+    /**
+     * Constructor.
+     *
+     * @param aSize number of replicas, normally the number of workers
+     */
+    public RecognizerPool(final int aSize) {
+
+        int size = Math.max(1, aSize);
+        replicas = new ArrayList<HotSwapRecognizer>(size);
+        idle = new ArrayBlockingQueue<HotSwapRecognizer>(size);
+
+        for (int i = 0; i < size; i++) {
+            HotSwapRecognizer replica = new HotSwapRecognizer();
+            replicas.add(replica);
+            idle.add(replica);
+        }
+    }
+
+    /**
+     * Checks whether a model has been published to every replica.
+     *
+     * @return true if predictions can be made
+     */
+    public boolean isReady() {
+        for (HotSwapRecognizer replica : replicas) {
+            if (!replica.isReady()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes an idle replica, waiting for one if all of them are in use.
+     *
+     * @return replica, to be handed back with {@link #release(HotSwapRecognizer)}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public HotSwapRecognizer acquire() throws InterruptedException {
+        return idle.take();
+    }
+
+    /**
+     * Hands a replica obtained from {@link #acquire()} back to the pool.
+     *
+     * @param aReplica replica
+     */
+    public void release(final HotSwapRecognizer aReplica) {
+        idle.add(aReplica);
+    }
+
+    /**
+     * Returns a replica by index, e.g. to publish a model to it or to share it
+     * between threads outside of a batch.
+     *
+     * @param aIndex replica index
+     * @return replica
+     */
+    public HotSwapRecognizer get(final int aIndex) {
+        return replicas.get(aIndex);
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of replicas
+     */
+    public int size() {
+        return replicas.size();
+    }
+
+    /**
+     * Releases the native models of all replicas.
+     */
+    public void release() {
+        for (HotSwapRecognizer replica : replicas) {
+            replica.release();
+        }
+    }
+}
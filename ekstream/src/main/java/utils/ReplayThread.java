@@ -0,0 +1,247 @@
+package utils;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.nifi.logging.ComponentLog;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber.Exception;
+
+/**
+ * A background thread which decodes video files and feeds their frames into a
+ * ring buffer, like {@link CaptureThread} does for a camera. Frames are either
+ * replayed as fast as possible, in which case the thread waits for room in the
+ * buffer so that no frame is lost, or paced by their timestamps at a given
+ * speed, in which case the oldest frames are dropped like those of a live
+ * camera. Buffered frames are stamped with the wall-clock time they were
+ * decoded at. Looping stops if a whole pass yields no frame.
+ */
+public final class ReplayThread implements FrameSource, Runnable {
+
+    /** Thread running the replay loop. */
+    private final Thread thread;
+
+    /** Video files, replayed in order. */
+    private final List<File> files;
+
+    /** Buffer receiving decoded frames. */
+    private final FrameRingBuffer<Frame> buffer;
+
+    /** Replay speed relative to real time, 0 for as fast as possible. */
+    private final double speed;
+
+    /** Every how many decoded frames one is buffered. */
+    private final int step;
+
+    /** Whether only key frames are decoded. */
+    private final boolean keyFramesOnly;
+
+    /** Whether the files are replayed again after the last one. */
+    private final boolean loop;
+
+    /** Minimum interval between two buffered frames, in ms. */
+    private final long interval;
+
+    /** Logger of the owning processor. */
+    private final ComponentLog logger;
+
+    /** Running flag. */
+    private volatile boolean running = true;
+
+    /** Whether all files have been replayed. */
+    private volatile boolean finished;
+
+    /**
+     * Constructor.
+     *
+     * @param aFiles video files, replayed in order
+     * @param aBuffer destination buffer
+     * @param aSpeed replay speed relative to real time, 0 for as fast as
+     *            possible
+     * @param aStep every how many decoded frames one is buffered
+     * @param aKeyFramesOnly whether only key frames are decoded
+     * @param aLoop whether the files are replayed again after the last one
+     * @param aLogger logger of the owning processor
+     */
+    public ReplayThread(final List<File> aFiles, final FrameRingBuffer<Frame> aBuffer, final double aSpeed,
+            final int aStep, final boolean aKeyFramesOnly, final boolean aLoop, final ComponentLog aLogger) {
+        this(aFiles, aBuffer, aSpeed, aStep, aKeyFramesOnly, aLoop, 0, "ekstream-replay", false, aLogger);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aFiles video files, replayed in order
+     * @param aBuffer destination buffer
+     * @param aSpeed replay speed relative to real time, 0 for as fast as
+     *            possible
+     * @param aStep every how many decoded frames one is buffered
+     * @param aKeyFramesOnly whether only key frames are decoded
+     * @param aLoop whether the files are replayed again after the last one
+     * @param aInterval minimum interval between buffered frames, in ms
+     * @param aName thread name
+     * @param aVirtual whether to replay on a virtual thread, if supported
+     * @param aLogger logger of the owning processor
+     */
+    public ReplayThread(final List<File> aFiles, final FrameRingBuffer<Frame> aBuffer, final double aSpeed,
+            final int aStep, final boolean aKeyFramesOnly, final boolean aLoop, final long aInterval,
+            final String aName, final boolean aVirtual, final ComponentLog aLogger) {
+        files = aFiles;
+        buffer = aBuffer;
+        speed = aSpeed;
+        step = Math.max(1, aStep);
+        keyFramesOnly = aKeyFramesOnly;
+        loop = aLoop;
+        interval = aInterval;
+        logger = aLogger;
+        thread = VirtualThreads.newThread(this, aName, aVirtual);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+
+        try {
+            long frames;
+            do {
+                frames = 0;
+                for (File file : files) {
+                    if (!running) {
+                        break;
+                    }
+                    frames += replay(file);
+                }
+            } while (running && loop && frames > 0);
+        } catch (InterruptedException e) {
+            // stopped while waiting for room or for the next frame
+        } finally {
+            finished = true;
+        }
+    }
+
+    /**
+     * Replays a single video file.
+     *
+     * @param aFile video file
+     * @return number of buffered frames
+     * @throws InterruptedException if stopped while waiting
+     */
+    private long replay(final File aFile) throws InterruptedException {
+
+        long buffered = 0;
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(aFile);
+        try {
+            grabber.start();
+
+            long index = 0;
+            long first = -1;
+            long started = 0;
+            long lastFrame = 0;
+
+            while (running) {
+
+                Frame frame = keyFramesOnly ? grabber.grabKeyFrame() : grabber.grabImage();
+                if (null == frame) {
+                    break;
+                }
+                if (null == frame.image || index++ % step != 0) {
+                    continue;
+                }
+
+                if (speed > 0) {
+                    // sleep until the frame is due, measured from the first
+                    // frame of the file by the stream position
+                    long position = grabber.getTimestamp();
+                    if (first < 0) {
+                        first = position;
+                        started = System.nanoTime();
+                    }
+                    long due = started + (long) (TimeUnit.MICROSECONDS.toNanos(position - first) / speed);
+                    long delay = due - System.nanoTime();
+                    if (delay > 0) {
+                        TimeUnit.NANOSECONDS.sleep(delay);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastFrame < interval) {
+                    continue;
+                }
+                lastFrame = now;
+
+                // the grabber reuses its frame, so buffer a copy stamped with
+                // the wall-clock decoding time, in microseconds
+                Frame copy = frame.clone();
+                copy.timestamp = StageMetrics.nowMicros();
+                if (speed > 0) {
+                    buffer.offer(copy);
+                } else {
+                    buffer.put(copy);
+                }
+                buffered++;
+            }
+        } catch (Exception e) {
+            logger.error("Something went wrong with replaying " + aFile + "!", e);
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception e) {
+                logger.error("Something went wrong with stopping the video grabber!", e);
+            }
+        }
+        return buffered;
+    }
+
+    /**
+     * Stops replaying and waits for the grabber to be released.
+     */
+    @Override
+    public void shutdown() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        buffer.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCapturing() {
+        return !finished;
+    }
+
+    /**
+     * Getter.
+     *
+     * @return true once all files have been replayed, and not looped
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FrameRingBuffer<Frame> getBuffer() {
+        return buffer;
+    }
+}
@@ -0,0 +1,222 @@
+package utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-stage latency statistics of a processor: a histogram for every
+ * recorded metric, e.g. the queue wait and processing time of a stage or the
+ * end-to-end latency, together with the number of flow files per interval
+ * and the number of SLA violations.
+ *
+ * Stage timestamps come from {@link #nowMicros()}, a microsecond wall clock
+ * which advances with {@link System#nanoTime()}, so that timestamps taken by
+ * different processors of the same JVM can be subtracted from each other.
+ * The most recent end-to-end latencies are also smoothed per capturing
+ * processor, so that a capture processor can slow down when the recognition
+ * of its own frames lags, whatever other pipelines of the JVM do.
+ */
+public final class StageMetrics {
+
+    /** Wall-clock time at class initialisation, in microseconds. */
+    private static final long EPOCH_MICROS = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+
+    /** Monotonic time at class initialisation, in nanoseconds. */
+    private static final long EPOCH_NANOS = System.nanoTime();
+
+    /** Weight of a new end-to-end latency in the smoothed one, as a shift. */
+    private static final int SMOOTHING_SHIFT = 3;
+
+    /** Smoothed end-to-end latencies by capturing processor. */
+    private static final Map<String, RecentLatency> RECENT_END_TO_END =
+            new ConcurrentHashMap<String, RecentLatency>();
+
+    /**
+     * The smoothed end-to-end latency of the frames of one capturing
+     * processor.
+     */
+    private static final class RecentLatency {
+
+        /** Smoothed latency, in microseconds. */
+        private final AtomicLong value = new AtomicLong(-1);
+
+        /** Time the smoothed latency was last updated, in microseconds. */
+        private volatile long updatedAt;
+    }
+
+    /** Histograms by metric name. */
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /** Number of flow files of the current interval. */
+    private final AtomicLong processed = new AtomicLong();
+
+    /** Number of end-to-end latencies above the SLA. */
+    private final AtomicLong violations = new AtomicLong();
+
+    /** End-to-end latency SLA, in microseconds, 0 for none. */
+    private final long sla;
+
+    /** Start of the current interval, in microseconds. */
+    private long intervalStart = nowMicros();
+
+    /**
+     * Constructor.
+     *
+     * @param aSla end-to-end latency SLA, in microseconds, 0 for none
+     */
+    public StageMetrics(final long aSla) {
+        sla = aSla;
+    }
+
+    /**
+     * Returns the current time with microsecond resolution.
+     *
+     * @return microseconds since the epoch
+     */
+    public static long nowMicros() {
+        return EPOCH_MICROS + (System.nanoTime() - EPOCH_NANOS) / 1000L;
+    }
+
+    /**
+     * Records a value of a metric.
+     *
+     * @param aMetric metric name, e.g. "detect.wait"
+     * @param aMicros value, in microseconds
+     */
+    public void record(final String aMetric, final long aMicros) {
+        histograms.computeIfAbsent(aMetric, k -> new LatencyHistogram()).record(aMicros);
+    }
+
+    /**
+     * Records the end-to-end latency of a flow file.
+     *
+     * @param aMicros latency, in microseconds
+     * @param aSource identifier of the processor which captured the frame, or
+     *            null if unknown
+     * @return true if the latency is above the SLA
+     */
+    public boolean recordEndToEnd(final long aMicros, final String aSource) {
+
+        record("end-to-end", aMicros);
+        if (null != aSource) {
+            RecentLatency recent = RECENT_END_TO_END.computeIfAbsent(aSource, k -> new RecentLatency());
+            recent.value.updateAndGet(v -> v < 0 ? aMicros : v + ((aMicros - v) >> SMOOTHING_SHIFT));
+            recent.updatedAt = nowMicros();
+        }
+        if (sla > 0 && aMicros > sla) {
+            violations.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the end-to-end latency recently recorded for the frames of a
+     * capturing processor, smoothed over the last few flow files.
+     *
+     * @param aSource identifier of the capturing processor
+     * @param aMaxAge maximum age of the last record, in microseconds
+     * @return smoothed latency, in microseconds, or -1 if nothing has been
+     *         recorded within the maximum age
+     */
+    public static long getRecentEndToEnd(final String aSource, final long aMaxAge) {
+        RecentLatency recent = RECENT_END_TO_END.get(aSource);
+        return null == recent || nowMicros() - recent.updatedAt > aMaxAge ? -1 : recent.value.get();
+    }
+
+    /**
+     * Forgets the end-to-end latency of a capturing processor, e.g. when it
+     * stops.
+     *
+     * @param aSource identifier of the capturing processor
+     */
+    public static void clearRecentEndToEnd(final String aSource) {
+        RECENT_END_TO_END.remove(aSource);
+    }
+
+    /**
+     * Counts a processed flow file for the throughput.
+     */
+    public void count() {
+        processed.incrementAndGet();
+    }
+
+    /**
+     * Summarises the current interval and starts a new one.
+     *
+     * @return summary of the interval with the throughput and the percentiles
+     *         of every metric, or null if nothing has been recorded
+     */
+    public synchronized Report report() {
+
+        long now = nowMicros();
+        double seconds = Math.max(1, now - intervalStart) / 1e6;
+        intervalStart = now;
+
+        StringBuilder text = new StringBuilder();
+        long count = processed.getAndSet(0);
+        long violated = violations.getAndSet(0);
+        text.append(String.format("throughput=%.2f/s over %.0f s", count / seconds, seconds));
+        if (sla > 0) {
+            text.append(", SLA violations=").append(violated);
+        }
+
+        boolean empty = count == 0;
+        for (Map.Entry<String, LatencyHistogram> e : new TreeMap<String, LatencyHistogram>(histograms).entrySet()) {
+            LatencyHistogram.Snapshot s = e.getValue().reset();
+            if (s.getCount() == 0) {
+                continue;
+            }
+            empty = false;
+            text.append(String.format("%n%s: n=%d p50=%.3f ms p99=%.3f ms p999=%.3f ms max=%.3f ms", e.getKey(),
+                    s.getCount(), s.getValueAtPercentile(50) / 1e3, s.getValueAtPercentile(99) / 1e3,
+                    s.getValueAtPercentile(99.9) / 1e3, s.getMax() / 1e3));
+        }
+
+        return empty ? null : new Report(text.toString(), violated);
+    }
+
+    /**
+     * A summary of one interval.
+     */
+    public static final class Report {
+
+        /** Human-readable summary. */
+        private final String text;
+
+        /** Number of SLA violations. */
+        private final long violations;
+
+        /**
+         * Constructor.
+         *
+         * @param aText human-readable summary
+         * @param aViolations number of SLA violations
+         */
+        private Report(final String aText, final long aViolations) {
+            text = aText;
+            violations = aViolations;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return human-readable summary
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Getter.
+         *
+         * @return number of SLA violations
+         */
+        public long getViolations() {
+            return violations;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the predicted label and confidence of each face track, so that a
+ * person who stays in view is only recognised once per refresh interval
+ * rather than once per frame.
+ */
+public final class TrackCache {
+
+    /**
+     * A cached prediction.
+     */
+    private static final class Entry {
+
+        /** Predicted label. */
+        private final int label;
+
+        /** Prediction confidence. */
+        private final double confidence;
+
+        /** Prediction time, in ms. */
+        private final long predicted;
+
+        /**
+         * Constructor.
+         *
+         * @param aLabel predicted label
+         * @param aConfidence prediction confidence
+         * @param aPredicted prediction time, in ms
+         */
+        private Entry(final int aLabel, final double aConfidence, final long aPredicted) {
+            label = aLabel;
+            confidence = aConfidence;
+            predicted = aPredicted;
+        }
+    }
+
+    /** Predictions by track identifier. */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** Time after which a prediction is repeated, in ms. */
+    private final long refresh;
+
+    /** Time of the last removal of expired predictions, in ms. */
+    private volatile long lastSweep;
+
+    /** Number of reused predictions. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** Number of predictions which had to be made. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param aRefresh time after which a prediction is repeated, in ms
+     */
+    public TrackCache(final long aRefresh) {
+        refresh = aRefresh;
+    }
+
+    /**
+     * Looks up a recent prediction for a track.
+     *
+     * @param aTrack track identifier, may be null
+     * @param aNow current time, in ms
+     * @param aLabel predicted label
+     * @param aConfidence prediction confidence
+     * @return true if a prediction younger than the refresh interval was found
+     */
+    public boolean lookup(final String aTrack, final long aNow, final int[] aLabel, final double[] aConfidence) {
+
+        Entry entry = null == aTrack ? null : entries.get(aTrack);
+        if (null == entry || aNow - entry.predicted >= refresh) {
+            misses.incrementAndGet();
+            return false;
+        }
+
+        aLabel[0] = entry.label;
+        aConfidence[0] = entry.confidence;
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Stores the prediction for a track, and removes expired predictions of
+     * lost tracks once per refresh interval.
+     *
+     * @param aTrack track identifier, may be null
+     * @param aNow current time, in ms
+     * @param aLabel predicted label
+     * @param aConfidence prediction confidence
+     */
+    public void put(final String aTrack, final long aNow, final int aLabel, final double aConfidence) {
+
+        if (null == aTrack) {
+            return;
+        }
+        entries.put(aTrack, new Entry(aLabel, aConfidence, aNow));
+
+        if (aNow - lastSweep >= refresh) {
+            lastSweep = aNow;
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (aNow - it.next().predicted >= refresh) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of reused predictions
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Getter.
+     *
+     * @return number of predictions which had to be made
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -1,9 +1,11 @@
 package utils;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 
@@ -14,35 +16,36 @@ import org.bytedeco.javacpp.helper.opencv_core.AbstractIplImage;
 import org.bytedeco.javacpp.opencv_core.CvRect;
 import org.bytedeco.javacpp.opencv_core.IplImage;
 import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.Rect;
+import org.bytedeco.javacpp.opencv_core.Size;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 
 /**
- * Utility class.
+ * Utility class. It is safe to use from concurrent processor tasks: each
+ * thread converts with its own converter instances, since these keep
+ * internal reusable buffers. Images and frames returned by the conversion
+ * methods may share such a buffer, and stay valid until the same thread
+ * converts again.
  */
 public final class Utils {
 
-    /** Converter for IplImages. */
-    private static OpenCVFrameConverter.ToIplImage imageConverter;
-
-    /** Converter for Mats. */
-    //private static OpenCVFrameConverter.ToMat matConverter;
-
-    /** Converter for byte arrays. */
-    private static Java2DFrameConverter byteConverter;
+    /** Converters for IplImages, one per thread. */
+    private static final ThreadLocal<OpenCVFrameConverter.ToIplImage> IMAGE_CONVERTER =
+            ThreadLocal.withInitial(OpenCVFrameConverter.ToIplImage::new);
 
+    /** Converters for buffered images, one per thread. */
+    private static final ThreadLocal<Java2DFrameConverter> BYTE_CONVERTER =
+            ThreadLocal.withInitial(Java2DFrameConverter::new);
 
     /** Singleton instance of the Utils class. */
-    private static Utils instance;
+    private static final Utils INSTANCE = new Utils();
 
     /**
      * Constructor.
      */
     private Utils() {
-        imageConverter = new OpenCVFrameConverter.ToIplImage();
-        byteConverter = new Java2DFrameConverter();
-        //matConverter = new OpenCVFrameConverter.ToMat();
     }
 
     /**
@@ -50,11 +53,26 @@ public final class Utils {
      *
      * @return singleton instance
      */
-    public static synchronized Utils getInstance() {
-        if (instance == null) {
-            instance = new Utils();
-        }
-        return instance;
+    public static Utils getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the IplImage converter of the calling thread.
+     *
+     * @return converter
+     */
+    private static OpenCVFrameConverter.ToIplImage imageConverter() {
+        return IMAGE_CONVERTER.get();
+    }
+
+    /**
+     * Returns the buffered image converter of the calling thread.
+     *
+     * @return converter
+     */
+    private static Java2DFrameConverter byteConverter() {
+        return BYTE_CONVERTER.get();
     }
 
     /**
@@ -66,44 +84,119 @@ public final class Utils {
      * @param aW t
      * @param aH t
      * @return t
+     * @deprecated allocates a new image per call, use
+     *             {@link #cropImage(IplImage, CvRect, ImagePool)} instead
      */
+    @Deprecated
     public IplImage cropImage(final IplImage aImage,
             final int aX, final int aY, final int aW, final int aH) {
 
-        // IplImage orig = cvLoadImage("orig.png");
-        // Creating rectangle by which bounds image will be cropped
-        CvRect r = new CvRect(aX, aY, aW, aH);
-        // After setting ROI (Region-Of-Interest) all processing will only be
-        // done on the ROI
-        opencv_core.cvSetImageROI(aImage, r);
-        IplImage cropped = opencv_core.cvCreateImage(opencv_core.cvGetSize(aImage),
-                aImage.depth(), aImage.nChannels());
-        // Copy original image (only ROI) to the cropped image
-        opencv_core.cvCopy(aImage, cropped);
-
-        return cropped;
-
+        return cropImage(aImage, new CvRect(aX, aY, aW, aH));
     }
 
     /**
-     * Crops an image to a given rectangle.
+     * Crops an image to a given rectangle. The original image is left
+     * untouched.
      *
      * @param aImage original image
      * @param aRectangle rectangle
      * @return cropped image
+     * @deprecated allocates a new image per call, use
+     *             {@link #cropImage(IplImage, CvRect, ImagePool)} instead
      */
+    @Deprecated
     public IplImage cropImage(final IplImage aImage, final CvRect aRectangle) {
 
-        // After setting ROI (Region-Of-Interest) all processing will only be
-        // done on the ROI
-        opencv_core.cvSetImageROI(aImage, aRectangle);
-        IplImage cropped = opencv_core.cvCreateImage(opencv_core.cvGetSize(aImage),
-                aImage.depth(), aImage.nChannels());
-        // Copy original image (only ROI) to the cropped image
-        opencv_core.cvCopy(aImage, cropped);
+        return copyRectangle(aImage, aRectangle, opencv_core.cvCreateImage(
+                opencv_core.cvSize(aRectangle.width(), aRectangle.height()), aImage.depth(), aImage.nChannels()));
+    }
 
-        return cropped;
+    /**
+     * Crops an image to a given rectangle, into a buffer taken from a pool.
+     * The original image is left untouched.
+     *
+     * @param aImage original image
+     * @param aRectangle rectangle
+     * @param aPool buffer pool
+     * @return cropped image, to be released to the pool
+     */
+    public IplImage cropImage(final IplImage aImage, final CvRect aRectangle, final ImagePool aPool) {
 
+        return copyRectangle(aImage, aRectangle,
+                aPool.acquireImage(aRectangle.width(), aRectangle.height(), aImage.depth(), aImage.nChannels()));
+    }
+
+    /**
+     * Copies a rectangle of an image into another image of the rectangle's
+     * size.
+     *
+     * @param aImage original image
+     * @param aRectangle rectangle
+     * @param aTarget target image
+     * @return target image
+     */
+    private IplImage copyRectangle(final IplImage aImage, final CvRect aRectangle, final IplImage aTarget) {
+
+        Mat frame = opencv_core.cvarrToMat(aImage);
+        Mat view = cropView(frame, aRectangle);
+        Mat target = opencv_core.cvarrToMat(aTarget);
+        view.copyTo(target);
+        target.deallocate();
+        view.deallocate();
+        frame.deallocate();
+
+        return aTarget;
+    }
+
+    /**
+     * Returns a view of a rectangle of an image, sharing its pixels. Neither
+     * the image nor its ROI are modified, so several views of one image can be
+     * used concurrently.
+     *
+     * @param aImage original image
+     * @param aRectangle rectangle
+     * @return sub-matrix header over the original pixels
+     */
+    public Mat cropView(final Mat aImage, final CvRect aRectangle) {
+
+        Rect roi = new Rect(aRectangle.x(), aRectangle.y(), aRectangle.width(), aRectangle.height());
+        Mat view = new Mat(aImage, roi);
+        roi.deallocate();
+        return view;
+    }
+
+    /**
+     * Resizes rectangles of an image straight into buffers taken from a pool,
+     * without copying the rectangles out first. The original image is left
+     * untouched.
+     *
+     * @param aImage original image
+     * @param aRectangles rectangles, e.g. detected faces
+     * @param aWidth image width
+     * @param aHeight image height
+     * @param aPool buffer pool
+     * @return an array of resized images, to be released to the pool
+     */
+    public ArrayList<IplImage> resizeImages(final IplImage aImage, final List<CvRect> aRectangles,
+            final int aWidth, final int aHeight, final ImagePool aPool) {
+
+        ArrayList<IplImage> result = new ArrayList<IplImage>(aRectangles.size());
+        Mat frame = opencv_core.cvarrToMat(aImage);
+        Size size = new Size(aWidth, aHeight);
+
+        for (CvRect r : aRectangles) {
+            Mat view = cropView(frame, r);
+            IplImage resized = aPool.acquireImage(aWidth, aHeight, aImage.depth(), aImage.nChannels());
+            Mat target = opencv_core.cvarrToMat(resized);
+            opencv_imgproc.resize(view, target, size, 0, 0, opencv_imgproc.INTER_CUBIC);
+            target.deallocate();
+            view.deallocate();
+            result.add(resized);
+        }
+
+        size.deallocate();
+        frame.deallocate();
+        return result;
     }
 
     /**
@@ -131,7 +224,30 @@ public final class Utils {
      */
     public Mat convertToGrayscale(final Mat aMat) {
 
-        final Mat result = aMat.clone();
+        if (aMat.channels() == 1) {
+            return aMat;
+        }
+
+        final Mat result = new Mat();
+        opencv_imgproc.cvtColor(aMat, result, opencv_imgproc.CV_RGB2GRAY);
+        return result;
+    }
+
+    /**
+     * Converts an image into grayscale, into a buffer taken from a pool.
+     *
+     * @param aMat original image
+     * @param aPool buffer pool
+     * @return grayscale image, to be released to the pool, or the original
+     *         image if it is grayscale already
+     */
+    public Mat convertToGrayscale(final Mat aMat, final ImagePool aPool) {
+
+        if (aMat.channels() == 1) {
+            return aMat;
+        }
+
+        final Mat result = aPool.acquireMat(aMat.rows(), aMat.cols(), opencv_core.CV_8UC1);
         opencv_imgproc.cvtColor(aMat, result, opencv_imgproc.CV_RGB2GRAY);
         return result;
     }
@@ -143,7 +259,10 @@ public final class Utils {
      * @param aWidth image width
      * @param aHeight image height
      * @return resized image
+     * @deprecated allocates a new image per call, use
+     *             {@link #resizeImage(IplImage, int, int, ImagePool)} instead
      */
+    @Deprecated
     public IplImage resizeImage(final IplImage aImage, final int aWidth, final int aHeight) {
 
         IplImage result = AbstractIplImage.create(aWidth, aHeight,
@@ -153,6 +272,24 @@ public final class Utils {
         return result;
     }
 
+    /**
+     * Resizes a single image into a buffer taken from a pool.
+     *
+     * @param aImage original image
+     * @param aWidth image width
+     * @param aHeight image height
+     * @param aPool buffer pool
+     * @return resized image, to be released to the pool
+     */
+    public IplImage resizeImage(final IplImage aImage, final int aWidth, final int aHeight,
+            final ImagePool aPool) {
+
+        IplImage result = aPool.acquireImage(aWidth, aHeight, aImage.depth(), aImage.nChannels());
+        opencv_imgproc.cvResize(aImage, result, opencv_imgproc.CV_INTER_CUBIC);
+
+        return result;
+    }
+
     /**
      * Resizes and returns resized images.
      *
@@ -160,7 +297,10 @@ public final class Utils {
      * @param aWidth image width
      * @param aHeight image height
      * @return an array of resized images
+     * @deprecated allocates new images per call, use
+     *             {@link #resizeImages(ArrayList, int, int, ImagePool)} instead
      */
+    @Deprecated
     public ArrayList<IplImage> resizeImages(final ArrayList<IplImage> aImages,
             final int aWidth, final int aHeight) {
 
@@ -173,6 +313,27 @@ public final class Utils {
         return result;
     }
 
+    /**
+     * Resizes images into buffers taken from a pool.
+     *
+     * @param aImages original images
+     * @param aWidth image width
+     * @param aHeight image height
+     * @param aPool buffer pool
+     * @return an array of resized images, to be released to the pool
+     */
+    public ArrayList<IplImage> resizeImages(final ArrayList<IplImage> aImages,
+            final int aWidth, final int aHeight, final ImagePool aPool) {
+
+        ArrayList<IplImage> result = new ArrayList<IplImage>(aImages.size());
+
+        for (IplImage image : aImages) {
+            result.add(resizeImage(image, aWidth, aHeight, aPool));
+        }
+
+        return result;
+    }
+
     /**
      * Converts a JavaCV frame into a JavaCV image.
      *
@@ -181,7 +342,7 @@ public final class Utils {
      */
     public IplImage convertToImage(final Frame aFrame) {
 
-        return imageConverter.convert(aFrame);
+        return imageConverter().convert(aFrame);
     }
 
     /**
@@ -192,7 +353,7 @@ public final class Utils {
      */
     public Frame convertToFrame(final IplImage aImage) {
 
-        return imageConverter.convert(aImage);
+        return imageConverter().convert(aImage);
     }
 
     /**
@@ -204,7 +365,7 @@ public final class Utils {
      */
     public byte[] convertToByteArray(final IplImage aImage) throws IOException {
 
-        BufferedImage result = byteConverter.convert(imageConverter.convert(aImage));
+        BufferedImage result = byteConverter().convert(imageConverter().convert(aImage));
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ImageIO.write(result, "png", baos);
         baos.flush();
@@ -223,7 +384,7 @@ public final class Utils {
      */
     public byte[] convertToByteArray(final Frame aFrame) throws IOException {
 
-        BufferedImage result = byteConverter.convert(aFrame);
+        BufferedImage result = byteConverter().convert(aFrame);
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ImageIO.write(result, "png", baos);
         baos.flush();
@@ -242,7 +403,7 @@ public final class Utils {
      */
     public Frame convertToFrame(final BufferedImage aImage) throws IOException {
 
-        return byteConverter.convert(aImage);
+        return byteConverter().convert(aImage);
     }
 
     /**
@@ -254,7 +415,23 @@ public final class Utils {
      */
     public IplImage convertToImage(final BufferedImage aImage) throws IOException {
 
-        return imageConverter.convertToIplImage(byteConverter.convert(aImage));
+        return imageConverter().convertToIplImage(byteConverter().convert(aImage));
+    }
+
+    /**
+     * Decodes a byte array into a JavaCV image. Both raw frames and encoded
+     * images (e.g. PNG) are accepted.
+     *
+     * @param aBytes encoded image
+     * @return image
+     * @throws IOException exception
+     */
+    public IplImage convertToImage(final byte[] aBytes) throws IOException {
+
+        if (RawFrameCodec.isRawFrame(aBytes)) {
+            return RawFrameCodec.decodeImage(aBytes);
+        }
+        return convertToImage(readImage(aBytes));
     }
 
     /**
@@ -266,7 +443,7 @@ public final class Utils {
      */
     public IplImage convertToImage(final Mat aMat) throws IOException {
 
-        return imageConverter.convertToIplImage(imageConverter.convert(aMat));
+        return imageConverter().convertToIplImage(imageConverter().convert(aMat));
     }
 
     /**
@@ -278,7 +455,7 @@ public final class Utils {
      */
     public Mat convertToMat(final Frame aFrame) throws IOException {
 
-        return imageConverter.convertToMat(aFrame);
+        return imageConverter().convertToMat(aFrame);
     }
 
     /**
@@ -290,7 +467,39 @@ public final class Utils {
      */
     public Mat convertToMat(final IplImage aImage) throws IOException {
 
-        return imageConverter.convertToMat(convertToFrame(aImage));
+        return imageConverter().convertToMat(convertToFrame(aImage));
+    }
+
+    /**
+     * Decodes a byte array into a JavaCV mat. Both raw frames and encoded
+     * images (e.g. PNG) are accepted.
+     *
+     * @param aBytes encoded image
+     * @return JavaCV mat
+     * @throws IOException exception
+     */
+    public Mat convertToMat(final byte[] aBytes) throws IOException {
+
+        if (RawFrameCodec.isRawFrame(aBytes)) {
+            return RawFrameCodec.decodeMat(aBytes);
+        }
+        return convertToMat(convertToFrame(readImage(aBytes)));
+    }
+
+    /**
+     * Decodes an encoded image, e.g. PNG, into a buffered image.
+     *
+     * @param aBytes encoded image
+     * @return buffered image
+     * @throws IOException if the bytes are not an image of a known format
+     */
+    private static BufferedImage readImage(final byte[] aBytes) throws IOException {
+
+        BufferedImage result = ImageIO.read(new ByteArrayInputStream(aBytes));
+        if (null == result) {
+            throw new IOException("Not an image of a known format: " + aBytes.length + " bytes");
+        }
+        return result;
     }
 
     /**
@@ -0,0 +1,55 @@
+package utils;
+
+/**
+ * Creates threads for long-running background tasks, virtual ones where the
+ * JVM supports them. Virtual threads are created through reflection, so that
+ * the code still runs on JVMs without them.
+ */
+public final class VirtualThreads {
+
+    /**
+     * Constructor.
+     */
+    private VirtualThreads() {
+    }
+
+    /**
+     * Checks whether the JVM supports virtual threads.
+     *
+     * @return true if virtual threads are available
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates an unstarted thread.
+     *
+     * @param aTask task
+     * @param aName thread name
+     * @param aVirtual whether to create a virtual thread, if supported
+     * @return virtual thread, or daemon platform thread
+     */
+    public static Thread newThread(final Runnable aTask, final String aName, final boolean aVirtual) {
+
+        if (aVirtual) {
+            try {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                Object ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+                ofVirtual = builder.getMethod("name", String.class).invoke(ofVirtual, aName);
+                return (Thread) builder.getMethod("unstarted", Runnable.class).invoke(ofVirtual, aTask);
+            } catch (ReflectiveOperationException e) {
+                // fall back to a platform thread
+            }
+        }
+
+        Thread thread = new Thread(aTask, aName);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
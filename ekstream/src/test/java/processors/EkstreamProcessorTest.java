@@ -0,0 +1,50 @@
+package processors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.nifi.util.MockFlowFile;
+import org.junit.Test;
+
+/**
+ * Tests of {@link EkstreamProcessor}.
+ */
+public class EkstreamProcessorTest {
+
+	/**
+	 * Cameras of one capturing processor are told apart, as well as the same
+	 * camera id captured by different processors.
+	 */
+	@Test
+	public void identifiesCameras() {
+
+		assertEquals("", EkstreamProcessor.getCameraKey(frame(null, null)));
+		assertEquals("p1", EkstreamProcessor.getCameraKey(frame("p1", null)));
+		assertNotEquals(EkstreamProcessor.getCameraKey(frame("p1", "0")),
+				EkstreamProcessor.getCameraKey(frame("p1", "1")));
+		assertNotEquals(EkstreamProcessor.getCameraKey(frame("p1", "0")),
+				EkstreamProcessor.getCameraKey(frame("p2", "0")));
+	}
+
+	/**
+	 * @param aSource capturing processor, or null
+	 * @param aCamera camera id, or null
+	 * @return frame flow file
+	 */
+	private static MockFlowFile frame(final String aSource, final String aCamera) {
+
+		Map<String, String> attributes = new HashMap<>();
+		if (null != aSource) {
+			attributes.put("frame.source", aSource);
+		}
+		if (null != aCamera) {
+			attributes.put(CaptureVideoSources.CAMERA_ID, aCamera);
+		}
+		MockFlowFile flowFile = new MockFlowFile(1);
+		flowFile.putAttributes(attributes);
+		return flowFile;
+	}
+}
@@ -0,0 +1,164 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link BenchmarkLogger}. Most tests drain the ring buffer
+ * themselves instead of starting the writer thread, so that it fills up
+ * deterministically.
+ */
+public class BenchmarkLoggerTest {
+
+    /** Folder of the log files. */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /** Processor logger. */
+    private final MockComponentLog log = new MockComponentLog("test", this);
+
+    /**
+     * A full buffer drops and counts new records, and takes records again
+     * once drained, reusing its slots.
+     *
+     * @throws IOException exception
+     */
+    @Test
+    public void dropsWhenFullAndWrapsAround() throws IOException {
+
+        File file = folder.newFile();
+        BenchmarkLogger logger = new BenchmarkLogger(file.getPath(), 4, false, log, false);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(logger.log("r" + i, i));
+        }
+        assertFalse(logger.log("r4", 4));
+        assertEquals(1, logger.getDropped());
+
+        assertEquals(4, logger.drain());
+        for (int i = 5; i < 9; i++) {
+            assertTrue(logger.log("r" + i, i));
+        }
+        assertFalse(logger.log("r9", 9));
+        assertEquals(4, logger.drain());
+        logger.close();
+
+        assertEquals(2, logger.getDropped());
+        assertEquals(8, logger.getWritten());
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        assertEquals(8, lines.size());
+        assertEquals("r0;0", lines.get(0));
+        assertEquals("r3;3", lines.get(3));
+        assertEquals("r5;5", lines.get(4));
+        assertEquals("r8;8", lines.get(7));
+    }
+
+    /**
+     * The capacity is rounded up to a power of two.
+     *
+     * @throws IOException exception
+     */
+    @Test
+    public void roundsCapacityUp() throws IOException {
+
+        BenchmarkLogger logger = new BenchmarkLogger(folder.newFile().getPath(), 5, false, log, false);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(logger.log("r" + i, i));
+        }
+        assertFalse(logger.log("r8", 8));
+        logger.close();
+    }
+
+    /**
+     * Records keep at most {@link BenchmarkLogger#MAX_VALUES} values.
+     *
+     * @throws IOException exception
+     */
+    @Test
+    public void truncatesValues() throws IOException {
+
+        File file = folder.newFile();
+        BenchmarkLogger logger = new BenchmarkLogger(file.getPath(), 2, false, log, false);
+        logger.log("r", 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        logger.drain();
+        logger.close();
+
+        assertEquals("r;1;2;3;4;5;6;7;8", Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII).get(0));
+    }
+
+    /**
+     * Binary records follow a single header, also when a file is appended to,
+     * and identifiers other than UUIDs become the nil UUID.
+     *
+     * @throws IOException exception
+     */
+    @Test
+    public void writesBinaryRecords() throws IOException {
+
+        File file = folder.newFile();
+        UUID uuid = UUID.randomUUID();
+
+        BenchmarkLogger logger = new BenchmarkLogger(file.getPath(), 2, true, log, false);
+        logger.log(uuid.toString(), 10, 20);
+        logger.drain();
+        logger.close();
+
+        logger = new BenchmarkLogger(file.getPath(), 2, true, log, false);
+        logger.log("not a uuid", 30);
+        logger.drain();
+        logger.close();
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            assertEquals(BenchmarkLogger.MAGIC, in.readInt());
+            assertEquals(uuid.getMostSignificantBits(), in.readLong());
+            assertEquals(uuid.getLeastSignificantBits(), in.readLong());
+            assertEquals(2, in.readByte());
+            assertEquals(10, in.readLong());
+            assertEquals(20, in.readLong());
+            assertEquals(0, in.readLong());
+            assertEquals(0, in.readLong());
+            assertEquals(1, in.readByte());
+            assertEquals(30, in.readLong());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    /**
+     * The writer thread writes all accepted records before the logger closes,
+     * and records logged afterwards are dropped.
+     *
+     * @throws IOException exception
+     */
+    @Test
+    public void writesAllRecordsOnClose() throws IOException {
+
+        File file = folder.newFile();
+        BenchmarkLogger logger = new BenchmarkLogger(file.getPath(), 1024, false, log);
+        int accepted = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (logger.log("r" + i, i)) {
+                accepted++;
+            }
+        }
+        logger.close();
+        assertFalse(logger.log("late", 0));
+
+        assertEquals(accepted, logger.getWritten());
+        assertEquals(10000 - accepted + 1, logger.getDropped());
+        assertEquals(accepted, Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII).size());
+    }
+}
@@ -0,0 +1,170 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.junit.Test;
+
+/**
+ * Tests of {@link CaptureThread}, with a grabber which fails on demand.
+ */
+public class CaptureThreadTest {
+
+    /**
+     * A grabber which cannot be opened fails the caller and is released.
+     */
+    @Test
+    public void failsToStartWithBrokenGrabber() {
+
+        FakeGrabber grabber = new FakeGrabber(true, 0);
+        CaptureThread capture = new CaptureThread(grabber, new FrameRingBuffer<Frame>(4), 0, log());
+        try {
+            capture.start();
+            fail("The grabber could not be opened");
+        } catch (FrameGrabber.Exception e) {
+            assertEquals(1, grabber.released.get());
+        }
+    }
+
+    /**
+     * A failing grab restarts the grabber and capturing goes on.
+     *
+     * @throws Exception if the test is interrupted or the grabber fails to start
+     */
+    @Test
+    public void restartsAfterFailedGrab() throws Exception {
+
+        FakeGrabber grabber = new FakeGrabber(false, 3);
+        FrameRingBuffer<Frame> buffer = new FrameRingBuffer<Frame>(4);
+        CaptureThread capture = new CaptureThread(grabber, buffer, 0, log());
+        capture.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        Frame frame = buffer.poll();
+        while (null == frame && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            frame = buffer.poll();
+        }
+        assertTrue(capture.isCapturing());
+        capture.shutdown();
+        assertFalse(capture.isCapturing());
+
+        assertNotNull(frame);
+        assertEquals(3, grabber.restarts.get());
+        assertEquals(1, grabber.released.get());
+    }
+
+    /**
+     * A grabber which keeps returning no frames is reported as not capturing,
+     * and shutting down interrupts the capture waiting for it.
+     *
+     * @throws Exception if the grabber fails to start
+     */
+    @Test
+    public void shutdownInterruptsRetryDelay() throws Exception {
+
+        FakeGrabber grabber = new FakeGrabber(false, 0);
+        grabber.empty = true;
+        CaptureThread capture = new CaptureThread(grabber, new FrameRingBuffer<Frame>(4), 0, log());
+        capture.start();
+        Thread.sleep(1500);
+        assertFalse(capture.isCapturing());
+
+        long start = System.nanoTime();
+        capture.shutdown();
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(1, grabber.released.get());
+        assertFalse(grabber.started);
+    }
+
+    /**
+     * @return logger of a processor under test
+     */
+    private static MockComponentLog log() {
+        return new MockComponentLog("capture-under-test", CaptureThreadTest.class);
+    }
+
+    /**
+     * Grabber which may fail to start and fails a number of grabs before
+     * returning frames.
+     */
+    private static final class FakeGrabber extends FrameGrabber {
+
+        /** Whether starting fails. */
+        private final boolean broken;
+
+        /** Number of grabs left to fail. */
+        private final AtomicInteger failures;
+
+        /** Number of restarts. */
+        private final AtomicInteger restarts = new AtomicInteger();
+
+        /** Number of releases. */
+        private final AtomicInteger released = new AtomicInteger();
+
+        /** Whether grabs return no frame. */
+        private volatile boolean empty;
+
+        /** Whether the grabber is started. */
+        private volatile boolean started;
+
+        /** Frame returned by every grab. */
+        private final Frame frame = new Frame(4, 4, Frame.DEPTH_UBYTE, 1);
+
+        /**
+         * Constructor.
+         *
+         * @param aBroken whether starting fails
+         * @param aFailures number of grabs to fail
+         */
+        FakeGrabber(final boolean aBroken, final int aFailures) {
+            broken = aBroken;
+            failures = new AtomicInteger(aFailures);
+        }
+
+        @Override
+        public void start() throws Exception {
+            if (broken) {
+                throw new Exception("No such camera");
+            }
+            started = true;
+        }
+
+        @Override
+        public void restart() throws Exception {
+            restarts.incrementAndGet();
+            super.restart();
+        }
+
+        @Override
+        public void stop() throws Exception {
+            started = false;
+        }
+
+        @Override
+        public void trigger() throws Exception {
+        }
+
+        @Override
+        public Frame grab() throws Exception {
+            if (failures.getAndDecrement() > 0) {
+                throw new Exception("Camera unplugged");
+            }
+            return empty ? null : frame;
+        }
+
+        @Override
+        public void release() throws Exception {
+            released.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.nifi.util.MockComponentLog;
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link DebugImageWriter}, with several processors sharing the
+ * target directory.
+ */
+public class DebugImageWriterTest {
+
+    /** Target directory. */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Images are written into the subfolder of the processor.
+     */
+    @Test
+    public void writesIntoOwnSubfolder() {
+
+        DebugImageWriter writer = new DebugImageWriter(folder.getRoot().getPath(), "processor-a", 1, 4,
+                Long.MAX_VALUE, Long.MAX_VALUE, log());
+        writer.submit("1-received.png", image());
+        writer.close();
+
+        assertTrue(new File(folder.getRoot(), "processor-a/1-received-0.png").isFile());
+        assertEquals(0, writer.getDeleted());
+    }
+
+    /**
+     * The retention policy deletes the images of the processor, including
+     * those of an earlier run, but neither the images of other processors nor
+     * other files of the target directory.
+     *
+     * @throws IOException if the test files cannot be created
+     */
+    @Test
+    public void deletesOnlyOwnImages() throws IOException {
+
+        File leftOver = image("processor-a/0-received-0.png");
+        File otherProcessor = image("processor-b/0-received-0.png");
+        File shared = image("0-received-0.png");
+
+        DebugImageWriter writer = new DebugImageWriter(folder.getRoot().getPath(), "processor-a", 1, 4, 0,
+                Long.MAX_VALUE, log());
+        writer.submit("1-received.png", image());
+        writer.close();
+
+        assertFalse(leftOver.exists());
+        assertFalse(new File(folder.getRoot(), "processor-a/1-received-0.png").exists());
+        assertEquals(2, writer.getDeleted());
+        assertTrue(otherProcessor.exists());
+        assertTrue(shared.exists());
+    }
+
+    /**
+     * @return small grayscale image
+     */
+    private static Mat image() {
+        return new Mat(8, 8, opencv_core.CV_8UC1, new opencv_core.Scalar(128));
+    }
+
+    /**
+     * Creates a file looking like a debug image.
+     *
+     * @param aPath path within the target directory
+     * @return file
+     * @throws IOException if the file cannot be created
+     */
+    private File image(final String aPath) throws IOException {
+
+        File file = new File(folder.getRoot(), aPath);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), new byte[64]);
+        return file;
+    }
+
+    /**
+     * @return logger of a processor under test
+     */
+    private static MockComponentLog log() {
+        return new MockComponentLog("processor-a", DebugImageWriterTest.class);
+    }
+}
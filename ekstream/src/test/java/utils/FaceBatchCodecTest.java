@@ -0,0 +1,97 @@
+package utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link FaceBatchCodec}.
+ */
+public class FaceBatchCodecTest {
+
+    /** Encoded test faces of different lengths. */
+    private static final List<byte[]> FACES = Arrays.asList(new byte[] {1, 2, 3}, new byte[0],
+            new byte[] {4, 5, 6, 7, 8});
+
+    /**
+     * Faces come out of a container unchanged and in order.
+     */
+    @Test
+    public void roundTripsFaces() {
+
+        byte[] encoded = FaceBatchCodec.encode(FACES);
+        List<byte[]> decoded = FaceBatchCodec.decode(encoded);
+
+        assertTrue(FaceBatchCodec.isBatch(encoded));
+        assertEquals(FACES.size(), decoded.size());
+        for (int i = 0; i < FACES.size(); i++) {
+            assertArrayEquals(FACES.get(i), decoded.get(i));
+        }
+    }
+
+    /**
+     * A container may hold no faces at all.
+     */
+    @Test
+    public void roundTripsEmptyContainer() {
+        assertTrue(FaceBatchCodec.decode(FaceBatchCodec.encode(Collections.<byte[]>emptyList())).isEmpty());
+    }
+
+    /**
+     * A single raw frame or image is not mistaken for a container.
+     */
+    @Test
+    public void recognisesOnlyContainers() {
+
+        assertFalse(FaceBatchCodec.isBatch(new byte[] {0x45, 0x4B}));
+        assertFalse(FaceBatchCodec.isBatch(ByteBuffer.allocate(40).putInt(RawFrameCodec.MAGIC).array()));
+    }
+
+    /**
+     * A container that lost the end of its last face is rejected rather than
+     * padded with zeros.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedFace() {
+
+        byte[] encoded = FaceBatchCodec.encode(FACES);
+        FaceBatchCodec.decode(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    /**
+     * A container that lost part of its index is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedIndex() {
+
+        byte[] encoded = FaceBatchCodec.encode(FACES);
+        FaceBatchCodec.decode(Arrays.copyOf(encoded, 12));
+    }
+
+    /**
+     * A negative face count is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeCount() {
+        FaceBatchCodec.decode(ByteBuffer.allocate(8).putInt(FaceBatchCodec.MAGIC).putInt(-1).array());
+    }
+
+    /**
+     * An index entry pointing back into the header is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOffsetIntoHeader() {
+
+        byte[] encoded = FaceBatchCodec.encode(FACES);
+        ByteBuffer.wrap(encoded).putInt(8, 0);
+        FaceBatchCodec.decode(encoded);
+    }
+}
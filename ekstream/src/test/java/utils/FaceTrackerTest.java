@@ -0,0 +1,112 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.junit.Test;
+
+/**
+ * Tests of {@link FaceTracker}.
+ */
+public class FaceTrackerTest {
+
+    /** Time after which an unseen track is lost, in ms. */
+    private static final long TIMEOUT = 1000;
+
+    /**
+     * A face that moves a little keeps its track.
+     */
+    @Test
+    public void continuesOverlappingFace() {
+
+        FaceTracker tracker = new FaceTracker(TIMEOUT);
+        String first = tracker.assign(faces(new CvRect(100, 100, 50, 50)), 0).get(0);
+        String second = tracker.assign(faces(new CvRect(105, 102, 50, 50)), 40).get(0);
+
+        assertEquals(first, second);
+        assertEquals(1, tracker.size());
+    }
+
+    /**
+     * A face that overlaps too little starts a new track.
+     */
+    @Test
+    public void startsTrackForDistantFace() {
+
+        FaceTracker tracker = new FaceTracker(TIMEOUT);
+        String first = tracker.assign(faces(new CvRect(100, 100, 50, 50)), 0).get(0);
+        String second = tracker.assign(faces(new CvRect(140, 100, 50, 50)), 40).get(0);
+
+        assertNotEquals(first, second);
+        assertEquals(2, tracker.size());
+    }
+
+    /**
+     * Two faces in one frame never share a track, and each keeps its own
+     * when they swap order.
+     */
+    @Test
+    public void keepsFacesApart() {
+
+        FaceTracker tracker = new FaceTracker(TIMEOUT);
+        List<String> first = tracker.assign(faces(new CvRect(0, 0, 50, 50), new CvRect(200, 0, 50, 50)), 0);
+        List<String> second = tracker.assign(faces(new CvRect(202, 0, 50, 50), new CvRect(2, 0, 50, 50)), 40);
+
+        assertNotEquals(first.get(0), first.get(1));
+        assertEquals(first.get(1), second.get(0));
+        assertEquals(first.get(0), second.get(1));
+    }
+
+    /**
+     * When two faces compete for one track, the better overlapping one wins.
+     */
+    @Test
+    public void matchesLargestOverlapFirst() {
+
+        FaceTracker tracker = new FaceTracker(TIMEOUT);
+        String track = tracker.assign(faces(new CvRect(100, 100, 50, 50)), 0).get(0);
+        List<String> next = tracker.assign(faces(new CvRect(120, 100, 50, 50), new CvRect(101, 100, 50, 50)), 40);
+
+        assertNotEquals(track, next.get(0));
+        assertEquals(track, next.get(1));
+    }
+
+    /**
+     * A track not seen for longer than the timeout is lost.
+     */
+    @Test
+    public void losesExpiredTrack() {
+
+        FaceTracker tracker = new FaceTracker(TIMEOUT);
+        String first = tracker.assign(faces(new CvRect(100, 100, 50, 50)), 0).get(0);
+        tracker.assign(Collections.<CvRect>emptyList(), TIMEOUT + 1);
+
+        assertEquals(0, tracker.size());
+        assertNotEquals(first, tracker.assign(faces(new CvRect(100, 100, 50, 50)), TIMEOUT + 2).get(0));
+    }
+
+    /**
+     * A track seen exactly at the timeout is kept.
+     */
+    @Test
+    public void keepsTrackUntilTimeout() {
+
+        FaceTracker tracker = new FaceTracker(TIMEOUT);
+        String first = tracker.assign(faces(new CvRect(100, 100, 50, 50)), 0).get(0);
+
+        assertEquals(first, tracker.assign(faces(new CvRect(100, 100, 50, 50)), TIMEOUT).get(0));
+    }
+
+    /**
+     * @param aRectangles bounding boxes
+     * @return bounding boxes as a list
+     */
+    private static List<CvRect> faces(final CvRect... aRectangles) {
+        return Arrays.asList(aRectangles);
+    }
+}
@@ -0,0 +1,81 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link FrameRingBuffer}.
+ */
+public class FrameRingBufferTest {
+
+    /**
+     * Elements come out in the order they went in.
+     */
+    @Test
+    public void pollsInInsertionOrder() {
+
+        FrameRingBuffer<Integer> buffer = new FrameRingBuffer<Integer>(3);
+        buffer.offer(1);
+        buffer.offer(2);
+
+        assertEquals(Integer.valueOf(1), buffer.poll());
+        assertEquals(Integer.valueOf(2), buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(2, buffer.getDelivered());
+        assertEquals(0, buffer.getDropped());
+    }
+
+    /**
+     * A full buffer evicts its oldest elements and counts them as dropped.
+     */
+    @Test
+    public void overwritesOldestWhenFull() {
+
+        FrameRingBuffer<Integer> buffer = new FrameRingBuffer<Integer>(3);
+        for (int i = 1; i <= 5; i++) {
+            buffer.offer(i);
+        }
+
+        assertEquals(3, buffer.size());
+        assertEquals(2, buffer.getDropped());
+        assertEquals(Integer.valueOf(3), buffer.poll());
+        assertEquals(Integer.valueOf(4), buffer.poll());
+        assertEquals(Integer.valueOf(5), buffer.poll());
+        assertNull(buffer.poll());
+    }
+
+    /**
+     * The capacity is at least one, so that the latest element is kept.
+     */
+    @Test
+    public void keepsLatestElementWithoutCapacity() {
+
+        FrameRingBuffer<Integer> buffer = new FrameRingBuffer<Integer>(0);
+        buffer.offer(1);
+        buffer.offer(2);
+
+        assertEquals(1, buffer.getCapacity());
+        assertEquals(1, buffer.getDropped());
+        assertEquals(Integer.valueOf(2), buffer.poll());
+    }
+
+    /**
+     * Cleared elements are neither delivered nor dropped.
+     */
+    @Test
+    public void clearDiscardsBufferedElements() {
+
+        FrameRingBuffer<Integer> buffer = new FrameRingBuffer<Integer>(2);
+        buffer.offer(1);
+        buffer.offer(2);
+        buffer.clear();
+
+        assertEquals(0, buffer.size());
+        assertEquals(2, buffer.getCapacity());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.getDelivered());
+        assertEquals(0, buffer.getDropped());
+    }
+}
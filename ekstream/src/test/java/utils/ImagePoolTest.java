@@ -0,0 +1,93 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link ImagePool}, with face crops of many sizes.
+ */
+public class ImagePoolTest {
+
+    /** Size of a 10x10 grayscale image, in bytes, with rows aligned to 4 bytes. */
+    private static final long IMAGE_BYTES = 12 * 10;
+
+    /** Pool under test, allowing three images or three sizes. */
+    private final ImagePool pool = new ImagePool(3 * IMAGE_BYTES, 3);
+
+    /**
+     * Frees the idle buffers of a test.
+     */
+    @After
+    public void tearDown() {
+        pool.clear();
+    }
+
+    /**
+     * A released buffer is handed out again for the same size only.
+     */
+    @Test
+    public void reusesBuffersOfSameSize() {
+
+        IplImage image = pool.acquireImage(10, 10, opencv_core.IPL_DEPTH_8U, 1);
+        pool.release(image);
+
+        assertSame(image, pool.acquireImage(10, 10, opencv_core.IPL_DEPTH_8U, 1));
+        IplImage other = pool.acquireImage(10, 11, opencv_core.IPL_DEPTH_8U, 1);
+        assertNotSame(image, other);
+        assertEquals(2, pool.getAllocated());
+        assertEquals(1, pool.getReused());
+
+        pool.release(image);
+        pool.release(other);
+    }
+
+    /**
+     * Releasing more sizes than allowed frees the idle buffers of the least
+     * recently used size.
+     */
+    @Test
+    public void evictsLeastRecentlyUsedSize() {
+
+        IplImage first = pool.acquireImage(4, 4, opencv_core.IPL_DEPTH_8U, 1);
+        pool.release(first);
+        for (int size = 5; size < 8; size++) {
+            pool.release(pool.acquireImage(size, size, opencv_core.IPL_DEPTH_8U, 1));
+        }
+
+        assertEquals(1, pool.getEvicted());
+        assertNotSame(first, pool.acquireImage(4, 4, opencv_core.IPL_DEPTH_8U, 1));
+        assertEquals(0, pool.getReused());
+    }
+
+    /**
+     * Idle buffers beyond the byte cap are freed, whatever their type.
+     */
+    @Test
+    public void capsIdleBytes() {
+
+        IplImage[] images = new IplImage[3];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = pool.acquireImage(10, 10, opencv_core.IPL_DEPTH_8U, 1);
+        }
+        for (IplImage image : images) {
+            pool.release(image);
+        }
+        assertEquals(3 * IMAGE_BYTES, pool.getIdleBytes());
+        assertEquals(0, pool.getEvicted());
+
+        pool.release(pool.acquireMat(10, 10, opencv_core.CV_8UC1));
+        assertEquals(3, pool.getEvicted());
+        assertEquals(100, pool.getIdleBytes());
+
+        Mat mat = pool.acquireMat(10, 10, opencv_core.CV_8UC1);
+        assertEquals(0, pool.getIdleBytes());
+        pool.release(mat);
+    }
+}
@@ -0,0 +1,112 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacpp.opencv_core.MatVector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of {@link JavaLbphEngine} model files.
+ */
+public class JavaLbphEngineTest {
+
+    /** Folder of the model files. */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A saved model predicts the same labels once loaded again.
+     *
+     * @throws IOException if the model cannot be saved or loaded
+     */
+    @Test
+    public void roundTripsModel() throws IOException {
+
+        File file = folder.newFile("model.yml");
+        trained().save(file.getPath());
+
+        JavaLbphEngine engine = new JavaLbphEngine(1, 4, 2, 2, false);
+        engine.load(file.getPath());
+
+        assertEquals(2, engine.size());
+        assertEquals(7, predict(engine, face(0)));
+        assertEquals(9, predict(engine, face(3)));
+    }
+
+    /**
+     * A model file whose labels do not match its histograms is rejected, and
+     * the current model is kept.
+     *
+     * @throws IOException if the model cannot be saved
+     */
+    @Test
+    public void keepsModelOnMalformedFile() throws IOException {
+
+        File file = folder.newFile("model.yml");
+        JavaLbphEngine engine = trained();
+        engine.save(file.getPath());
+
+        String model = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+        Files.write(file.toPath(), model.replace("data: [ 7, 9 ]", "data: [ 7 ]").replace("rows: 2", "rows: 1")
+                .replace("neighbors: 4", "neighbors: 8").getBytes(StandardCharsets.US_ASCII));
+        try {
+            engine.load(file.getPath());
+            fail("The model file is malformed");
+        } catch (IOException e) {
+            assertEquals(2, engine.size());
+            assertEquals(9, predict(engine, face(3)));
+        }
+    }
+
+    /**
+     * @return engine trained with two faces, labelled 7 and 9
+     */
+    private static JavaLbphEngine trained() {
+
+        JavaLbphEngine engine = new JavaLbphEngine(1, 4, 2, 2, false);
+        MatVector images = new MatVector(face(0), face(3));
+        Mat labels = new Mat(2, 1, opencv_core.CV_32SC1);
+        labels.getIntBuffer().put(new int[] { 7, 9 });
+        engine.train(images, labels);
+        return engine;
+    }
+
+    /**
+     * @param aEngine engine
+     * @param aFace face
+     * @return predicted label
+     */
+    private static int predict(final JavaLbphEngine aEngine, final Mat aFace) {
+
+        int[] label = new int[1];
+        aEngine.predict(aFace, label, new double[1]);
+        return label[0];
+    }
+
+    /**
+     * Creates a striped grayscale face.
+     *
+     * @param aPhase offset of the stripes
+     * @return face
+     */
+    private static Mat face(final int aPhase) {
+
+        Mat face = new Mat(16, 16, opencv_core.CV_8UC1);
+        byte[] data = new byte[16 * 16];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ((i + aPhase) % 5 * 50);
+        }
+        face.data().put(data);
+        return face;
+    }
+}
@@ -0,0 +1,113 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Values below 256 get a bucket of their own.
+     */
+    @Test
+    public void countsSmallValuesExactly() {
+
+        for (long value = 0; value < 256; value++) {
+            assertEquals(value, LatencyHistogram.index(value));
+            assertEquals(value, LatencyHistogram.highestValue((int) value));
+        }
+    }
+
+    /**
+     * Buckets are contiguous: every bucket starts right after the largest
+     * value of the previous one.
+     */
+    @Test
+    public void bucketsAreContiguous() {
+
+        int last = LatencyHistogram.index(LatencyHistogram.MAX_VALUE);
+        for (int i = 0; i < last; i++) {
+            long highest = LatencyHistogram.highestValue(i);
+            assertEquals(i, LatencyHistogram.index(highest));
+            assertEquals(i + 1, LatencyHistogram.index(highest + 1));
+        }
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.highestValue(last));
+    }
+
+    /**
+     * A bucket overstates its values by less than 1%.
+     */
+    @Test
+    public void keepsRelativeErrorBelowOnePercent() {
+
+        for (long value = 256; value < LatencyHistogram.MAX_VALUE; value = value * 3 / 2 + 1) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.index(value));
+            assertTrue(value + " -> " + highest, highest >= value);
+            assertTrue(value + " -> " + highest, highest - value < value / 100.0);
+        }
+    }
+
+    /**
+     * Percentiles of uniformly distributed values lie within the bucket
+     * precision of the exact ones.
+     */
+    @Test
+    public void computesPercentiles() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.reset();
+
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(1, snapshot.getValueAtPercentile(0));
+        assertWithinPrecision(5000, snapshot.getValueAtPercentile(50));
+        assertWithinPrecision(9900, snapshot.getValueAtPercentile(99));
+        assertWithinPrecision(10000, snapshot.getValueAtPercentile(100));
+        assertWithinPrecision(10000, snapshot.getMax());
+    }
+
+    /**
+     * Out of range values are clamped.
+     */
+    @Test
+    public void clampsValues() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.reset();
+
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, snapshot.getMax());
+    }
+
+    /**
+     * Taking a snapshot starts a new, empty interval.
+     */
+    @Test
+    public void resetStartsNewInterval() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        assertEquals(1, histogram.reset().getCount());
+
+        LatencyHistogram.Snapshot empty = histogram.reset();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getValueAtPercentile(99));
+        assertEquals(0, empty.getMax());
+    }
+
+    /**
+     * @param aExpected exact value
+     * @param aActual value reported by the histogram
+     */
+    private static void assertWithinPrecision(final long aExpected, final long aActual) {
+        assertTrue(aExpected + " -> " + aActual, aActual >= aExpected && aActual - aExpected < aExpected / 100.0);
+    }
+}
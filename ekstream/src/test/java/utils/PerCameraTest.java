@@ -0,0 +1,98 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.CvRect;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.junit.Test;
+
+/**
+ * Tests of {@link PerCamera}, with the frames of two cameras arriving
+ * interleaved as they do from a processor capturing several sources.
+ */
+public class PerCameraTest {
+
+    /**
+     * The state of a camera is created once and then reused.
+     */
+    @Test
+    public void createsStateOnFirstUse() {
+
+        PerCamera<FaceTracker> trackers = new PerCamera<FaceTracker>(camera -> new FaceTracker(1000));
+
+        assertSame(trackers.get("a"), trackers.get("a"));
+        assertNotEquals(trackers.get("a"), trackers.get("b"));
+        assertEquals(2, trackers.values().size());
+    }
+
+    /**
+     * Faces at the same place in two cameras get different tracks, and each
+     * keeps its track across the interleaved frames.
+     */
+    @Test
+    public void keepsTracksOfCamerasApart() {
+
+        PerCamera<FaceTracker> trackers = new PerCamera<FaceTracker>(camera -> new FaceTracker(1000));
+        List<CvRect> face = Collections.singletonList(new CvRect(100, 100, 50, 50));
+
+        String a = trackers.get("a").assign(face, 0).get(0);
+        String b = trackers.get("b").assign(face, 10).get(0);
+        assertNotEquals(a, b);
+
+        for (long t = 40; t < 400; t += 40) {
+            assertEquals(a, trackers.get("a").assign(face, t).get(0));
+            assertEquals(b, trackers.get("b").assign(face, t + 10).get(0));
+        }
+    }
+
+    /**
+     * Two static scenes do not open the motion gate of each other, which a
+     * single background model blending both cameras would do on every frame.
+     */
+    @Test
+    public void keepsBackgroundsOfCamerasApart() {
+
+        IplImage dark = scene(20);
+        IplImage bright = scene(200);
+
+        PerCamera<MotionDetector> motions = new PerCamera<MotionDetector>(camera -> new MotionDetector(5));
+        assertTrue(motions.get("a").hasMotion(dark));
+        assertTrue(motions.get("b").hasMotion(bright));
+        for (int i = 0; i < 5; i++) {
+            assertFalse(motions.get("a").hasMotion(dark));
+            assertFalse(motions.get("b").hasMotion(bright));
+        }
+
+        MotionDetector shared = new MotionDetector(5);
+        for (int i = 0; i < 5; i++) {
+            shared.hasMotion(dark);
+            assertTrue(shared.hasMotion(bright));
+        }
+
+        for (MotionDetector motion : motions.values()) {
+            motion.release();
+        }
+        shared.release();
+        opencv_core.cvReleaseImage(dark);
+        opencv_core.cvReleaseImage(bright);
+    }
+
+    /**
+     * @param aValue brightness
+     * @return uniform grayscale frame
+     */
+    private static IplImage scene(final int aValue) {
+
+        IplImage image = opencv_core.cvCreateImage(opencv_core.cvSize(160, 120), opencv_core.IPL_DEPTH_8U, 1);
+        opencv_core.cvSet(image, opencv_core.cvScalarAll(aValue));
+        return image;
+    }
+}
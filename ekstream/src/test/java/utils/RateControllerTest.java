@@ -0,0 +1,163 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.bytedeco.javacv.Frame;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests of {@link RateController}. The capture thread is never started, and
+ * the rate is re-evaluated by calling {@link RateController#adjust()}.
+ */
+public class RateControllerTest {
+
+    /** Identifier of the capturing processor. */
+    private static final String SOURCE = "capture-under-test";
+
+    /** Buffer capacity. */
+    private static final int CAPACITY = 8;
+
+    /** Minimum rate, in frames per second. */
+    private static final double MIN_RATE = 1;
+
+    /** Maximum rate, in frames per second. */
+    private static final double MAX_RATE = 20;
+
+    /** Capture buffer. */
+    private final FrameRingBuffer<Frame> buffer = new FrameRingBuffer<Frame>(CAPACITY);
+
+    /** Capture thread, 10 frames per second initially. */
+    private final CaptureThread capture = new CaptureThread(null, buffer, 100, null);
+
+    /**
+     * Forgets the latencies recorded by a test.
+     */
+    @After
+    public void tearDown() {
+        StageMetrics.clearRecentEndToEnd(SOURCE);
+        StageMetrics.clearRecentEndToEnd("other");
+    }
+
+    /**
+     * The initial rate is the one of the capture thread, within the limits.
+     */
+    @Test
+    public void startsAtCaptureRate() {
+
+        assertEquals(10, new RateController(capture, SOURCE, MIN_RATE, MAX_RATE, 0).getRate(), 0);
+
+        capture.setInterval(10);
+        RateController controller = new RateController(capture, SOURCE, MIN_RATE, MAX_RATE, 0);
+        assertEquals(MAX_RATE, controller.getRate(), 0);
+        assertEquals(50, capture.getInterval());
+    }
+
+    /**
+     * A shallow buffer raises the rate by a tenth of the maximum per period,
+     * up to the maximum.
+     */
+    @Test
+    public void increasesAdditively() {
+
+        RateController controller = new RateController(capture, SOURCE, MIN_RATE, MAX_RATE, 0);
+        controller.adjust();
+        assertEquals(12, controller.getRate(), 1e-9);
+        assertEquals(83, capture.getInterval());
+
+        for (int i = 0; i < 10; i++) {
+            controller.adjust();
+        }
+        assertEquals(MAX_RATE, controller.getRate(), 0);
+        assertEquals(50, capture.getInterval());
+    }
+
+    /**
+     * A buffer more than half full halves the rate, down to the minimum.
+     */
+    @Test
+    public void decreasesMultiplicativelyWhenBacklogged() {
+
+        RateController controller = new RateController(capture, SOURCE, MIN_RATE, MAX_RATE, 0);
+        fill(CAPACITY / 2 + 1);
+        controller.adjust();
+        assertEquals(5, controller.getRate(), 1e-9);
+        assertEquals(200, capture.getInterval());
+
+        for (int i = 0; i < 10; i++) {
+            controller.adjust();
+        }
+        assertEquals(MIN_RATE, controller.getRate(), 0);
+        assertEquals(1000, capture.getInterval());
+    }
+
+    /**
+     * Dropped frames halve the rate even once the buffer has been drained,
+     * but only once per drop.
+     */
+    @Test
+    public void decreasesOnDrops() {
+
+        RateController controller = new RateController(capture, SOURCE, MIN_RATE, MAX_RATE, 0);
+        fill(CAPACITY + 1);
+        buffer.clear();
+
+        controller.adjust();
+        assertEquals(5, controller.getRate(), 1e-9);
+        controller.adjust();
+        assertEquals(7, controller.getRate(), 1e-9);
+    }
+
+    /**
+     * A buffer between a quarter and a half full keeps the rate.
+     */
+    @Test
+    public void holdsWhenModeratelyFilled() {
+
+        RateController controller = new RateController(capture, SOURCE, MIN_RATE, MAX_RATE, 0);
+        fill(CAPACITY / 4 + 1);
+        controller.adjust();
+        assertEquals(10, controller.getRate(), 1e-9);
+    }
+
+    /**
+     * The rate goes down when the frames of this capture exceed the latency
+     * target, whatever the latency of other captures.
+     */
+    @Test
+    public void decreasesAboveLatencyTarget() {
+
+        RateController controller = new RateController(capture, SOURCE, MIN_RATE, MAX_RATE, 1000);
+        StageMetrics metrics = new StageMetrics(0);
+
+        metrics.recordEndToEnd(5000, "other");
+        controller.adjust();
+        assertEquals(12, controller.getRate(), 1e-9);
+
+        metrics.recordEndToEnd(5000, SOURCE);
+        controller.adjust();
+        assertEquals(6, controller.getRate(), 1e-9);
+    }
+
+    /**
+     * Shutting down forgets the latency of this capture.
+     */
+    @Test
+    public void shutdownClearsLatency() {
+
+        RateController controller = new RateController(capture, SOURCE, MIN_RATE, MAX_RATE, 1000);
+        new StageMetrics(0).recordEndToEnd(5000, SOURCE);
+        controller.shutdown();
+
+        assertEquals(-1, StageMetrics.getRecentEndToEnd(SOURCE, Long.MAX_VALUE));
+    }
+
+    /**
+     * @param aFrames number of frames to offer to the buffer
+     */
+    private void fill(final int aFrames) {
+        for (int i = 0; i < aFrames; i++) {
+            buffer.offer(new Frame());
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.IplImage;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.junit.Test;
+
+/**
+ * Tests of {@link RawFrameCodec}.
+ */
+public class RawFrameCodecTest {
+
+    /** Capture timestamp of the test frames. */
+    private static final long TIMESTAMP = 1500000000123L;
+
+    /**
+     * An image survives encoding and decoding unchanged, including its
+     * timestamp.
+     */
+    @Test
+    public void roundTripsImage() {
+
+        IplImage image = image(5, 4, 3);
+        byte[] encoded = RawFrameCodec.encode(image, TIMESTAMP);
+        IplImage decoded = RawFrameCodec.decodeImage(encoded);
+
+        assertTrue(RawFrameCodec.isRawFrame(encoded));
+        assertEquals(TIMESTAMP, RawFrameCodec.readTimestamp(encoded));
+        assertEquals(5, decoded.width());
+        assertEquals(4, decoded.height());
+        assertEquals(3, decoded.nChannels());
+        assertEquals(opencv_core.IPL_DEPTH_8U, decoded.depth());
+        assertArrayEquals(pixels(image), pixels(decoded));
+
+        opencv_core.cvReleaseImage(image);
+        opencv_core.cvReleaseImage(decoded);
+    }
+
+    /**
+     * A frame whose rows are padded decodes into a mat with unpadded rows.
+     */
+    @Test
+    public void roundTripsPaddedRowsIntoMat() {
+
+        IplImage image = image(3, 2, 1);
+        assertTrue(image.widthStep() > 3);
+
+        Mat decoded = RawFrameCodec.decodeMat(RawFrameCodec.encode(image, TIMESTAMP));
+
+        assertEquals(3, decoded.cols());
+        assertEquals(2, decoded.rows());
+        assertEquals(opencv_core.CV_8UC1, decoded.type());
+        byte[] actual = new byte[6];
+        decoded.data().get(actual);
+        byte[] expected = pixels(image);
+        for (int y = 0; y < 2; y++) {
+            assertArrayEquals(Arrays.copyOfRange(expected, y * image.widthStep(), y * image.widthStep() + 3),
+                    Arrays.copyOfRange(actual, y * 3, y * 3 + 3));
+        }
+
+        opencv_core.cvReleaseImage(image);
+        decoded.deallocate();
+    }
+
+    /**
+     * Decoding into a pool reuses released buffers.
+     */
+    @Test
+    public void decodesIntoPool() {
+
+        ImagePool pool = new ImagePool();
+        IplImage image = image(4, 4, 1);
+        byte[] encoded = RawFrameCodec.encode(image, TIMESTAMP);
+
+        pool.release(RawFrameCodec.decodeImage(encoded, pool));
+        IplImage decoded = RawFrameCodec.decodeImage(encoded, pool);
+
+        assertEquals(1, pool.getAllocated());
+        assertEquals(1, pool.getReused());
+        assertArrayEquals(pixels(image), pixels(decoded));
+
+        opencv_core.cvReleaseImage(image);
+        pool.release(decoded);
+        pool.clear();
+    }
+
+    /**
+     * Arrays shorter than a header or without the magic number are not raw
+     * frames.
+     */
+    @Test
+    public void recognisesOnlyRawFrames() {
+
+        IplImage image = image(2, 2, 1);
+        byte[] encoded = RawFrameCodec.encode(image, TIMESTAMP);
+        opencv_core.cvReleaseImage(image);
+
+        assertFalse(RawFrameCodec.isRawFrame(new byte[0]));
+        assertFalse(RawFrameCodec.isRawFrame(Arrays.copyOf(encoded, RawFrameCodec.HEADER_LENGTH - 1)));
+        encoded[0] = 0;
+        assertFalse(RawFrameCodec.isRawFrame(encoded));
+    }
+
+    /**
+     * A frame that lost some of its pixel bytes is rejected rather than
+     * decoded from memory beyond the array.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedImage() {
+
+        byte[] encoded = RawFrameCodec.encode(image(4, 4, 3), TIMESTAMP);
+        RawFrameCodec.decodeImage(Arrays.copyOf(encoded, encoded.length - 1));
+    }
+
+    /**
+     * A frame with only its header left is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedMat() {
+
+        byte[] encoded = RawFrameCodec.encode(image(4, 4, 1), TIMESTAMP);
+        RawFrameCodec.decodeMat(Arrays.copyOf(encoded, RawFrameCodec.HEADER_LENGTH));
+    }
+
+    /**
+     * A stride shorter than a row of pixels is rejected, since rows would
+     * overlap.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortStride() {
+
+        byte[] encoded = RawFrameCodec.encode(image(4, 4, 3), TIMESTAMP);
+        ByteBuffer.wrap(encoded).putInt(20, 4 * 3 - 1);
+        RawFrameCodec.decodeImage(encoded);
+    }
+
+    /**
+     * A depth which is not an IplImage depth is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownDepth() {
+
+        byte[] encoded = RawFrameCodec.encode(image(4, 4, 1), TIMESTAMP);
+        ByteBuffer.wrap(encoded).putInt(16, 12);
+        RawFrameCodec.decodeMat(encoded);
+    }
+
+    /**
+     * Arrays without the magic number are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherData() {
+        RawFrameCodec.decodeImage(new byte[RawFrameCodec.HEADER_LENGTH + 16]);
+    }
+
+    /**
+     * Creates an 8-bit image filled with distinct values.
+     *
+     * @param aWidth image width
+     * @param aHeight image height
+     * @param aChannels number of channels
+     * @return image
+     */
+    private static IplImage image(final int aWidth, final int aHeight, final int aChannels) {
+
+        IplImage image = opencv_core.cvCreateImage(opencv_core.cvSize(aWidth, aHeight), opencv_core.IPL_DEPTH_8U,
+                aChannels);
+        byte[] data = new byte[image.imageSize()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7 + 1);
+        }
+        image.imageData().put(data);
+        return image;
+    }
+
+    /**
+     * Reads the pixel rows of an image, including their padding.
+     *
+     * @param aImage image
+     * @return pixel bytes
+     */
+    private static byte[] pixels(final IplImage aImage) {
+
+        byte[] data = new byte[aImage.imageSize()];
+        aImage.imageData().get(data);
+        return data;
+    }
+}
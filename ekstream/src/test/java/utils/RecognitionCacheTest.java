@@ -0,0 +1,160 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.bytedeco.javacpp.opencv_core;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.junit.Test;
+
+/**
+ * Tests of {@link RecognitionCache}.
+ */
+public class RecognitionCacheTest {
+
+    /** Time to live of an entry, in ms. */
+    private static final long TTL = 1000;
+
+    /** Hash of a cached face. */
+    private static final long HASH = 0x0F0F0F0F0F0F0F0FL;
+
+    /** Predicted label. */
+    private final int[] label = new int[1];
+
+    /** Prediction confidence. */
+    private final double[] confidence = new double[1];
+
+    /**
+     * A face with the same hash reuses the prediction.
+     */
+    @Test
+    public void matchesExactHash() {
+
+        RecognitionCache cache = new RecognitionCache(4, 0, TTL);
+        cache.put(HASH, 0, 3, 12.5);
+
+        assertTrue(cache.lookup(HASH, 1, label, confidence));
+        assertEquals(3, label[0]);
+        assertEquals(12.5, confidence[0], 0);
+        assertEquals(1, cache.getHits());
+    }
+
+    /**
+     * Without a tolerance, a single differing bit is a miss.
+     */
+    @Test
+    public void requiresExactHashWithoutTolerance() {
+
+        RecognitionCache cache = new RecognitionCache(4, 0, TTL);
+        cache.put(HASH, 0, 3, 12.5);
+
+        assertFalse(cache.lookup(HASH ^ 1, 1, label, confidence));
+        assertEquals(1, cache.getMisses());
+    }
+
+    /**
+     * A hash up to the tolerance away matches, one more bit does not.
+     */
+    @Test
+    public void matchesWithinHammingDistance() {
+
+        RecognitionCache cache = new RecognitionCache(4, 2, TTL);
+        cache.put(HASH, 0, 3, 12.5);
+
+        assertTrue(cache.lookup(HASH ^ 0x30, 1, label, confidence));
+        assertFalse(cache.lookup(HASH ^ 0x70, 1, label, confidence));
+    }
+
+    /**
+     * Of several matching faces, the closest one wins.
+     */
+    @Test
+    public void prefersClosestHash() {
+
+        RecognitionCache cache = new RecognitionCache(4, 3, TTL);
+        cache.put(HASH ^ 0x7, 0, 1, 1);
+        cache.put(HASH ^ 0x1, 0, 2, 2);
+        cache.put(HASH ^ 0x3, 0, 3, 3);
+
+        assertTrue(cache.lookup(HASH, 1, label, confidence));
+        assertEquals(2, label[0]);
+    }
+
+    /**
+     * Predictions are not reused once their time to live has passed, whether
+     * they match exactly or approximately.
+     */
+    @Test
+    public void expiresAfterTtl() {
+
+        RecognitionCache cache = new RecognitionCache(4, 2, TTL);
+        cache.put(HASH, 0, 3, 12.5);
+
+        assertTrue(cache.lookup(HASH, TTL - 1, label, confidence));
+        assertFalse(cache.lookup(HASH, TTL, label, confidence));
+        assertFalse(cache.lookup(HASH ^ 1, TTL, label, confidence));
+    }
+
+    /**
+     * Storing a prediction removes the expired ones.
+     */
+    @Test
+    public void sweepsExpiredEntries() {
+
+        RecognitionCache cache = new RecognitionCache(4, 0, TTL);
+        cache.put(1, 0, 1, 1);
+        cache.put(2, 0, 2, 2);
+        cache.put(3, TTL, 3, 3);
+
+        assertEquals(2, cache.getEvictions());
+        assertTrue(cache.lookup(3, TTL, label, confidence));
+    }
+
+    /**
+     * A full cache evicts its least recently used entry.
+     */
+    @Test
+    public void evictsLeastRecentlyUsed() {
+
+        RecognitionCache cache = new RecognitionCache(2, 0, TTL);
+        cache.put(1, 0, 1, 1);
+        cache.put(2, 0, 2, 2);
+        assertTrue(cache.lookup(1, 0, label, confidence));
+        cache.put(3, 0, 3, 3);
+
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.lookup(1, 0, label, confidence));
+        assertFalse(cache.lookup(2, 0, label, confidence));
+        assertTrue(cache.lookup(3, 0, label, confidence));
+    }
+
+    /**
+     * Every bit of the hash compares horizontally neighbouring pixels.
+     */
+    @Test
+    public void hashesBrightnessGradients() {
+
+        assertEquals(0L, RecognitionCache.hash(gradient(1)));
+        assertEquals(-1L, RecognitionCache.hash(gradient(-1)));
+    }
+
+    /**
+     * Creates a grayscale face whose brightness changes from left to right.
+     *
+     * @param aDirection 1 to get brighter to the right, -1 to get darker
+     * @return 90x80 image
+     */
+    private static Mat gradient(final int aDirection) {
+
+        Mat image = new Mat(80, 90, opencv_core.CV_8UC1);
+        byte[] pixels = new byte[80 * 90];
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 90; x++) {
+                pixels[y * 90 + x] = (byte) (aDirection > 0 ? 2 * x + 20 : 200 - 2 * x);
+            }
+        }
+        image.data().put(pixels);
+        return image;
+    }
+}
@@ -0,0 +1,107 @@
+package utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests of {@link TrackCache}.
+ */
+public class TrackCacheTest {
+
+    /** Time after which a prediction is repeated, in ms. */
+    private static final long REFRESH = 500;
+
+    /** Predicted label. */
+    private final int[] label = new int[1];
+
+    /** Prediction confidence. */
+    private final double[] confidence = new double[1];
+
+    /**
+     * A recent prediction of a track is reused.
+     */
+    @Test
+    public void reusesRecentPrediction() {
+
+        TrackCache cache = new TrackCache(REFRESH);
+        cache.put("a-0", 0, 7, 42.5);
+
+        assertTrue(cache.lookup("a-0", REFRESH - 1, label, confidence));
+        assertEquals(7, label[0]);
+        assertEquals(42.5, confidence[0], 0);
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    /**
+     * A prediction as old as the refresh interval is repeated.
+     */
+    @Test
+    public void expiresAfterRefresh() {
+
+        TrackCache cache = new TrackCache(REFRESH);
+        cache.put("a-0", 0, 7, 42.5);
+
+        assertFalse(cache.lookup("a-0", REFRESH, label, confidence));
+        assertEquals(1, cache.getMisses());
+    }
+
+    /**
+     * Refreshing a prediction restarts its interval.
+     */
+    @Test
+    public void refreshRestartsInterval() {
+
+        TrackCache cache = new TrackCache(REFRESH);
+        cache.put("a-0", 0, 7, 42.5);
+        cache.put("a-0", REFRESH, 8, 10);
+
+        assertTrue(cache.lookup("a-0", 2 * REFRESH - 1, label, confidence));
+        assertEquals(8, label[0]);
+    }
+
+    /**
+     * Predictions are kept per track.
+     */
+    @Test
+    public void separatesTracks() {
+
+        TrackCache cache = new TrackCache(REFRESH);
+        cache.put("a-0", 0, 7, 42.5);
+
+        assertFalse(cache.lookup("a-1", 0, label, confidence));
+        assertTrue(cache.lookup("a-0", 0, label, confidence));
+    }
+
+    /**
+     * Faces without a track are never cached.
+     */
+    @Test
+    public void ignoresFacesWithoutTrack() {
+
+        TrackCache cache = new TrackCache(REFRESH);
+        cache.put(null, 0, 7, 42.5);
+
+        assertFalse(cache.lookup(null, 0, label, confidence));
+        assertEquals(1, cache.getMisses());
+    }
+
+    /**
+     * Storing a prediction after the refresh interval removes the expired
+     * predictions of lost tracks, without touching recent ones.
+     */
+    @Test
+    public void sweepsLostTracks() {
+
+        TrackCache cache = new TrackCache(REFRESH);
+        cache.put("lost", 0, 1, 1);
+        cache.put("kept", REFRESH, 2, 2);
+
+        assertFalse(cache.lookup("lost", 0, label, confidence));
+        assertTrue(cache.lookup("kept", REFRESH + 1, label, confidence));
+        assertEquals(2, label[0]);
+    }
+}